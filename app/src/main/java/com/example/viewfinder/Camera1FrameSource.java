@@ -0,0 +1,88 @@
+// FrameSource over the preview callbacks of an android.hardware.Camera, in preallocated callback buffers
+
+package com.example.viewfinder;
+
+import android.hardware.Camera;
+import android.os.ConditionVariable;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.viewfinder.vision.Frame;
+import com.example.viewfinder.vision.FrameBufferPool;
+import com.example.viewfinder.vision.FrameSource;
+
+public class Camera1FrameSource implements FrameSource, Camera.PreviewCallback
+{	//	The camera is opened, configured and started by its owner; this only takes the NV21
+    //	frames it delivers (on the thread that opened it) and recycles their buffers through a
+    //	PreviewBufferPool. There is no capture time in Camera1, so frames are stamped on arrival.
+    //	The buffers come from a FrameBufferPool and go back to it on that same thread after stop,
+    //	so none is given back while a callback may still be reading it; stop waits for that.
+    private final Camera mCamera;
+    private final int mWidth, mHeight;
+    private final PreviewBufferPool mBufferPool;
+    private final Handler mHandler;     // of the thread the camera delivers frames on
+    private final Frame mFrame = new Frame();
+    private volatile Sink mSink;
+
+    public Camera1FrameSource (Camera camera, Handler handler, FrameBufferPool pool,
+                               int width, int height, int frameSize, int historyFrames, int queuedBuffers)
+    { // constructor - queues all the callback buffers with the camera, so create it before startPreview;
+      // handler is of the thread that opened the camera
+        mCamera = camera;
+        mHandler = handler;
+        mWidth = width;
+        mHeight = height;
+        mBufferPool = new PreviewBufferPool(camera, pool, frameSize, historyFrames, queuedBuffers);
+    }
+
+    public int width ()
+    {
+        return mWidth;
+    }
+
+    public int height ()
+    {
+        return mHeight;
+    }
+
+    public PreviewBufferPool bufferPool ()
+    { // recent frames, held by reference
+        return mBufferPool;
+    }
+
+    public void start (Sink sink)
+    {
+        mSink = sink;
+        mCamera.setPreviewCallbackWithBuffer(this);
+    }
+
+    public void stop ()
+    { // call while the camera is still open; it forgets the queued buffers, which go back to the pool
+      // after any callback already under way, and returns once that callback has finished
+        mSink = null;
+        mCamera.setPreviewCallbackWithBuffer(null);
+        if (Looper.myLooper() == mHandler.getLooper()) {   // on the camera thread: no callback is running
+            mBufferPool.release();
+            return;
+        }
+        final ConditionVariable drained = new ConditionVariable();
+        mHandler.post(new Runnable() {
+            public void run ()
+            {
+                mBufferPool.release();
+                drained.open();
+            }
+        });
+        drained.block();
+    }
+
+    @Override
+    public void onPreviewFrame (byte[] data, Camera camera)
+    {
+        Sink sink = mSink;
+        if (sink == null) return;
+        mBufferPool.onFrame(data);  // hold on to frame, recycle the oldest one
+        mFrame.setNV21(data, mWidth, mHeight, System.nanoTime());
+        sink.onFrame(mFrame);
+    }
+}
@@ -0,0 +1,271 @@
+// FrameSource over a Camera2 ImageReader: YUV_420_888 planes handed on as direct buffers, never copied here
+
+package com.example.viewfinder;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import com.example.viewfinder.vision.Frame;
+import com.example.viewfinder.vision.FrameSource;
+
+import java.util.Arrays;
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2FrameSource implements FrameSource, ImageReader.OnImageAvailableListener
+{	//	Opens the camera itself, on a HandlerThread of its own, and streams to an ImageReader
+    //	(and to the preview surface, if there is one) with a repeating preview request.
+    //	Each image is the latest one available: older ones still queued are dropped, as in the
+    //	triple buffer behind it. Its planes go to the sink as they are, and the image goes back
+    //	to the reader as soon as onFrame returns, so at most two are ever held.
+    //	Only used where the camera is LIMITED or FULL: LEGACY devices run Camera2 on top of
+    //	Camera1 with an extra copy, so they are better off with Camera1FrameSource.
+    private static final boolean DBG = true;
+    private static final int MAX_IMAGES = 2;
+
+    private final CameraManager mManager;
+    private final String mCameraId;
+    private final int mWidth, mHeight;
+    private final Surface mPreviewSurface;  // may be null
+    private final Frame mFrame = new Frame();
+    private volatile Sink mSink;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ImageReader mReader;
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private CaptureRequest.Builder mRequest;
+    private Range<Integer> mFpsRange;       // frames per second, null => camera default
+
+    public Camera2FrameSource (Context context, String cameraId, int width, int height, Surface previewSurface)
+    { // constructor - width x height must be one of outputSizes()
+        mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCameraId = cameraId;
+        mWidth = width;
+        mHeight = height;
+        mPreviewSurface = previewSurface;
+    }
+
+    public static String cameraId (Context context, int nCam)
+    { // Camera2 id of camera number nCam (same numbering as Camera1), or null if there is none
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return null;
+        try {
+            String[] ids = ((CameraManager) context.getSystemService(Context.CAMERA_SERVICE)).getCameraIdList();
+            return nCam < ids.length ? ids[nCam] : null;
+        } catch (CameraAccessException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported (Context context, String cameraId)
+    { // worth using instead of Camera1: API 21 and a camera that is not LEGACY
+        if (cameraId == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return false;
+        CameraCharacteristics characteristics = characteristics(context, cameraId);
+        if (characteristics == null) return false;
+        Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+    }
+
+    public static Size[] outputSizes (Context context, String cameraId)
+    { // sizes the ImageReader can be given
+        CameraCharacteristics characteristics = characteristics(context, cameraId);
+        if (characteristics == null) return new Size[0];
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        return map == null ? new Size[0] : map.getOutputSizes(ImageFormat.YUV_420_888);
+    }
+
+    public static int[][] fpsRanges (Context context, String cameraId)
+    { // {min, max} pairs in frames per 1000 seconds, as Camera1 gives them
+        CameraCharacteristics characteristics = characteristics(context, cameraId);
+        Range<Integer>[] ranges = characteristics == null ? null
+                : characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) return new int[0][];
+        int[][] result = new int[ranges.length][];
+        for (int k = 0; k < ranges.length; k++)
+            result[k] = new int[] {ranges[k].getLower() * 1000, ranges[k].getUpper() * 1000};
+        return result;
+    }
+
+    private static CameraCharacteristics characteristics (Context context, String cameraId)
+    {
+        try {
+            return ((CameraManager) context.getSystemService(Context.CAMERA_SERVICE)).getCameraCharacteristics(cameraId);
+        } catch (CameraAccessException e) {
+            return null;
+        }
+    }
+
+    public int width ()
+    {
+        return mWidth;
+    }
+
+    public int height ()
+    {
+        return mHeight;
+    }
+
+    public void setFrameRateRange (final int min, final int max)
+    { // frames per 1000 seconds; may be called from any thread, before or after start
+        mFpsRange = new Range<Integer>(min / 1000, max / 1000);
+        Handler handler = mHandler;
+        if (handler != null) handler.post(new Runnable() {
+            public void run ()
+            {
+                repeat();
+            }
+        });
+    }
+
+    public void start (Sink sink)
+    {
+        String TAG = "Camera2FrameSource";
+        if (mThread != null) return;
+        mSink = sink;
+        mThread = new HandlerThread("Camera2FrameSource");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mReader = ImageReader.newInstance(mWidth, mHeight, ImageFormat.YUV_420_888, MAX_IMAGES);
+        mReader.setOnImageAvailableListener(this, mHandler);
+        try {
+            mManager.openCamera(mCameraId, mDeviceCallback, mHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "ERROR: openCamera - CameraAccessException " + e);
+        } catch (SecurityException e) {
+            Log.e(TAG, "ERROR: openCamera - SecurityException " + e);
+        }
+    }
+
+    public void stop ()
+    { // close everything on the camera thread, after whatever it has queued, and wait for it
+        HandlerThread thread = mThread;
+        if (thread == null) return;
+        mSink = null;
+        mHandler.post(new Runnable() {
+            public void run ()
+            {
+                if (mSession != null) mSession.close();
+                if (mDevice != null) mDevice.close();
+                mReader.close();
+                mSession = null;
+                mDevice = null;
+            }
+        });
+        thread.quitSafely();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        mHandler = null;
+    }
+
+    private final CameraDevice.StateCallback mDeviceCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened (CameraDevice device)
+        {
+            String TAG = "onOpened";
+            mDevice = device;
+            if (mSink == null) {    // stopped while opening
+                device.close();
+                return;
+            }
+            try {
+                Surface readerSurface = mReader.getSurface();
+                device.createCaptureSession(mPreviewSurface == null ? Arrays.asList(readerSurface)
+                        : Arrays.asList(readerSurface, mPreviewSurface), mSessionCallback, mHandler);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "ERROR: createCaptureSession - CameraAccessException " + e);
+            }
+        }
+
+        @Override
+        public void onDisconnected (CameraDevice device)
+        {
+            device.close();
+            mDevice = null;
+        }
+
+        @Override
+        public void onError (CameraDevice device, int error)
+        {
+            Log.e("Camera2FrameSource", "ERROR: camera device error " + error);
+            device.close();
+            mDevice = null;
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback mSessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured (CameraCaptureSession session)
+        {
+            String TAG = "onConfigured";
+            if (mDevice == null) return;
+            mSession = session;
+            try {
+                mRequest = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "ERROR: createCaptureRequest - CameraAccessException " + e);
+                return;
+            }
+            mRequest.addTarget(mReader.getSurface());
+            if (mPreviewSurface != null) mRequest.addTarget(mPreviewSurface);
+            repeat();
+            if (DBG) Log.i(TAG, "Streaming " + mWidth + " x " + mHeight + " from camera " + mCameraId);
+        }
+
+        @Override
+        public void onConfigureFailed (CameraCaptureSession session)
+        {
+            Log.e("Camera2FrameSource", "ERROR: capture session configuration failed");
+        }
+    };
+
+    private void repeat ()
+    { // camera thread: (re)start the repeating request with the current settings
+        String TAG = "repeat";
+        if (mSession == null || mRequest == null) return;
+        if (mFpsRange != null) mRequest.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+        try {
+            mSession.setRepeatingRequest(mRequest.build(), null, mHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "ERROR: setRepeatingRequest - CameraAccessException " + e);
+        }
+    }
+
+    @Override
+    public void onImageAvailable (ImageReader reader)
+    { // camera thread
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        try {
+            Sink sink = mSink;
+            if (sink == null) return;
+            Image.Plane[] planes = image.getPlanes();
+            mFrame.setPlanes(planes[0].getBuffer(), planes[0].getRowStride(), planes[1].getBuffer(),
+                    planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                    mWidth, mHeight, image.getTimestamp());
+            sink.onFrame(mFrame);
+        } finally {
+            image.close();
+        }
+    }
+}
@@ -6,18 +6,26 @@
 
 package com.example.viewfinder;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.ImageFormat;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.hardware.Camera;
-import android.hardware.Camera.PreviewCallback;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.ConditionVariable;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
+import android.util.Size;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
@@ -25,7 +33,21 @@ import android.view.ViewGroup.LayoutParams;
 import android.view.Window;
 import android.view.WindowManager;
 
+import com.example.viewfinder.vision.AdaptiveController;
+import com.example.viewfinder.vision.BlobExtractor;
+import com.example.viewfinder.vision.Frame;
+import com.example.viewfinder.vision.FrameBufferPool;
+import com.example.viewfinder.vision.FrameProcessor;
+import com.example.viewfinder.vision.FrameResult;
+import com.example.viewfinder.vision.FrameSource;
+import com.example.viewfinder.vision.LatencyRecorder;
+import com.example.viewfinder.vision.OverlayRenderer;
+
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.List;
 
 // ----------------------------------------------------------------------
@@ -36,14 +58,26 @@ public class MainActivity extends Activity
     String asterisks = " *******************************************"; // for noticable marker in log
     protected static int mCam = 0;      // the number of the camera to use (0 => rear facing)
     protected static Camera mCamera = null;
-    int nPixels = 240 * 320;            // approx number of pixels desired in preview
+    static boolean bPreferCamera2 = true;   // use Camera2FrameSource where the camera is not LEGACY
+    protected static String mCamera2Id;     // Camera2 id of mCam if using Camera2, else null
+    int nPixels = 480 * 640;            // approx number of pixels desired in preview to start with
+                                        // (windowed tracking cost does not depend on this)
+    static int nMaxFrameRate = 30;      // highest preview frame rate asked for
+    protected static AdaptiveController mController = new AdaptiveController(2);   // sizes, decimation
+    protected static LatencyRecorder mLatency = new LatencyRecorder();  // stage timings, kept across preview sizes
+    protected static FrameBufferPool mBufferPool = new FrameBufferPool();   // frame buffers, kept across pause and resume
+    protected static HandlerThread mCameraThread;   // opens the camera (and gets its Camera1 callbacks)
+    protected static Handler mCameraHandler;
+    protected static final ConditionVariable mCameraReady = new ConditionVariable(true); // open and size chosen
     protected static int mCameraHeight;   // preview height (determined later)
     protected static int mCameraWidth;    // preview width
     protected static Preview mPreview;
     protected static DrawOnTop mDrawOnTop;
     protected static LayoutParams mLayoutParams = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
     private static boolean DBG=true;
-    float mLearningRate = (float) 0.1;
+    int nWorkerThreads = 0;             // threads for per-pixel kernels (0 => one per core)
+    int nTrackingMode = FrameProcessor.TRACK_FEATURES;  // how the tracked point follows the image
+    int nTrackingRadius = 24;           // tracking window half size (pixels)
 
 //    static boolean bDisplayInfoFlag = true;	// show info about display  in log file
 //    static boolean nCameraInfoFlag = true;	// show info about cameras in log file
@@ -64,6 +98,11 @@ public class MainActivity extends Activity
         // optional dump of useful info into the log
 //		if (bDisplayInfoFlag) ExtraInfo.showDisplayInfo(this); // show some info about display
 //		if (nCameraInfoFlag) ExtraInfo.showCameraInfoAll(); // show some info about all cameras
+        if (mCameraThread == null) {
+            mCameraThread = new HandlerThread("CameraThread");
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+        }
     }
 
     // Because the CameraDevice object is not a shared resource,
@@ -74,7 +113,10 @@ public class MainActivity extends Activity
     {
         super.onPause();
         if (DBG) Log.v(TAG, "onPause" + asterisks);
-        releaseCamera(mCam, true);    // release camera here
+        dumpLatency();
+        mCameraReady.block();	// in case the camera is still being opened
+        if (mPreview != null) mPreview.stopFrameSource();
+        if (mCamera2Id == null) releaseCamera(mCam, true);    // release camera here
     }
 
     // which means the CameraDevice has to be (re-)opened when the activity is (re-)started
@@ -84,8 +126,10 @@ public class MainActivity extends Activity
     {
         super.onResume();
         if (DBG) Log.v(TAG, "onResume" + asterisks);
-        openCamera(mCam);    // (re-)open camera here
-        getPreviewSize(mCamera, nPixels);    // pick an available preview size
+        mLatency.markStart();	// time to the first result
+        // open the camera on its own thread while the views are made; the surface callbacks wait for it
+        mCameraReady.close();
+        mCameraHandler.post(mOpenCamera);
 
         // Create our DrawOnTop view.
         mDrawOnTop = new DrawOnTop(this);
@@ -97,12 +141,66 @@ public class MainActivity extends Activity
         addContentView(mDrawOnTop, mLayoutParams);
     }
 
+    // Camera thread: pick the API, open the camera and choose a preview size (first time only)
+
+    private final Runnable mOpenCamera = new Runnable() {
+        public void run ()
+        {
+            String TAG = "openCamera";
+            long start = System.nanoTime();
+            Context context = MainActivity.this;
+            mCamera2Id = bPreferCamera2 ? Camera2FrameSource.cameraId(context, mCam) : null;
+            if (!Camera2FrameSource.isSupported(context, mCamera2Id)) mCamera2Id = null;
+            if (mCamera2Id == null) {	// Camera1: opened here, Camera2 opens it in its frame source
+                openCamera(mCam);    // (re-)open camera here
+                getPreviewSize(mCamera, nPixels);    // pick an available preview size (first time only)
+            }
+            else getPreviewSize(Camera2FrameSource.outputSizes(context, mCamera2Id), nPixels);
+            if (DBG) Log.i(TAG, "Camera ready in " + (System.nanoTime() - start) / 1000000 + " ms");
+            mCameraReady.open();
+        }
+    };
+
     @Override
     protected void onDestroy ()
     {
         super.onDestroy();
         if (DBG) Log.v(TAG, "onDestroy" + asterisks);
-        releaseCamera(mCam, true);    // if it hasn't been released yet...
+        mCameraReady.block();
+        if (mCamera2Id == null) releaseCamera(mCam, true);    // if it hasn't been released yet...
+    }
+
+    // Frame buffers kept for the next resume are the first thing to go when memory is short
+
+    @Override
+    public void onTrimMemory (int level)
+    {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE) mBufferPool.clear();
+    }
+
+    // Write the stage timings and frame counts of this session to latency.txt
+    // (app's external files directory if there is one), then start counting afresh
+
+    private void dumpLatency ()
+    {
+        String TAG = "dumpLatency";
+        File dir = getExternalFilesDir(null);
+        if (dir == null) dir = getFilesDir();
+        File file = new File(dir, "latency.txt");
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(file));
+            try {
+                mLatency.dump(out);
+            } finally {
+                out.close();
+            }
+            if (DBG) Log.i(TAG, "Latency written to " + file);
+        }
+        catch (IOException e) {
+            Log.e(TAG, "ERROR: dumpLatency - IOException " + e);
+        }
+        mLatency.reset();
     }
 
     //////////////////////////////////////////////////////////////////////////////
@@ -147,50 +245,128 @@ public class MainActivity extends Activity
     { //	pick one of the available preview size
         String TAG = "getPreviewSize";
         Camera.Parameters params = mCamera.getParameters();
-        List<Camera.Size> cSizes = params.getSupportedPictureSizes();
-        int dPixels, dMinPixels = -1;
-        if (DBG) Log.i(TAG, "Looking for about " + nPixels + " pixels");
-        for (Camera.Size cSize : cSizes) {    // step through available camera preview image sizes
+        List<Camera.Size> cSizes = params.getSupportedPreviewSizes();
+        int[] widths = new int[cSizes.size()];
+        int[] heights = new int[cSizes.size()];
+        for (int k = 0; k < cSizes.size(); k++) {    // step through available camera preview image sizes
+            Camera.Size cSize = cSizes.get(k);
             if (DBG) Log.i(TAG, "Size " + cSize.height + " x " + cSize.width); // debug log output
-//			use desired pixel count as a guide to selection
-            dPixels = Math.abs(cSize.height * cSize.width - nPixels);
-            if (dMinPixels < 0 || dPixels < dMinPixels) {
-                mCameraHeight = cSize.height;
-                mCameraWidth = cSize.width;
-                dMinPixels = dPixels;
-            }
+            widths[k] = cSize.width;
+            heights[k] = cSize.height;
+        }
+        choosePreviewSize(widths, heights, nPixels);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void getPreviewSize (Size[] sizes, int nPixels)
+    { //	same, from the Camera2 stream sizes
+        String TAG = "getPreviewSize";
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int k = 0; k < sizes.length; k++) {
+            if (DBG) Log.i(TAG, "Size " + sizes[k].getHeight() + " x " + sizes[k].getWidth());
+            widths[k] = sizes[k].getWidth();
+            heights[k] = sizes[k].getHeight();
         }
+        choosePreviewSize(widths, heights, nPixels);
+    }
+
+    private static void choosePreviewSize (int[] widths, int[] heights, int nPixels)
+    {
+        String TAG = "choosePreviewSize";
+        mController.setSizes(widths, heights);
+        if (mController.indexOf(mCameraWidth, mCameraHeight) >= 0)
+            return;	// keep the size the controller settled on before the pause
+//		use desired pixel count as a guide to selection
+        if (DBG) Log.i(TAG, "Looking for about " + nPixels + " pixels");
+        int nearest = mController.nearestSize(nPixels);
+        mCameraWidth = mController.width(nearest);
+        mCameraHeight = mController.height(nearest);
         if (DBG) Log.i(TAG, "Nearest fit available preview image size: " + mCameraHeight + " x " + mCameraWidth);
     }
 
+    private static void setPreviewFpsRange (Camera.Parameters parameters)
+    {
+        int[] best = previewFpsRange(parameters.getSupportedPreviewFpsRange());
+        if (best != null) parameters.setPreviewFpsRange(best[0], best[1]);
+    }
+
+    private static void setIdleFpsRange (Camera.Parameters parameters)
+    {
+        int[] best = idleFpsRange(parameters.getSupportedPreviewFpsRange());
+        if (best != null) parameters.setPreviewFpsRange(best[0], best[1]);
+    }
+
+    private static int[] previewFpsRange (List<int[]> ranges)
+    { //	fastest supported frame rate range up to nMaxFrameRate, the steadier one if there is a tie
+        String TAG = "previewFpsRange";
+        int[] best = null;
+        boolean bestFits = false;	// best is within nMaxFrameRate
+        for (int[] range : ranges) {  // rates are in frames per 1000 seconds
+            int min = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            if (DBG) Log.i(TAG, "Range " + min + " - " + max);
+            boolean fits = max <= nMaxFrameRate * 1000;
+            boolean better;
+            if (best == null || fits != bestFits) better = best == null || fits;
+            else if (max != best[1]) better = fits ? max > best[1] : max < best[1];
+            else better = min > best[0];
+            if (better) {
+                best = new int[] {min, max};
+                bestFits = fits;
+            }
+        }
+        if (best == null) return null;
+        mController.setFrameRate(best[1] / 1000f);	// frame budget is set by the fastest rate
+        if (DBG) Log.i(TAG, "Preview frame rate range " + best[0] + " - " + best[1]);
+        return best;
+    }
+
+    private static int[] idleFpsRange (List<int[]> ranges)
+    { //	slowest supported frame rate range, while nothing moves
+        String TAG = "idleFpsRange";
+        int[] best = null;
+        for (int[] range : ranges) {
+            int min = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            if (best == null || max < best[1] || (max == best[1] && min < best[0]))
+                best = new int[] {min, max};
+        }
+        if (best != null && DBG) Log.i(TAG, "Idle frame rate range " + best[0] + " - " + best[1]);
+        return best;
+    }
+
 //------- nested class DrawOnTop ---------------------------------------------------------------
 
-    class DrawOnTop extends View
+    class DrawOnTop extends View implements FrameProcessor.Listener
     {
-        Bitmap mBitmap;
-        byte[] mYUVData;
+        Bitmap mBitmap;     // overlay buffers: allocated on the first frame that has an overlay to show
         int[] mRGBData;
-        byte[] mLumaData;
-        byte[] preLumaData;
-        float[] mLumaMean;
-        float[] mLumaVar;
-        boolean[] mLumaChanged;
         int mImageWidth, mImageHeight;
-        int[] mRedHistogram;
-        int[] mGreenHistogram;
-        int[] mBlueHistogram;
         Paint mPaintBlack;
         Paint mPaintYellow;
         Paint mPaintRed;
         Paint mPaintGreen;
         Paint mPaintBlue;
+        Paint mPaintBlob;
+        Paint mPaintBitmap;
+        RectF barRect = new RectF();    // one bar of the histogram
+        OverlayRenderer mOverlay;   // draws into mRGBData, shown through mBitmap
+        Rect mBitmapRect = new Rect();
+        Rect mCanvasRect = new Rect();
+        static final int OVERLAY_MASK = 1, OVERLAY_FLOW = 2, OVERLAY_HEATMAP = 4;
+        int mOverlayFlags = OVERLAY_MASK | OVERLAY_FLOW;
+        boolean mShowBlobs = true;      // boxes around moving regions
+        boolean mShowStatistics = true; // changed share, brightness histogram and its moments
+        float mArrowScale = 4;  // arrow length per pixel of motion (in image pixels)
+        float mHeatMapMax = 4;  // motion (pixels per frame) shown as full red
         int mTextsize = 50;		// controls size of text on screen
         int mLeading;			// spacing between text lines
+        boolean mShowLatency = DBG;     // stage timings and frame counts at the top left
+        float[] mPercents = {50, 95, 99};
+        long[] mPercentileNanos = new long[3];
         String TAG = "DrawOnTop";       // for logcat output
-        boolean isFirstFrame;
-
-        float trackingX;
-        float trackingY;
+        FrameProcessor mProcessor;      // motion estimation worker (set up in Preview)
 
         public DrawOnTop (Context context)
         { // constructor
@@ -201,19 +377,18 @@ public class MainActivity extends Activity
             mPaintRed = makePaint(Color.RED);
             mPaintGreen = makePaint(Color.GREEN);
             mPaintBlue = makePaint(Color.BLUE);
+            mPaintBlob = makePaint(Color.CYAN);
+            mPaintBlob.setStyle(Paint.Style.STROKE);
+            mPaintBlob.setStrokeWidth(4);
+            mPaintBitmap = new Paint();
+            mPaintBitmap.setFilterBitmap(false);
 
-            mBitmap = null;	// will be set up later in Preview - PreviewCallback
-            mYUVData = null;
+            mBitmap = null;	// will be set up when there is something to draw into it
             mRGBData = null;
-            mLumaData = null;
-            mRedHistogram = new int[256];
-            mGreenHistogram = new int[256];
-            mBlueHistogram = new int[256];
+            mProcessor = null;
             if (DBG) Log.i(TAG, "DrawOnTop textsize " + mTextsize);
             mLeading = mTextsize * 6 / 5;    // adjust line spacing
             if (DBG) Log.i(TAG, "DrawOnTop Leading " + mLeading);
-            isFirstFrame = true;
-
         }
 
         Paint makePaint (int color)
@@ -226,41 +401,73 @@ public class MainActivity extends Activity
             return mPaint;
         }
 
+        // Stages the worker runs: only those something on screen is drawn from
+        // (call again after changing mOverlayFlags, mShowBlobs or mShowStatistics)
+
+        void updateDemand ()
+        {
+            if (mProcessor == null) return;
+            int overlay = 0;
+            if ((mOverlayFlags & OVERLAY_MASK) != 0) overlay |= FrameProcessor.STAGE_BACKGROUND;
+            if ((mOverlayFlags & (OVERLAY_FLOW | OVERLAY_HEATMAP)) != 0) overlay |= FrameProcessor.STAGE_FLOW;
+            if (mShowBlobs) overlay |= FrameProcessor.STAGE_BLOBS;
+            mProcessor.setDemand(FrameProcessor.CONSUMER_OVERLAY, overlay);
+            mProcessor.setDemand(FrameProcessor.CONSUMER_TELEMETRY,
+                    mShowStatistics ? FrameProcessor.STAGE_BACKGROUND | FrameProcessor.STAGE_COLOR : 0);
+        }
+
+        // Called on the worker thread each time a new result has been published
+
+        public void onFrameProcessed ()
+        {
+            postInvalidate();
+        }
+
+        // Called on the worker thread when frames take too long (or too little time) at this size
+
+        public void onPreviewSizeRequested (final int width, final int height)
+        {
+            post(new Runnable() {
+                public void run ()
+                {
+                    if (mPreview != null) mPreview.changePreviewSize(width, height);
+                }
+            });
+        }
+
+        // Called on the worker thread when the scene has been static for a while, or starts moving
+
+        public void onIdleChanged (final boolean idle)
+        {
+            post(new Runnable() {
+                public void run ()
+                {
+                    if (mPreview != null) mPreview.setIdle(idle);
+                }
+            });
+        }
+
         // Called when preview is drawn on screen
-        // Compute some statistics and draw text and histograms on screen
+        // Draw the latest results published by the worker on screen
 
         @Override
         protected void onDraw (Canvas canvas)
         {
 
             String TAG="onDraw";
-            if (mBitmap == null) {    // sanity check
-                Log.w(TAG, "mBitMap is null");
+            long start = System.nanoTime();
+            if (mProcessor == null) {    // sanity check
+                Log.w(TAG, "mProcessor is null");
                 super.onDraw(canvas);
                 return;    // because not yet set up
             }
-            if (isFirstFrame){
-                System.arraycopy(mLumaData,0,preLumaData,0,mLumaData.length);
-                isFirstFrame = false;
+            FrameResult result = mProcessor.latestResult();
+            if (!result.valid) {    // worker has not seen two frames yet
                 super.onDraw(canvas);
                 return;
             }
-
-            float[] Ex = computeGradientX(mLumaData,preLumaData,mImageHeight,mImageWidth);
-            float[] Ey = computeGradientY(mLumaData,preLumaData,mImageHeight,mImageWidth);
-            float[] Et = computeGradientT(mLumaData,preLumaData,mImageHeight,mImageWidth);
-
-            float delta =  (float)(crossProduct(Ex,Ex) * crossProduct(Ey,Ey) - Math.pow(crossProduct(Ex,Ey),2));
-            float u = (crossProduct(Ex,Ey) * crossProduct(Ey,Et) - crossProduct(Ey,Ey) * crossProduct(Ex,Et)) / delta;
-            float v = (crossProduct(Ex,Ey) * crossProduct(Ex,Et) - crossProduct(Ex,Ex) * crossProduct(Ey,Et)) / delta;
-
-            trackingX += u;
-            trackingY += v;
-
-            if (trackingX > mImageWidth || trackingY > mImageHeight || trackingX < 0 || trackingY < 0){
-                trackingX = mImageWidth / 2;
-                trackingY = mImageHeight / 2;
-            }
+            float u = result.u;
+            float v = result.v;
 
             // Finally, use the results to draw things on top of screen:
             int canvasHeight = canvas.getHeight();
@@ -268,208 +475,64 @@ public class MainActivity extends Activity
             int newImageWidth = canvasWidth - 200;
             int marginWidth = (canvasWidth - newImageWidth) / 2;
 
+            drawOverlayOnCanvas(canvas, result);
+            drawBlobsOnCanvas(canvas, result, mPaintBlob);
+            drawFeaturesOnCanvas(canvas, result, mPaintGreen);
+
             // draw tracking dots on screen;
-            drawTrackingPointOnCanvas(canvas,trackingX,trackingY,mPaintRed);
+            drawTrackingPointOnCanvas(canvas,result.trackingX,result.trackingY,mPaintRed);
+            if (result.windowRadius > 0)
+                drawTrackingWindowOnCanvas(canvas,result.trackingX,result.trackingY,result.windowRadius,mPaintRed);
 
 
             // Draw mean (truncate to integer) text on screen
             String imageMeanStr = "Image motion (u,v): " + String.format("%4d", (int)(20 * u)) + ", " +
                     String.format("%4d",  (int)(20 * v));
+            if (result.confidence > 0)	// phase correlation: how clear the peak was
+                imageMeanStr += "  peak " + String.format("%4.2f", result.confidence);
             drawTextOnBlack(canvas, imageMeanStr, marginWidth+10, canvasHeight - 2*mLeading, mPaintYellow);
 
-//            for (int i = 0; i < mImageHeight * mImageWidth; i++){
-//                if (Math.abs(mLumaData[i] - mLumaMean[i]) > 3 * Math.sqrt(mLumaVar[i])){
-//                    mLumaChanged[i] = true;
-//                } else {
-//                    mLumaChanged[i] = false;
-//                }
-//            }
-//
-//            // Ignore the edge for simplicity
-//            for (int y = 1; y < mImageHeight -1 ; y++){
-//                for (int x = 1; x < mImageWidth -1 ; x++){
-//                    if (numOfChangedNeighbors(mLumaChanged,x,y,mImageWidth) > 6){
-//                        mBitmap.setPixel(x,y,Color.RED);
-//                    } else {
-//                        mBitmap.setPixel(x,y,Color.TRANSPARENT);
-//                    }
-//                }
-//            }
-
-//            Rect bitmapRect = new Rect(0,0,mImageWidth,mImageHeight);
-//            Rect canvasRect = new Rect(0,0,canvas.getWidth(),canvas.getHeight());
-//            canvas.drawBitmap(mBitmap,bitmapRect,canvasRect,new Paint());
-//
-//
-//            for (int i = 0; i < mImageHeight * mImageWidth; i++){
-//                if (!mLumaChanged[i]){
-//                    mLumaMean[i] = (1-mLearningRate) * mLumaMean[i] + mLearningRate * mLumaData[i];
-//                    mLumaVar[i] = (1-mLearningRate) * mLumaVar[i] + mLearningRate * (mLumaData[i] - mLumaMean[i]) * (mLumaData[i] - mLumaMean[i]);
-//                }
-//            }
-
-            System.arraycopy(mLumaData,0,preLumaData,0,mLumaData.length);
-
-            super.onDraw(canvas);
-
-        } // end onDraw method
-
-        public float crossProduct(float[] a, float[] b){
-            float sum = 0;
-            for (int i = 0; i< a.length; i++){
-                sum += a[i] * b[i];
-            }
-            return sum;
-        }
-
-        public int numOfChangedNeighbors(boolean[] pixels, int x, int y, int width){
-            int total = 0;
-            for (int dx = -1; dx <= 1; dx++){
-                for (int dy = -1; dy <= 1; dy++){
-                    if (dx == 0 && dy == 0) continue;
-                    total +=  pixels[width * (y + dy) + x+ dx] ? 1: 0;
-                }
-            }
-            return total;
-        }
-
-        public float[] computeGradientX(byte[] pixels, byte[] prePixels, int height, int width){
-            float[] gradientX = new float[(height-1) * (width-1)];
-            for (int y = 0; y < height -1; y++){
-                for (int x = 0; x < width -1; x++){
-                    gradientX[(width-1) * y + x] =
-                            ((float)(prePixels[width * y + x + 1] + prePixels[width * (y + 1) + x + 1] + pixels[width * y + x + 1]
-                            + pixels[width * (y + 1) + x + 1] - prePixels[width * y + x] - prePixels[width * (y + 1) + x]
-                            - pixels[width * y + x] - pixels[width * (y + 1) + x])) / 4;
-                }
-            }
-
-            return gradientX;
-        }
-
-        public float[] computeGradientY(byte[] pixels, byte[] prePixels, int height, int width){
-            float[] gradientY = new float[(height-1) * (width-1)];
-            for (int y = 0; y < height -1; y++){
-                for (int x = 0; x < width -1; x++){
-                    gradientY[(width-1) * y + x] =
-                            ((float)(prePixels[width * (y + 1) + x + 1] + prePixels[width * (y + 1) + x] + pixels[width * (y + 1) + x]
-                                    + pixels[width * (y + 1) + x + 1] - prePixels[width * y + x] - prePixels[width * y + x + 1]
-                                    - pixels[width * y + x] - pixels[width * y + x + 1])) / 4;
-                }
+            if (result.isStatic) {	// pipeline skipped, nothing moved
+                String staticStr = result.isIdle ? "Idle" : "Static";
+                drawTextOnBlack(canvas, staticStr, marginWidth+10, canvasHeight - 3*mLeading, mPaintYellow);
             }
-
-            return gradientY;
-        }
-
-        public float[] computeGradientT(byte[] pixels, byte[] prePixels, int height, int width){
-            float[] gradientT = new float[(height-1) * (width-1)];
-            for (int y = 0; y < height -1; y++){
-                for (int x = 0; x < width -1; x++){
-                    gradientT[(width-1) * y + x] =
-                            ((float)(pixels[width * (y + 1) + x + 1] + pixels[width * (y + 1) + x] + pixels[width * y + x]
-                                    + pixels[width * y + x + 1] - prePixels[width * y + x] - prePixels[width * y + x + 1]
-                                    - prePixels[width * (y + 1) + x] - prePixels[width * (y + 1) + x + 1])) / 4;
-                }
+            if (result.hasChangeMask) {	// share of the image that differs from the background
+                String changedStr = "Changed: " + String.format("%5.1f", 100f * result.changedPixels / (mImageWidth * mImageHeight)) + "%";
+                drawTextOnBlack(canvas, changedStr, marginWidth+10, canvasHeight - 3*mLeading, mPaintYellow);
             }
 
-            return gradientT;
-        }
-
-        public void decodeYUV420SP (int[] rgb, byte[] yuv420sp, int width, int height)
-        { // convert image in YUV420SP format to RGB format
-            final int frameSize = width * height;
-
-            for (int j = 0, pix = 0; j < height; j++) {
-                int uvp = frameSize + (j >> 1) * width;	// index to start of u and v data for this row
-                int u = 0, v = 0;
-                for (int i = 0; i < width; i++, pix++) {
-                    int y = (0xFF & ((int) yuv420sp[pix])) - 16;
-                    if (y < 0) y = 0;
-                    if ((i & 1) == 0) { // even row & column (u & v are at quarter resolution of y)
-                        v = (0xFF & yuv420sp[uvp++]) - 128;
-                        u = (0xFF & yuv420sp[uvp++]) - 128;
-                    }
-
-                    int y1192 = 1192 * y;
-                    int r = (y1192 + 1634 * v);
-                    int g = (y1192 - 833 * v - 400 * u);
-                    int b = (y1192 + 2066 * u);
-
-                    if (r < 0) r = 0;
-                    else if (r > 0x3FFFF) r = 0x3FFFF;
-                    if (g < 0) g = 0;
-                    else if (g > 0x3FFFF) g = 0x3FFFF;
-                    if (b < 0) b = 0;
-                    else if (b > 0x3FFFF) b = 0x3FFFF;
-
-                    rgb[pix] = 0xFF000000 | ((r << 6) & 0xFF0000) | ((g >> 2) & 0xFF00) | ((b >> 10) & 0xFF);
-                }
+            if (result.hasColorStatistics) {	// brightness histogram and colour moments, from the YUV planes
+                float barWidth = ((float) newImageWidth) / 256;
+                drawHistogram(canvas, mPaintYellow, result.lumaHistogram, result.nLumaSamples,
+                        canvasHeight - 5 * mLeading, marginWidth, barWidth);
+                String lumaStr = "Y mean " + String.format("%5.1f", result.lumaMean) +
+                        " sd " + String.format("%5.1f", result.lumaStdDev);
+                drawTextOnBlack(canvas, lumaStr, marginWidth+10, canvasHeight - 4*mLeading, mPaintYellow);
             }
-        }
 
-        public void decodeYUV420SPGrayscale (int[] rgb, byte[] yuv420sp, int width, int height)
-        { // extract grey RGB format image --- not used currently
-            final int frameSize = width * height;
+            if (mShowLatency) drawLatency(canvas, marginWidth + 10, mLeading);
 
-            // This is much simpler since we can ignore the u and v components
-            for (int pix = 0; pix < frameSize; pix++) {
-                int y = (0xFF & ((int) yuv420sp[pix])) - 16;
-                if (y < 0) y = 0;
-                if (y > 0xFF) y = 0xFF;
-                rgb[pix] = 0xFF000000 | (y << 16) | (y << 8) | y;
-            }
-        }
+            super.onDraw(canvas);
+            mLatency.record(LatencyRecorder.DRAW, start);
 
-        // This is where we finally actually do some "image processing"!
+        } // end onDraw method
 
-        public void calculateIntensityHistograms(int[] rgb, int[] redHistogram, int[] greenHistogram, int[] blueHistogram, int width, int height)
-        {
-            final int dpix = 1;
-            int red, green, blue, bin, pixVal;
-            for (bin = 0; bin < 256; bin++) { // reset the histograms
-                redHistogram[bin] = 0;
-                greenHistogram[bin] = 0;
-                blueHistogram[bin] = 0;
-            }
-            for (int pix = 0; pix < width * height; pix += dpix) {
-                pixVal = rgb[pix];
-                blue = pixVal & 0xFF;
-                blueHistogram[blue]++;
-                pixVal = pixVal >> 8;
-                green = pixVal & 0xFF;
-                greenHistogram[green]++;
-                pixVal = pixVal >> 8;
-                red = pixVal & 0xFF;
-                redHistogram[red]++;
+        private void drawLatency (Canvas canvas, int left, int top)
+        { // p50 / p95 / p99 of each stage (ms, over the last few hundred frames), and what became of the frames
+            String framesStr = "Frames " + mLatency.received() + " done " + mLatency.processed() +
+                    " static " + mLatency.skipped() + " dropped " + mLatency.dropped();
+            long firstNanos = mLatency.nFirstResultNanos;
+            if (firstNanos >= 0) framesStr += " first " + firstNanos / 1000000 + " ms";
+            drawTextOnBlack(canvas, framesStr, left, top, mPaintGreen);
+            for (int stage = 0; stage < LatencyRecorder.STAGES; stage++) {
+                if (mLatency.percentiles(stage, mPercents, mPercentileNanos) == 0) continue;  // stage not run
+                top += mLeading;
+                String stageStr = String.format("%-10s %6.2f %6.2f %6.2f", LatencyRecorder.NAMES[stage],
+                        mPercentileNanos[0] / 1e6, mPercentileNanos[1] / 1e6, mPercentileNanos[2] / 1e6);
+                drawTextOnBlack(canvas, stageStr, left, top, mPaintGreen);
             }
         }
 
-//        private void calculateMeanAndStDev (int mRedHistogram[], int mGreenHistogram[], int mBlueHistogram[], int nPixels)
-//        {
-//            // Calculate first and second moments (zeroth moment equals nPixels)
-//            double red1stMoment = 0, green1stMoment = 0, blue1stMoment = 0;
-//            double red2ndMoment = 0, green2ndMoment = 0, blue2ndMoment = 0;
-//            double binsquared = 0;
-//            for (int bin = 0; bin < 256; bin++) {
-//                binsquared += (bin << 1) - 1;	// n^2 - (n-1)^2 = 2*n - 1
-//                red1stMoment   += mRedHistogram[bin]   * bin;
-//                green1stMoment += mGreenHistogram[bin] * bin;
-//                blue1stMoment  += mBlueHistogram[bin]  * bin;
-//                red2ndMoment   += mRedHistogram[bin]   * binsquared;
-//                green2ndMoment += mGreenHistogram[bin] * binsquared;
-//                blue2ndMoment  += mBlueHistogram[bin]  * binsquared;
-//
-//            } // bin
-//
-//            redMean   = red1stMoment   / nPixels;
-//            greenMean = green1stMoment / nPixels;
-//            blueMean  = blue1stMoment  / nPixels;
-//
-//            redStdDev   = Math.sqrt(red2ndMoment   / nPixels - redMean * redMean);
-//            greenStdDev = Math.sqrt(green2ndMoment / nPixels - greenMean * greenMean);
-//            blueStdDev  = Math.sqrt(blue2ndMoment  / nPixels - blueMean * blueMean);
-//        }
-
         private void drawTextOnBlack (Canvas canvas, String str, int rPos, int cPos, Paint mPaint)
         { // make text stand out from background by providing thin black border
             canvas.drawText(str, rPos - 1, cPos - 1, mPaintBlack);
@@ -485,26 +548,81 @@ public class MainActivity extends Activity
             canvas.drawCircle(canvasX,canvasY,10,mPaint);
         }
 
-//        private void drawHistogram (Canvas canvas, Paint mPaint,
-//                                    int mHistogram[], int nPixels,
-//                                    int mBottom, int marginWidth, float barWidth)
-//        {
-//            float barMaxHeight = 3000; // controls vertical scale of histogram
-//            float barMarginHeight = 2;
-//
-//            barRect.bottom = mBottom;
-//            barRect.left = marginWidth;
-//            barRect.right = barRect.left + barWidth;
-//            for (int bin = 0; bin < 256; bin++) {
-//                float prob = (float) mHistogram[bin] / (float) nPixels;
-//                barRect.top = barRect.bottom - Math.min(80, prob * barMaxHeight) - barMarginHeight;
-//                canvas.drawRect(barRect, mPaintBlack);
-//                barRect.top += barMarginHeight;
-//                canvas.drawRect(barRect, mPaint);
-//                barRect.left += barWidth;
-//                barRect.right += barWidth;
-//            }
-//        }
+        private void drawOverlayOnCanvas (Canvas canvas, FrameResult result)
+        { // compose mask, heat map and arrows into mRGBData, then one bulk copy into mBitmap
+            boolean mask = (mOverlayFlags & OVERLAY_MASK) != 0 && result.hasChangeMask;
+            boolean heatMap = (mOverlayFlags & OVERLAY_HEATMAP) != 0 && result.hasFlowField;
+            boolean flow = (mOverlayFlags & OVERLAY_FLOW) != 0 && result.hasFlowField;
+            if (!mask && !heatMap && !flow) return;
+            if (mBitmap == null) {  // first overlay at this size
+                mBitmap = Bitmap.createBitmap(mImageWidth, mImageHeight, Bitmap.Config.ARGB_8888);
+                mRGBData = new int[mImageWidth * mImageHeight];
+                mOverlay = new OverlayRenderer(mRGBData, mImageWidth, mImageHeight);
+            }
+            mOverlay.clear();
+            if (heatMap) mOverlay.drawFlowHeatMap(result, mHeatMapMax, 0x60);
+            if (mask) mOverlay.drawMask(result.changeMask, result.maskWordsPerRow, 0xA0FF0000);
+            if (flow) mOverlay.drawFlowArrows(result, mArrowScale, Color.GREEN);
+            mBitmap.setPixels(mRGBData, 0, mImageWidth, 0, 0, mImageWidth, mImageHeight);
+            mBitmapRect.set(0, 0, mImageWidth, mImageHeight);
+            mCanvasRect.set(0, 0, canvas.getWidth(), canvas.getHeight());
+            canvas.drawBitmap(mBitmap, mBitmapRect, mCanvasRect, mPaintBitmap);
+        }
+
+        private void drawBlobsOnCanvas (Canvas canvas, FrameResult result, Paint mPaint)
+        { // bounding box of each moving region
+            float scaleX = (float) canvas.getWidth() / mImageWidth;
+            float scaleY = (float) canvas.getHeight() / mImageHeight;
+            for (int k = 0; k < result.nBlobs; k++) {
+                BlobExtractor.Blob blob = result.blobs[k];
+                canvas.drawRect(blob.left * scaleX, blob.top * scaleY,
+                        (blob.right + 1) * scaleX, (blob.bottom + 1) * scaleY, mPaint);
+            }
+        }
+
+        private void drawFeaturesOnCanvas (Canvas canvas, FrameResult result, Paint mPaint)
+        { // each tracked corner, with a tail back to where it was in the last frame (scaled up by mArrowScale)
+            float scaleX = (float) canvas.getWidth() / mImageWidth;
+            float scaleY = (float) canvas.getHeight() / mImageHeight;
+            for (int k = 0; k < result.nFeatures; k++) {
+                float x = result.featureX[k] * scaleX, y = result.featureY[k] * scaleY;
+                canvas.drawCircle(x, y, 3, mPaint);
+                canvas.drawLine(x, y, x - result.featureU[k] * mArrowScale * scaleX,
+                        y - result.featureV[k] * mArrowScale * scaleY, mPaint);
+            }
+        }
+
+        private void drawTrackingWindowOnCanvas(Canvas canvas, float trackingX, float trackingY, int radius, Paint mPaint){
+            float scaleX = (float) canvas.getWidth() / mImageWidth;
+            float scaleY = (float) canvas.getHeight() / mImageHeight;
+            float left = (trackingX - radius) * scaleX, right = (trackingX + radius) * scaleX;
+            float top = (trackingY - radius) * scaleY, bottom = (trackingY + radius) * scaleY;
+            canvas.drawLine(left, top, right, top, mPaint);
+            canvas.drawLine(right, top, right, bottom, mPaint);
+            canvas.drawLine(right, bottom, left, bottom, mPaint);
+            canvas.drawLine(left, bottom, left, top, mPaint);
+        }
+
+        private void drawHistogram (Canvas canvas, Paint mPaint,
+                                    int mHistogram[], int nPixels,
+                                    int mBottom, int marginWidth, float barWidth)
+        {
+            float barMaxHeight = 3000; // controls vertical scale of histogram
+            float barMarginHeight = 2;
+
+            barRect.bottom = mBottom;
+            barRect.left = marginWidth;
+            barRect.right = barRect.left + barWidth;
+            for (int bin = 0; bin < 256; bin++) {
+                float prob = (float) mHistogram[bin] / (float) nPixels;
+                barRect.top = barRect.bottom - Math.min(80, prob * barMaxHeight) - barMarginHeight;
+                canvas.drawRect(barRect, mPaintBlack);
+                barRect.top += barMarginHeight;
+                canvas.drawRect(barRect, mPaint);
+                barRect.left += barWidth;
+                barRect.right += barWidth;
+            }
+        }
     }
 
 
@@ -514,7 +632,11 @@ public class MainActivity extends Activity
     {	// deal with preview that will be shown on screen
         SurfaceHolder mHolder;
         DrawOnTop mDrawOnTop;
-        boolean mFinished;
+        FrameSource mSource;        // Camera1FrameSource or Camera2FrameSource, null while stopped
+        FrameSource.Sink mSink;     // passes frames on to the worker
+        int nHistoryFrames = 2;     // recent frames kept by reference in the Camera1 buffer pool
+        int nQueuedBuffers = 3;     // buffers left with the camera to fill
+        volatile boolean mFinished;
         String TAG="PreView";	// tag for LogCat
 
         public Preview (Context context, DrawOnTop drawOnTop)
@@ -530,12 +652,23 @@ public class MainActivity extends Activity
             mHolder.addCallback(this);
             //  Following is deprecated setting, but required on Android versions prior to 3.0:
             //  mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+
+            mSink = new FrameSource.Sink() {
+                public void onFrame (Frame frame) { // on the thread of the frame source
+                    if ((mDrawOnTop == null) || mFinished) return;
+                    // Pass the frame to the worker (Y plane only, unless colour statistics are on);
+                    // it redraws mDrawOnTop once the frame has been processed
+                    FrameProcessor processor = mDrawOnTop.mProcessor;
+                    if (processor != null) processor.submit(frame);
+                }
+            };
         }
 
         public void surfaceCreated (SurfaceHolder holder)
         {
             String TAG="surfaceCreated";
-            PreviewCallback mPreviewCallback;
+            mCameraReady.block();	// opened on the camera thread in onResume
+            if (mCamera2Id != null) return;	// Camera2 streams to the surface once it has the right size
             if (mCamera == null) {	// sanity check
                 Log.e(TAG, "ERROR: camera not open");
                 System.exit(0);
@@ -553,26 +686,10 @@ public class MainActivity extends Activity
             }
             if (DBG) Log.i(TAG, "Camera "+mCam+" orientation "+info.orientation);
 
-            mPreviewCallback = new PreviewCallback() {
-                public void onPreviewFrame(byte[] data, Camera camera) { // callback
-                    String TAG = "onPreviewFrame";
-                    if ((mDrawOnTop == null) || mFinished) return;
-                    if (mDrawOnTop.mBitmap == null)  // need to initialize the drawOnTop companion?
-                        setupArrays(data, camera);
-
-                    // Pass YUV image data to draw-on-top companion
-                    //System.arraycopy(data, 0, mDrawOnTop.mYUVData, 0, data.length);
-
-                    // Pass only the Y channel (brightness) data to mLumaData
-                    System.arraycopy(data,0,mDrawOnTop.mLumaData,0,mDrawOnTop.mLumaData.length);
-                    mDrawOnTop.invalidate();
-                }
-            };
-
             try {
                 mCamera.setPreviewDisplay(holder);
-                // Preview callback will be used whenever new viewfinder frame is available
-                mCamera.setPreviewCallback(mPreviewCallback);
+                // Preview callbacks are taken by the Camera1FrameSource made in startCamera1,
+                // using only the buffers it queues (no per-frame allocation)
             }
             catch (IOException e) {
                 Log.e(TAG, "ERROR: surfaceCreated - IOException " + e);
@@ -586,6 +703,11 @@ public class MainActivity extends Activity
             String TAG="surfaceDestroyed";
             // Surface will be destroyed when we return, so stop the preview.
             mFinished = true;
+            if (mCamera2Id != null) stopFrameSource();	// (Camera1 was stopped in onPause)
+            if (mDrawOnTop.mProcessor != null) {	// no more frames coming, stop the worker
+                mDrawOnTop.mProcessor.stop();
+                mDrawOnTop.mProcessor = null;
+            }
             if (mCamera != null) {	// not expected
                 Log.e(TAG, "ERROR: camera still open");
                 mCamera.setPreviewCallback(null);
@@ -598,6 +720,11 @@ public class MainActivity extends Activity
         public void surfaceChanged (SurfaceHolder holder, int format, int w, int h)
         {
             String TAG="surfaceChanged";
+            mCameraReady.block();
+            if (mCamera2Id != null) {
+                startCamera2(holder, w, h);
+                return;
+            }
             //	Now that the size is known, set up the camera parameters and begin the preview.
             if (mCamera == null) {	// sanity check
                 Log.e(TAG, "ERROR: camera not open");
@@ -613,8 +740,7 @@ public class MainActivity extends Activity
             if (parameters.isAutoExposureLockSupported()){
                 parameters.setAutoExposureLock(true);
             }
-            // check whether following is within PreviewFpsRange ?
-            parameters.setPreviewFrameRate(15);	// deprecated
+            setPreviewFpsRange(parameters);	// instead of the deprecated setPreviewFrameRate
             // parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
             try {
                 mCamera.setParameters(parameters);
@@ -622,33 +748,130 @@ public class MainActivity extends Activity
                 Log.e(TAG, "ERROR: setParameters exception " + e);
                 System.exit(0);
             }
+            startCamera1(mCamera);	// callback buffers must be queued before preview starts
             mCamera.startPreview();
         }
 
-        private void setupArrays (byte[] data, Camera camera)
+        void setIdle (boolean idle)
+        { // drop to the slowest frame rate while the scene is static, back to normal when it moves
+            String TAG="setIdle";
+            if (mFinished) return;
+            if (mSource instanceof Camera2FrameSource) {
+                List<int[]> ranges = Arrays.asList(Camera2FrameSource.fpsRanges(getContext(), mCamera2Id));
+                int[] range = idle ? idleFpsRange(ranges) : previewFpsRange(ranges);
+                if (range != null) ((Camera2FrameSource) mSource).setFrameRateRange(range[0], range[1]);
+                return;
+            }
+            if (mCamera == null) return;
+            Camera.Parameters parameters = mCamera.getParameters();
+            if (idle) setIdleFpsRange(parameters);
+            else setPreviewFpsRange(parameters);
+            try {
+                mCamera.setParameters(parameters);
+            } catch (Exception e) {	// frame rate stays as it was
+                Log.e(TAG, "ERROR: setParameters exception " + e);
+            }
+        }
+
+        void changePreviewSize (int width, int height)
+        { // restart the preview at another of the supported sizes (asked for by mController)
+            String TAG="changePreviewSize";
+            if (mFinished) return;
+            if (width == mCameraWidth && height == mCameraHeight) return;
+            if (DBG) Log.i(TAG, "Preview size " + mCameraHeight + " x " + mCameraWidth + " -> " + height + " x " + width);
+            if (mCamera2Id != null) {	// new stream once the surface has been resized, in surfaceChanged
+                stopFrameSource();
+                mCameraWidth = width;
+                mCameraHeight = height;
+                mHolder.setFixedSize(width, height);
+                return;
+            }
+            if (mCamera == null) return;
+            mCamera.stopPreview();
+            Camera.Parameters parameters = mCamera.getParameters();
+            parameters.setPreviewSize(width, height);
+            try {
+                mCamera.setParameters(parameters);
+            } catch (Exception e) {	// stay at the old size
+                Log.e(TAG, "ERROR: setParameters exception " + e);
+                mCamera.startPreview();
+                return;
+            }
+            mCameraWidth = width;
+            mCameraHeight = height;
+            startCamera1(mCamera);	// drops the buffers of the old size
+            mCamera.startPreview();
+        }
+
+        private void startCamera1 (Camera camera)
+        { // frames from the preview callbacks of camera, which is set up but not previewing yet
+            String TAG="startCamera1";
+            Camera.Parameters params = camera.getParameters();
+            int width = params.getPreviewSize().width;
+            int height = params.getPreviewSize().height;
+            int frameSize = width * height * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
+            if (mSource != null && mSource.width() == width && mSource.height() == height)
+                return;	// surfaceChanged again, but nothing to re-allocate
+            if (DBG) Log.i(TAG, "data length " + frameSize); // should be width*height*3/2 for YUV format
+            int dataLengthExpected = width * height * 3 / 2;
+            if (frameSize != dataLengthExpected)
+                Log.e(TAG, "ERROR: data length mismatch "+frameSize+" vs "+dataLengthExpected);
+            stopFrameSource();
+            setupArrays(width, height);
+            startFrameSource(new Camera1FrameSource(camera, mCameraHandler, mBufferPool,
+                    width, height, frameSize, nHistoryFrames, nQueuedBuffers));
+        }
+
+        private void startCamera2 (SurfaceHolder holder, int w, int h)
+        { // the preview surface has to be exactly the stream size: resize it first, start once it is
+            String TAG="startCamera2";
+            if (w != mCameraWidth || h != mCameraHeight) {
+                if (DBG) Log.v(TAG, "Surface " + h + " x " + w + ", stream " + mCameraHeight + " x " + mCameraWidth);
+                holder.setFixedSize(mCameraWidth, mCameraHeight);	// surfaceChanged comes again
+                return;
+            }
+            if (mSource != null) return;	// already streaming at this size
+            Camera2FrameSource source = new Camera2FrameSource(getContext(), mCamera2Id, w, h, holder.getSurface());
+            int[] range = previewFpsRange(Arrays.asList(Camera2FrameSource.fpsRanges(getContext(), mCamera2Id)));
+            if (range != null) source.setFrameRateRange(range[0], range[1]);
+            setupArrays(w, h);
+            startFrameSource(source);
+        }
+
+        private void startFrameSource (FrameSource source)
         {
+            mSource = source;
+            source.start(mSink);
+        }
+
+        void stopFrameSource ()
+        { // no frames reach the worker once this returns, Camera1 waits for a callback under way
+          // (Camera1: call while the camera is still open)
+            if (mSource == null) return;
+            mSource.stop();
+            mSource = null;
+        }
+
+        private void setupArrays (int width, int height)
+        { // display buffers and the worker for frames of this size
             String TAG="setupArrays";
             if (DBG) Log.i(TAG, "Setting up arrays");
-            Camera.Parameters params = camera.getParameters();
-            mDrawOnTop.mImageHeight = params.getPreviewSize().height;
-            mDrawOnTop.mImageWidth = params.getPreviewSize().width;
-            mDrawOnTop.trackingX = mDrawOnTop.mImageWidth / 2;
-            mDrawOnTop.trackingY = mDrawOnTop.mImageHeight / 2;
+            if (mDrawOnTop.mProcessor != null) mDrawOnTop.mProcessor.stop();
+            mDrawOnTop.mImageHeight = height;
+            mDrawOnTop.mImageWidth = width;
 
             if (DBG) Log.i(TAG, "height " + mDrawOnTop.mImageHeight + " width " + mDrawOnTop.mImageWidth);
-            mDrawOnTop.mBitmap = Bitmap.createBitmap(mDrawOnTop.mImageWidth,
-                    mDrawOnTop.mImageHeight, Bitmap.Config.ARGB_8888);
-            mDrawOnTop.mRGBData = new int[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
-            mDrawOnTop.mLumaData = new byte[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
-            mDrawOnTop.preLumaData = new byte[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
-            mDrawOnTop.mLumaMean = new float[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
-            mDrawOnTop.mLumaVar = new float[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
-            mDrawOnTop.mLumaChanged = new boolean[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
-            if (DBG) Log.i(TAG, "data length " + data.length); // should be width*height*3/2 for YUV format
-            mDrawOnTop.mYUVData = new byte[data.length];
-            int dataLengthExpected = mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight * 3 / 2;
-            if (data.length != dataLengthExpected)
-                Log.e(TAG, "ERROR: data length mismatch "+data.length+" vs "+dataLengthExpected);
+            mDrawOnTop.mBitmap = null;     // overlay buffers are made again at the new size when first drawn
+            mDrawOnTop.mRGBData = null;
+            mDrawOnTop.mOverlay = null;
+            mDrawOnTop.mProcessor = new FrameProcessor(mDrawOnTop.mImageWidth, mDrawOnTop.mImageHeight,
+                    nWorkerThreads, mDrawOnTop, mBufferPool);
+            mDrawOnTop.mProcessor.setController(mController);
+            mDrawOnTop.mProcessor.setTrackingMode(nTrackingMode, nTrackingRadius);
+            mDrawOnTop.mProcessor.setLatencyRecorder(mLatency);
+            mDrawOnTop.updateDemand();
+            mController.onSizeChanged(width, height);
+            mDrawOnTop.mProcessor.start();
         }
 
     }
@@ -657,5 +880,6 @@ public class MainActivity extends Activity
 // NOTE: the "Camera" class is deprecated as of API 21, but very few
 // devices support the new Camera2 API, and even fewer support it fully
 // and correctly (as of summer 2015: Motorola Nexus 5 & 6 and just possibly Samsung S6)
-// So, for now, we use the "old" Camera class here.
+// So the "old" Camera class stays as the fallback (Camera1FrameSource), and Camera2 is
+// used only where the camera reports LIMITED or FULL support (Camera2FrameSource).
 
@@ -0,0 +1,64 @@
+// Fixed pool of preview callback buffers, recycled through Camera.addCallbackBuffer
+
+package com.example.viewfinder;
+
+import android.hardware.Camera;
+
+import com.example.viewfinder.vision.FrameBufferPool;
+
+public class PreviewBufferPool
+{	//	used only on the thread that receives preview callbacks.
+    //	The last few frames delivered are held by reference as a short history;
+    //	when a frame falls out of that history its buffer goes back to the camera.
+    private final Camera mCamera;
+    private final int mFrameSize;
+    private final FrameBufferPool mPool;    // where the buffers come from, and go back to
+    private final byte[][] mBuffers;    // all of them, wherever they are
+    private final byte[][] mHistory;    // ring of held frames
+    private int mNewest = -1;           // index of newest frame in mHistory
+    private int mCount = 0;             // number of frames held
+
+    public PreviewBufferPool (Camera camera, FrameBufferPool pool, int frameSize, int historyLength, int queuedBuffers)
+    { // constructor - takes every buffer the preview will ever use from pool and queues the spare ones
+        mCamera = camera;
+        mFrameSize = frameSize;
+        mPool = pool;
+        mHistory = new byte[historyLength][];
+        mBuffers = new byte[historyLength + queuedBuffers][];
+        for (int k = 0; k < mBuffers.length; k++) {
+            mBuffers[k] = pool.take(frameSize);
+            mCamera.addCallbackBuffer(mBuffers[k]);
+        }
+    }
+
+    public void release ()
+    { // give every buffer back to the pool, once the camera has forgotten them (no history after this)
+        for (int k = 0; k < mBuffers.length; k++) mPool.give(mBuffers[k]);
+        mCount = 0;
+        mNewest = -1;
+    }
+
+    public int frameSize ()
+    {
+        return mFrameSize;
+    }
+
+    public void onFrame (byte[] data)
+    { // record a delivered frame as newest, recycling the oldest one if the history is full
+        mNewest = (mNewest + 1) % mHistory.length;
+        if (mCount == mHistory.length) mCamera.addCallbackBuffer(mHistory[mNewest]);
+        else mCount++;
+        mHistory[mNewest] = data;
+    }
+
+    public int historySize ()
+    {
+        return mCount;
+    }
+
+    public byte[] frame (int age)
+    { // frame delivered "age" callbacks ago (0 = newest), valid until it falls out of the history
+        if (age < 0 || age >= mCount) return null;
+        return mHistory[(mNewest - age + mHistory.length) % mHistory.length];
+    }
+}
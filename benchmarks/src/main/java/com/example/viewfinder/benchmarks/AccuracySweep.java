@@ -0,0 +1,195 @@
+// Endpoint error against time per frame for each motion estimator configuration, on synthetic sequences
+
+package com.example.viewfinder.benchmarks;
+
+import com.example.viewfinder.vision.BlockMatcher;
+import com.example.viewfinder.vision.FeatureTracker;
+import com.example.viewfinder.vision.GlobalMotionEstimator;
+import com.example.viewfinder.vision.LucasKanade;
+import com.example.viewfinder.vision.PhaseCorrelation;
+import com.example.viewfinder.vision.PyramidalLucasKanade;
+import com.example.viewfinder.vision.SyntheticSequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AccuracySweep
+{	//	Each scenario is a SyntheticSequence (motion range, noise, brightness drift). Every estimator
+    //	runs over the sequence twice, the first pass only to warm up the JIT; the second pass gives
+    //	the time per frame and the endpoint error |(u, v) - truth| of every frame pair.
+    //	The last table lists, per estimator, the worst mean error over all scenarios, and the
+    //	cheapest one within the accuracy bar is named at the end.
+    static class Scenario
+    {
+        final String mName;
+        final float mMaxStep, mNoise, mBrightnessStep;
+
+        Scenario (String name, float maxStep, float noise, float brightnessStep)
+        {
+            mName = name;
+            mMaxStep = maxStep;
+            mNoise = noise;
+            mBrightnessStep = brightnessStep;
+        }
+    }
+
+    static class Configuration
+    {
+        final String mName;
+        final GlobalMotionEstimator mEstimator;
+        float mWorstError;      // largest mean error over the scenarios
+        double mMillis;         // mean time per frame over the scenarios
+
+        Configuration (String name, GlobalMotionEstimator estimator)
+        {
+            mName = name;
+            mEstimator = estimator;
+        }
+    }
+
+    static List<Configuration> configurations (final int width, final int height)
+    { // the estimators to compare; add alternatives here
+        List<Configuration> list = new ArrayList<Configuration>();
+        list.add(new Configuration("baseline (float gradient arrays)", new GlobalMotionEstimator() {
+            float u, v;
+
+            public boolean estimate (byte[] pixels, byte[] prePixels)
+            {
+                float[] motion = BaselineKernels.motion(pixels, prePixels, height, width);
+                u = motion[0];
+                v = motion[1];
+                return !Float.isNaN(u) && !Float.isNaN(v);
+            }
+
+            public float motionX ()
+            {
+                return u;
+            }
+
+            public float motionY ()
+            {
+                return v;
+            }
+        }));
+        final LucasKanade lucasKanade = new LucasKanade();
+        list.add(new Configuration("fused, single level", new GlobalMotionEstimator() {
+            public boolean estimate (byte[] pixels, byte[] prePixels)
+            {
+                return lucasKanade.estimateGlobal(pixels, prePixels, width, height);
+            }
+
+            public float motionX ()
+            {
+                return lucasKanade.u;
+            }
+
+            public float motionY ()
+            {
+                return lucasKanade.v;
+            }
+        }));
+        for (int levels = 2; levels <= 4; levels++) {
+            for (int iterations = 1; iterations <= 3; iterations++) {
+                list.add(new Configuration("pyramid " + levels + " levels, " + iterations + " iterations",
+                        new PyramidalLucasKanade(width, height, levels, iterations)));
+            }
+        }
+        for (int levels = 3; levels <= 4; levels++) {   // refinement stopped at half resolution
+            PyramidalLucasKanade decimated = new PyramidalLucasKanade(width, height, levels, 2);
+            decimated.setFinestLevel(1);
+            list.add(new Configuration("pyramid " + levels + " levels, 2 iterations, half resolution", decimated));
+        }
+        for (int features = 100; features <= 300; features += 200) {
+            list.add(new Configuration("KLT " + features + " features, window 11, 3 levels",
+                    new FeatureTracker(width, height, features, 5, 3, null)));
+        }
+        for (int size = 64; size <= 256; size *= 2) {
+            PhaseCorrelation phase = new PhaseCorrelation(width, height, size);
+            list.add(new Configuration("phase correlation " + size + " x " + size + ", factor " + phase.nFactor, phase));
+        }
+        for (int block = 8; block <= 16; block *= 2) {
+            list.add(new Configuration("block matching " + block + " x " + block + ", range 32",
+                    new BlockMatcher(width, height, block, 32, null)));
+        }
+        return list;
+    }
+
+    public static void main (String[] args)
+    { // AccuracySweep [width height] [-frames n] [-bar pixels]
+        int width = 640, height = 480, frames = 40;
+        float bar = 0.1f;   // mean endpoint error we can accept (pixels)
+        int k = 0;
+        if (args.length >= 2 && !args[0].startsWith("-")) {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+            k = 2;
+        }
+        for (; k < args.length; k++) {
+            if (args[k].equals("-frames")) frames = Integer.parseInt(args[++k]);
+            else if (args[k].equals("-bar")) bar = Float.parseFloat(args[++k]);
+        }
+        Scenario[] scenarios = {
+                new Scenario("small motion", 0.75f, 0, 0),
+                new Scenario("medium motion", 3, 0, 0),
+                new Scenario("large motion", 8, 0, 0),
+                new Scenario("medium motion, noise 3", 3, 3, 0),
+                new Scenario("medium motion, noise 3, brightness drift", 3, 3, 1.5f),
+        };
+        List<Configuration> configurations = configurations(width, height);
+        int frameSize = width * height * 3 / 2;
+        byte[][] sequence = new byte[frames][frameSize];
+        float[] errors = new float[frames - 1];
+        for (Scenario scenario : scenarios) {
+            SyntheticSequence synthetic = new SyntheticSequence(width, height, frames, scenario.mMaxStep,
+                    scenario.mNoise, scenario.mBrightnessStep, 1234);
+            for (int f = 0; f < frames; f++) synthetic.frame(f, sequence[f]);
+            System.out.println();
+            System.out.println(scenario.mName + " (" + width + " x " + height + ", " + frames + " frames)");
+            System.out.println(String.format("  %-52s %9s %9s %9s %9s", "estimator", "mean err", "p95 err", "failed", "ms/frame"));
+            for (Configuration configuration : configurations) {
+                GlobalMotionEstimator estimator = configuration.mEstimator;
+                long nanos = 0;
+                int failed = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    failed = 0;
+                    // prime with frame 0 (pyramids, the features to follow into frame 1, its spectrum, predictors)
+                    if (estimator instanceof FeatureTracker) ((FeatureTracker) estimator).reset();
+                    if (estimator instanceof PhaseCorrelation) ((PhaseCorrelation) estimator).reset();
+                    if (estimator instanceof BlockMatcher) ((BlockMatcher) estimator).reset();
+                    estimator.estimate(sequence[0], sequence[0]);
+                    long start = System.nanoTime();
+                    for (int f = 1; f < frames; f++) {
+                        boolean solved = estimator.estimate(sequence[f], sequence[f - 1]);
+                        float du = estimator.motionX() - synthetic.truthX(f);
+                        float dv = estimator.motionY() - synthetic.truthY(f);
+                        errors[f - 1] = solved ? (float) Math.sqrt(du * du + dv * dv) : Float.POSITIVE_INFINITY;
+                        if (!solved) failed++;
+                    }
+                    nanos = System.nanoTime() - start;
+                }
+                float mean = 0;
+                for (float error : errors) mean += error;
+                mean /= errors.length;
+                Arrays.sort(errors);
+                float p95 = errors[Math.min(errors.length - 1, (int) (0.95 * errors.length))];
+                double millis = nanos / 1e6 / (frames - 1);
+                configuration.mWorstError = Math.max(configuration.mWorstError, mean);
+                configuration.mMillis += millis / scenarios.length;
+                System.out.println(String.format("  %-52s %9.4f %9.4f %9d %9.3f", configuration.mName, mean, p95, failed, millis));
+            }
+        }
+        System.out.println();
+        System.out.println(String.format("all scenarios, accuracy bar %.3f pixels", bar));
+        System.out.println(String.format("  %-52s %9s %9s", "estimator", "worst err", "ms/frame"));
+        Configuration cheapest = null;
+        for (Configuration configuration : configurations) {
+            boolean good = configuration.mWorstError <= bar;
+            System.out.println(String.format("  %-52s %9.4f %9.3f %s", configuration.mName,
+                    configuration.mWorstError, configuration.mMillis, good ? "ok" : ""));
+            if (good && (cheapest == null || configuration.mMillis < cheapest.mMillis)) cheapest = configuration;
+        }
+        System.out.println(cheapest == null ? "no configuration meets the bar"
+                : "cheapest within the bar: " + cheapest.mName);
+    }
+}
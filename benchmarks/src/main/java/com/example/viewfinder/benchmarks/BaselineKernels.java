@@ -0,0 +1,126 @@
+// The kernels as they were first written in MainActivity.DrawOnTop, kept as the reference point for the benchmarks
+
+package com.example.viewfinder.benchmarks;
+
+final class BaselineKernels
+{	//	copied unchanged apart from being made static; do not optimise these
+    private BaselineKernels ()
+    {
+    }
+
+    static float crossProduct(float[] a, float[] b){
+        float sum = 0;
+        for (int i = 0; i< a.length; i++){
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    static float[] computeGradientX(byte[] pixels, byte[] prePixels, int height, int width){
+        float[] gradientX = new float[(height-1) * (width-1)];
+        for (int y = 0; y < height -1; y++){
+            for (int x = 0; x < width -1; x++){
+                gradientX[(width-1) * y + x] =
+                        ((float)(prePixels[width * y + x + 1] + prePixels[width * (y + 1) + x + 1] + pixels[width * y + x + 1]
+                        + pixels[width * (y + 1) + x + 1] - prePixels[width * y + x] - prePixels[width * (y + 1) + x]
+                        - pixels[width * y + x] - pixels[width * (y + 1) + x])) / 4;
+            }
+        }
+
+        return gradientX;
+    }
+
+    static float[] computeGradientY(byte[] pixels, byte[] prePixels, int height, int width){
+        float[] gradientY = new float[(height-1) * (width-1)];
+        for (int y = 0; y < height -1; y++){
+            for (int x = 0; x < width -1; x++){
+                gradientY[(width-1) * y + x] =
+                        ((float)(prePixels[width * (y + 1) + x + 1] + prePixels[width * (y + 1) + x] + pixels[width * (y + 1) + x]
+                                + pixels[width * (y + 1) + x + 1] - prePixels[width * y + x] - prePixels[width * y + x + 1]
+                                - pixels[width * y + x] - pixels[width * y + x + 1])) / 4;
+            }
+        }
+
+        return gradientY;
+    }
+
+    static float[] computeGradientT(byte[] pixels, byte[] prePixels, int height, int width){
+        float[] gradientT = new float[(height-1) * (width-1)];
+        for (int y = 0; y < height -1; y++){
+            for (int x = 0; x < width -1; x++){
+                gradientT[(width-1) * y + x] =
+                        ((float)(pixels[width * (y + 1) + x + 1] + pixels[width * (y + 1) + x] + pixels[width * y + x]
+                                + pixels[width * y + x + 1] - prePixels[width * y + x] - prePixels[width * y + x + 1]
+                                - prePixels[width * (y + 1) + x] - prePixels[width * (y + 1) + x + 1])) / 4;
+            }
+        }
+
+        return gradientT;
+    }
+
+    static float[] motion (byte[] pixels, byte[] prePixels, int height, int width)
+    { // the original per-frame computation of (u, v) in onDraw
+        float[] Ex = computeGradientX(pixels,prePixels,height,width);
+        float[] Ey = computeGradientY(pixels,prePixels,height,width);
+        float[] Et = computeGradientT(pixels,prePixels,height,width);
+
+        float delta =  (float)(crossProduct(Ex,Ex) * crossProduct(Ey,Ey) - Math.pow(crossProduct(Ex,Ey),2));
+        float u = (crossProduct(Ex,Ey) * crossProduct(Ey,Et) - crossProduct(Ey,Ey) * crossProduct(Ex,Et)) / delta;
+        float v = (crossProduct(Ex,Ey) * crossProduct(Ex,Et) - crossProduct(Ex,Ex) * crossProduct(Ey,Et)) / delta;
+        return new float[] {u, v};
+    }
+
+    static void decodeYUV420SP (int[] rgb, byte[] yuv420sp, int width, int height)
+    { // convert image in YUV420SP format to RGB format
+        final int frameSize = width * height;
+
+        for (int j = 0, pix = 0; j < height; j++) {
+            int uvp = frameSize + (j >> 1) * width;	// index to start of u and v data for this row
+            int u = 0, v = 0;
+            for (int i = 0; i < width; i++, pix++) {
+                int y = (0xFF & ((int) yuv420sp[pix])) - 16;
+                if (y < 0) y = 0;
+                if ((i & 1) == 0) { // even row & column (u & v are at quarter resolution of y)
+                    v = (0xFF & yuv420sp[uvp++]) - 128;
+                    u = (0xFF & yuv420sp[uvp++]) - 128;
+                }
+
+                int y1192 = 1192 * y;
+                int r = (y1192 + 1634 * v);
+                int g = (y1192 - 833 * v - 400 * u);
+                int b = (y1192 + 2066 * u);
+
+                if (r < 0) r = 0;
+                else if (r > 0x3FFFF) r = 0x3FFFF;
+                if (g < 0) g = 0;
+                else if (g > 0x3FFFF) g = 0x3FFFF;
+                if (b < 0) b = 0;
+                else if (b > 0x3FFFF) b = 0x3FFFF;
+
+                rgb[pix] = 0xFF000000 | ((r << 6) & 0xFF0000) | ((g >> 2) & 0xFF00) | ((b >> 10) & 0xFF);
+            }
+        }
+    }
+
+    static void calculateIntensityHistograms(int[] rgb, int[] redHistogram, int[] greenHistogram, int[] blueHistogram, int width, int height)
+    {
+        final int dpix = 1;
+        int red, green, blue, bin, pixVal;
+        for (bin = 0; bin < 256; bin++) { // reset the histograms
+            redHistogram[bin] = 0;
+            greenHistogram[bin] = 0;
+            blueHistogram[bin] = 0;
+        }
+        for (int pix = 0; pix < width * height; pix += dpix) {
+            pixVal = rgb[pix];
+            blue = pixVal & 0xFF;
+            blueHistogram[blue]++;
+            pixVal = pixVal >> 8;
+            green = pixVal & 0xFF;
+            greenHistogram[green]++;
+            pixVal = pixVal >> 8;
+            red = pixVal & 0xFF;
+            redHistogram[red]++;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+// Colour kernels: YUV to RGB conversion and histograms, original against table driven and YUV plane versions
+
+package com.example.viewfinder.benchmarks;
+
+import com.example.viewfinder.vision.ColorStatistics;
+import com.example.viewfinder.vision.ImageKernels;
+import com.example.viewfinder.vision.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorBenchmark
+{
+    @Param({"320x240", "640x480", "1280x720"})
+    String size;
+
+    int mWidth, mHeight;
+    byte[] mFrame;
+    int[] mRGB, mSmallRGB;
+    int[] mRed = new int[256], mGreen = new int[256], mBlue = new int[256];
+    ImageKernels mKernels;
+    ColorStatistics mStatistics;
+
+    @Setup
+    public void setup ()
+    {
+        mWidth = Frames.width(size);
+        mHeight = Frames.height(size);
+        mFrame = Frames.nv21(mWidth, mHeight, 0, 0);
+        mRGB = new int[mWidth * mHeight];
+        mSmallRGB = new int[mWidth * mHeight / 4];
+        mKernels = new ImageKernels(null);
+        mStatistics = new ColorStatistics(mWidth, mHeight, null);
+        YuvConverter.decode(mFrame, mWidth, mHeight, mRGB);     // input for the RGB histograms
+    }
+
+    @Benchmark
+    public int[] baselineDecode ()
+    {
+        BaselineKernels.decodeYUV420SP(mRGB, mFrame, mWidth, mHeight);
+        return mRGB;
+    }
+
+    @Benchmark
+    public int[] decode ()
+    {
+        YuvConverter.decode(mFrame, mWidth, mHeight, mRGB);
+        return mRGB;
+    }
+
+    @Benchmark
+    public int[] decodeHalfSize ()
+    {
+        YuvConverter.decodeDownscaled(mFrame, mWidth, mHeight, 2, mSmallRGB, 0, mHeight / 2);
+        return mSmallRGB;
+    }
+
+    @Benchmark
+    public int[] baselineHistograms ()
+    {
+        BaselineKernels.calculateIntensityHistograms(mRGB, mRed, mGreen, mBlue, mWidth, mHeight);
+        return mRed;
+    }
+
+    @Benchmark
+    public int[] rgbHistograms ()
+    {
+        mKernels.calculateIntensityHistograms(mRGB, mRed, mGreen, mBlue, mWidth, mHeight, 1);
+        return mRed;
+    }
+
+    @Benchmark
+    public float yuvStatistics ()
+    { // luma and chroma histograms with moments, every pixel
+        mStatistics.setSubsampling(1);
+        mStatistics.compute(mFrame, true);
+        return mStatistics.mLumaStdDev;
+    }
+
+    @Benchmark
+    public float yuvStatisticsSubsampled ()
+    { // as used by the pipeline: every second pixel of every second row
+        mStatistics.setSubsampling(2);
+        mStatistics.compute(mFrame, true);
+        return mStatistics.mLumaStdDev;
+    }
+}
@@ -0,0 +1,43 @@
+// Synthetic NV21 frames for the benchmarks: textured, so the motion kernels have gradients to work on
+
+package com.example.viewfinder.benchmarks;
+
+final class Frames
+{	//	Luma is a sum of sinusoids at a few scales plus fixed blocky noise, moved by (dx, dy);
+    //	chroma is a smooth colour gradient. Generated once per benchmark setup, never timed.
+    private Frames ()
+    {
+    }
+
+    static int width (String size)
+    { // "640x480" -> 640
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int height (String size)
+    {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+
+    static byte[] nv21 (int width, int height, double dx, double dy)
+    {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double X = x - dx, Y = y - dy;
+                int cell = ((int) Math.floor(X / 8) * 7919 + (int) Math.floor(Y / 8) * 104729) & 0xFFFF;
+                double value = 128 + 40 * Math.sin(X * 0.07) * Math.cos(Y * 0.09)
+                        + 30 * Math.sin(X * 0.031 + Y * 0.05) + ((cell * 2654435761L >>> 27) & 31) - 16;
+                frame[y * width + x] = (byte) Math.max(0, Math.min(255, (int) value));
+            }
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                int uvp = width * height + y * width + 2 * x;
+                frame[uvp] = (byte) (64 + 128 * x / (width / 2));       // v
+                frame[uvp + 1] = (byte) (64 + 128 * y / (height / 2));  // u
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,155 @@
+// Motion estimation kernels: the original gradient arrays against the fused, pyramidal, dense, FFT and block matching versions
+
+package com.example.viewfinder.benchmarks;
+
+import com.example.viewfinder.vision.BlockMatcher;
+import com.example.viewfinder.vision.DenseFlow;
+import com.example.viewfinder.vision.Fft;
+import com.example.viewfinder.vision.LucasKanade;
+import com.example.viewfinder.vision.LumaPyramid;
+import com.example.viewfinder.vision.PhaseCorrelation;
+import com.example.viewfinder.vision.PyramidalLucasKanade;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MotionBenchmark
+{	//	single threaded (no TileScheduler), so the numbers compare the kernels and not the core count
+    @Param({"320x240", "640x480", "1280x720"})
+    String size;
+
+    int mWidth, mHeight;
+    byte[] mFrame, mPreFrame;
+    LucasKanade mLucasKanade;
+    PyramidalLucasKanade mPyramidal;
+    LumaPyramid mPyramid;
+    DenseFlow mDenseFlow;
+    float[] mFlowU, mFlowV;
+    PhaseCorrelation mPhase;
+    BlockMatcher mBlocks;
+    Fft mFft;
+    float[] mTile, mRe, mIm;
+
+    @Setup
+    public void setup ()
+    {
+        mWidth = Frames.width(size);
+        mHeight = Frames.height(size);
+        mPreFrame = Frames.nv21(mWidth, mHeight, 0, 0);
+        mFrame = Frames.nv21(mWidth, mHeight, 1.5, -0.75);
+        mLucasKanade = new LucasKanade();
+        mPyramidal = new PyramidalLucasKanade(mWidth, mHeight, 3, 2);
+        mPyramid = new LumaPyramid(mWidth, mHeight, 3);
+        mDenseFlow = new DenseFlow(mWidth, mHeight, 16);
+        mFlowU = new float[mDenseFlow.mGridWidth * mDenseFlow.mGridHeight];
+        mFlowV = new float[mDenseFlow.mGridWidth * mDenseFlow.mGridHeight];
+        mPhase = new PhaseCorrelation(mWidth, mHeight, 128);
+        mFft = new Fft(128);
+        mBlocks = new BlockMatcher(mWidth, mHeight, 16, 32, null);
+        mTile = new float[128 * 128];
+        mRe = new float[128 * 128];
+        mIm = new float[128 * 128];
+        for (int k = 0; k < mTile.length; k++) mTile[k] = mFrame[k] & 0xFF;
+    }
+
+    @Benchmark
+    public float[] baselineGradients ()
+    { // three float gradient arrays and six dot products, allocated every frame
+        return BaselineKernels.motion(mFrame, mPreFrame, mHeight, mWidth);
+    }
+
+    @Benchmark
+    public float lucasKanadeGlobal ()
+    { // one fused pass, nothing allocated
+        mLucasKanade.estimateGlobal(mFrame, mPreFrame, mWidth, mHeight);
+        return mLucasKanade.u;
+    }
+
+    @Benchmark
+    public float lucasKanadeWindow ()
+    {
+        mLucasKanade.estimateWindow(mFrame, mPreFrame, mWidth, mHeight, mWidth / 2, mHeight / 2, 24);
+        return mLucasKanade.u;
+    }
+
+    @Benchmark
+    public float pyramidalGlobal ()
+    { // alternate the frame order so each call sees a new current frame, as on the device
+        byte[] swap = mFrame;
+        mFrame = mPreFrame;
+        mPreFrame = swap;
+        mPyramidal.estimateGlobal(mFrame, mPreFrame);
+        return mPyramidal.u;
+    }
+
+    @Benchmark
+    public float pyramidalWindow ()
+    {
+        byte[] swap = mFrame;
+        mFrame = mPreFrame;
+        mPreFrame = swap;
+        mPyramidal.estimateWindow(mFrame, mPreFrame, mWidth / 2, mHeight / 2, 24);
+        return mPyramidal.u;
+    }
+
+    @Benchmark
+    public byte[] pyramidBuild ()
+    {
+        mPyramid.build(mFrame);
+        return mPyramid.mLevels[mPyramid.nLevels - 1];
+    }
+
+    @Benchmark
+    public float[] denseFlow ()
+    {
+        mDenseFlow.compute(mFrame, mPreFrame, mFlowU, mFlowV);
+        return mFlowU;
+    }
+
+    @Benchmark
+    public float phaseCorrelation ()
+    { // 128 x 128 tile; new current frame each call, so one forward and one inverse FFT
+        byte[] swap = mFrame;
+        mFrame = mPreFrame;
+        mPreFrame = swap;
+        mPhase.estimate(mFrame, mPreFrame);
+        return mPhase.u;
+    }
+
+    @Benchmark
+    public float[] fft128 ()
+    { // forward 2D transform alone, of the same real data each call
+        System.arraycopy(mTile, 0, mRe, 0, mTile.length);
+        Arrays.fill(mIm, 0);
+        mFft.transform2D(mRe, mIm, false);
+        return mRe;
+    }
+
+    @Benchmark
+    public float blockMatching ()
+    { // 16 x 16 blocks; the predictors carry over from the last call, as from the last frame
+        byte[] swap = mFrame;
+        mFrame = mPreFrame;
+        mPreFrame = swap;
+        mBlocks.estimate(mFrame, mPreFrame);
+        return mBlocks.u;
+    }
+}
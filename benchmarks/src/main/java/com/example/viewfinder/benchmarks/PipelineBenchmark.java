@@ -0,0 +1,103 @@
+// Change detection stages and the whole per-frame pipeline, as the worker thread runs it
+
+package com.example.viewfinder.benchmarks;
+
+import com.example.viewfinder.vision.BackgroundModel;
+import com.example.viewfinder.vision.BitMask;
+import com.example.viewfinder.vision.BlobExtractor;
+import com.example.viewfinder.vision.FrameProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark
+{	//	The frames alternate between two positions, so the motion gate always passes and every
+    //	stage asked for runs on every frame; gc.alloc.rate.norm should stay at zero for all of these.
+    //	stages = 15 (STAGE_ALL) times the whole pipeline, as before stages were run on demand;
+    //	0 times the motion estimate alone.
+    @Param({"320x240", "640x480", "1280x720"})
+    String size;
+
+    @Param({"1", "0"})  // worker threads for the per-pixel kernels, 0 is one per core
+    int threads;
+
+    @Param({"15", "0"})     // FrameProcessor stages asked for by the (pretend) overlay
+    int stages;
+
+    int mWidth, mHeight;
+    byte[][] mFrames;
+    int mNext;
+    FrameProcessor mProcessor;
+    BackgroundModel mBackground;
+    BitMask mFiltered;
+    BlobExtractor mBlobs;
+
+    @Setup
+    public void setup ()
+    {
+        mWidth = Frames.width(size);
+        mHeight = Frames.height(size);
+        mFrames = new byte[][] {Frames.nv21(mWidth, mHeight, 0, 0), Frames.nv21(mWidth, mHeight, 3, 2)};
+        mProcessor = new FrameProcessor(mWidth, mHeight, threads, null);
+        mProcessor.setDemand(FrameProcessor.CONSUMER_OVERLAY, stages);
+        mBackground = new BackgroundModel(mWidth, mHeight, 0.1f, 3, null);
+        mBackground.update(mFrames[0]);     // learn one position, the other one shows up as change
+        mFiltered = new BitMask(mWidth, mHeight);
+        mBlobs = new BlobExtractor(4096, 16, 25);
+    }
+
+    @TearDown
+    public void tearDown ()
+    {
+        mProcessor.stop();
+    }
+
+    byte[] nextFrame ()
+    {
+        mNext ^= 1;
+        return mFrames[mNext];
+    }
+
+    @Benchmark
+    public boolean fullFrame ()
+    { // everything the worker does for one preview frame
+        return mProcessor.process(nextFrame());
+    }
+
+    @Benchmark
+    public int backgroundUpdate ()
+    {
+        return mBackground.update(nextFrame());
+    }
+
+    @Benchmark
+    public BitMask neighbourFilter ()
+    {
+        mBackground.mMask.filterNeighbours(mFiltered, 7);
+        return mFiltered;
+    }
+
+    @Benchmark
+    public int blobExtraction ()
+    {
+        return mBlobs.extract(mBackground.mMask);
+    }
+}
@@ -0,0 +1,158 @@
+// Keeps the per-frame processing time inside the frame budget by changing decimation and preview size
+
+package com.example.viewfinder.vision;
+
+public class AdaptiveController
+{	//	The worker reports how long each frame took; the average is compared with the time between
+    //	frames at the chosen frame rate, once per evaluation period. Overloaded: first decimate inside
+    //	the pipeline (cheap, takes effect on the next frame), and only when that is exhausted step
+    //	down to the next smaller preview size. Underloaded: undo decimation first, then step up a
+    //	size if the cost, scaled by the pixel count, is predicted to still fit.
+    //	Decimation is skipped when the worker says its stages do not use it (block matching and
+    //	phase correlation without colour statistics): then only the preview size changes.
+    //	After every change the average is restarted and nothing changes for a while (hysteresis).
+    public static final int NO_CHANGE = 0;
+    public static final int DECIMATION_CHANGED = 1;
+    public static final int RESIZE = 2;     // caller should restart the preview at requestedWidth/Height
+
+    static final float HIGH_LOAD = 0.85f;   // share of the frame budget that is too much
+    static final float LOW_LOAD = 0.4f;     // share that leaves room for more work
+    static final float TARGET_LOAD = 0.7f;  // predicted share after stepping up a size
+    static final int EVALUATION_FRAMES = 30;
+    static final int SETTLING_FRAMES = 15;  // frames ignored after any change
+
+    private int[] mWidths = new int[0], mHeights = new int[0];  // preview sizes, fewest pixels first
+    private int mSizeIndex = -1;
+    public final int mMaxDecimation;
+    private volatile int mDecimation;       // 0: full resolution, k: 2^k times fewer samples per side
+    private long mFrameBudget = 1000000000L / 15;  // ns between frames
+    private long mAverageNanos;     // running average of processing time (ns)
+    private int nFrames;            // frames since the last evaluation
+    private int nSettling;
+    public int requestedWidth, requestedHeight;
+
+    public AdaptiveController (int maxDecimation)
+    { // constructor
+        mMaxDecimation = maxDecimation;
+    }
+
+    public synchronized void setSizes (int[] widths, int[] heights)
+    { // available preview sizes, any order
+        int n = widths.length;
+        mWidths = new int[n];
+        mHeights = new int[n];
+        for (int k = 0; k < n; k++) {    // insertion sort by pixel count
+            int j = k;
+            while (j > 0 && (long) mWidths[j - 1] * mHeights[j - 1] > (long) widths[k] * heights[k]) {
+                mWidths[j] = mWidths[j - 1];
+                mHeights[j] = mHeights[j - 1];
+                j--;
+            }
+            mWidths[j] = widths[k];
+            mHeights[j] = heights[k];
+        }
+        mSizeIndex = -1;
+    }
+
+    public synchronized int nearestSize (int nPixels)
+    { // index of the size whose pixel count is nearest to nPixels, -1 if there are none
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int k = 0; k < mWidths.length; k++) {
+            long distance = Math.abs((long) mWidths[k] * mHeights[k] - nPixels);
+            if (distance < bestDistance) {
+                best = k;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    public synchronized int indexOf (int width, int height)
+    { // index of the given size, -1 if it is not available
+        for (int k = 0; k < mWidths.length; k++)
+            if (mWidths[k] == width && mHeights[k] == height) return k;
+        return -1;
+    }
+
+    public int width (int index)
+    {
+        return mWidths[index];
+    }
+
+    public int height (int index)
+    {
+        return mHeights[index];
+    }
+
+    public synchronized void setFrameRate (float fps)
+    {
+        mFrameBudget = (long) (1e9 / fps);
+    }
+
+    public synchronized void onSizeChanged (int width, int height)
+    { // the preview now runs at this size: start measuring afresh
+        mSizeIndex = indexOf(width, height);
+        restart();
+    }
+
+    public int decimation ()
+    { // may be read from any thread
+        return mDecimation;
+    }
+
+    public float load ()
+    { // average processing time as a share of the frame budget
+        return (float) mAverageNanos / mFrameBudget;
+    }
+
+    public synchronized int onFrameProcessed (long nanos, boolean canDecimate)
+    { // worker thread, once per frame (canDecimate: the frame's stages cost less when decimated);
+      // returns NO_CHANGE, DECIMATION_CHANGED or RESIZE
+        if (nSettling > 0) {
+            nSettling--;
+            return NO_CHANGE;
+        }
+        mAverageNanos = nFrames == 0 ? nanos : mAverageNanos + ((nanos - mAverageNanos) >> 3);
+        if (++nFrames < EVALUATION_FRAMES) return NO_CHANGE;
+        nFrames = 0;
+        float load = load();
+        if (load > HIGH_LOAD) {
+            if (mDecimation < mMaxDecimation && canDecimate) {
+                mDecimation++;
+                restart();
+                return DECIMATION_CHANGED;
+            }
+            if (mSizeIndex > 0) return requestSize(mSizeIndex - 1);
+        }
+        else if (load < LOW_LOAD) {
+            if (mDecimation > 0 && canDecimate) {
+                mDecimation--;
+                restart();
+                return DECIMATION_CHANGED;
+            }
+            if (mSizeIndex >= 0 && mSizeIndex < mWidths.length - 1) {
+                int k = mSizeIndex + 1;
+                float scale = (float) mWidths[k] * mHeights[k] / (mWidths[mSizeIndex] * mHeights[mSizeIndex]);
+                if (load * scale < TARGET_LOAD) return requestSize(k);
+            }
+        }
+        return NO_CHANGE;
+    }
+
+    private int requestSize (int index)
+    { // a smaller size starts out fully decimated (then relaxes), a larger one at full resolution
+        requestedWidth = mWidths[index];
+        requestedHeight = mHeights[index];
+        mDecimation = index < mSizeIndex ? mMaxDecimation : 0;
+        mSizeIndex = index;
+        restart();
+        return RESIZE;
+    }
+
+    private void restart ()
+    {
+        nFrames = 0;
+        nSettling = SETTLING_FRAMES;
+    }
+}
@@ -0,0 +1,110 @@
+// Running Gaussian background model of the luma, in 16 bit fixed point
+
+package com.example.viewfinder.vision;
+
+public class BackgroundModel
+{	//	For each pixel the model keeps a running mean and variance, interleaved in one array
+    //	(4 bytes per pixel). A pixel is flagged as changed when (y - mean)^2 > k^2 * var,
+    //	which needs no square root; only unchanged pixels update the model.
+    //	mean: 8.8 fixed point grey level, var: 12.4 fixed point (grey levels squared)
+    static final int INITIAL_VAR = 8 * 8 << 4;     // assume a standard deviation of 8 to start with
+    static final int MIN_VAR = 2 * 2 << 4;         // never trust a pixel to be quieter than this
+    static final int MAX_VAR = 0xFFFF;
+
+    final int mImageWidth, mImageHeight;
+    final char[] mModel;        // mean, var, mean, var, ... (char is Java's unsigned 16 bit type)
+    public final BitMask mMask; // set where the last frame differs from the background
+    int mLearningRate;          // 0.8 fixed point
+    int mThreshold;             // k^2 * 16, compared against Q8 squared differences
+    boolean isInitialized;
+    public int mChangedPixels;  // number of pixels flagged in the last frame
+
+    private final TileScheduler mScheduler;
+    private final int[] mPartialCounts;     // changed pixels per tile
+    private byte[] mJobLuma;
+    private final TileScheduler.Kernel mKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            mPartialCounts[tile] = updateRows(mJobLuma, rowStart, rowEnd);
+        }
+    };
+
+    public BackgroundModel (int width, int height, float learningRate, float nSigma, TileScheduler scheduler)
+    { // constructor - model and mask are allocated here, never per frame
+        mImageWidth = width;
+        mImageHeight = height;
+        mModel = new char[2 * width * height];
+        mMask = new BitMask(width, height);
+        mLearningRate = Math.max(1, Math.round(learningRate * 256));
+        mThreshold = Math.round(nSigma * nSigma * 16);
+        mScheduler = scheduler;
+        mPartialCounts = new int[scheduler == null ? 1 : scheduler.nTiles];
+    }
+
+    public void reset ()
+    { // start learning again from the next frame
+        isInitialized = false;
+    }
+
+    public int update (byte[] luma)
+    { // classify every pixel of the frame into mMask and update the model, returns changed pixel count
+        int nPixels = mImageWidth * mImageHeight;
+        if (!isInitialized) {
+            for (int pix = 0, k = 0; pix < nPixels; pix++, k += 2) {
+                mModel[k] = (char) ((luma[pix] & 0xFF) << 8);
+                mModel[k + 1] = (char) INITIAL_VAR;
+            }
+            mMask.clear();
+            isInitialized = true;
+            mChangedPixels = 0;
+            return 0;
+        }
+        if (mScheduler == null) mChangedPixels = updateRows(luma, 0, mImageHeight);
+        else {
+            mJobLuma = luma;
+            mScheduler.run(mKernel, mImageHeight);
+            mJobLuma = null;
+            int total = 0;
+            for (int count : mPartialCounts) total += count;
+            mChangedPixels = total;
+        }
+        return mChangedPixels;
+    }
+
+    int updateRows (byte[] luma, int row0, int row1)
+    { // the per-pixel test and update for rows [row0,row1), integer arithmetic only;
+      // mask bits are gathered in a register and stored a word (64 pixels) at a time
+        final char[] model = mModel;
+        final long[] mask = mMask.mWords;
+        final int alpha = mLearningRate, threshold = mThreshold;
+        final int width = mImageWidth;
+        int changed = 0;
+        for (int y = row0; y < row1; y++) {
+            int out = y * mMask.mWordsPerRow;
+            long bits = 0;
+            for (int x = 0, pix = y * width, k = 2 * pix; x < width; x++, pix++, k += 2) {
+                int mean = model[k];
+                int var = model[k + 1];
+                int diff = ((luma[pix] & 0xFF) << 8) - mean;    // 8.8
+                int diff4 = diff >> 4;                          // 12.4
+                int diffSquared = diff4 * diff4;                // 24.8
+                if (diffSquared > threshold * var) {            // |diff| > k * sigma
+                    bits |= 1L << x;    // foreground does not update the background
+                } else {
+                    mean += (diff * alpha + 128) >> 8;
+                    var += (((diffSquared >> 4) - var) * alpha + 128) >> 8;
+                    if (var < MIN_VAR) var = MIN_VAR;
+                    else if (var > MAX_VAR) var = MAX_VAR;
+                    model[k] = (char) mean;
+                    model[k + 1] = (char) var;
+                }
+                if ((x & 63) == 63 || x == width - 1) {
+                    mask[out++] = bits;
+                    changed += Long.bitCount(bits);
+                    bits = 0;
+                }
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,148 @@
+// Binary image packed 64 pixels to a long, with 3x3 neighbourhood operations done a word at a time
+
+package com.example.viewfinder.vision;
+
+import java.util.Arrays;
+
+public class BitMask
+{	//	Pixel x of row y is bit (x & 63) of mWords[y * mWordsPerRow + (x >> 6)].
+    //	Bits past the end of a row are always kept zero, so counts need no masking.
+    //	Neighbourhood operations shift whole words left and right (carrying the end bit of
+    //	the adjacent word) and combine the rows above and below, so 64 pixels are done at once.
+    //	Those write into a separate destination mask (never the source itself).
+    public final int mWidth, mHeight;
+    public final int mWordsPerRow;
+    public final long[] mWords;
+    final long mLastWordMask;   // valid bits of the last word of each row
+
+    public BitMask (int width, int height)
+    { // constructor
+        mWidth = width;
+        mHeight = height;
+        mWordsPerRow = (width + 63) >> 6;
+        mWords = new long[mWordsPerRow * height];
+        mLastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+    }
+
+    public boolean get (int x, int y)
+    {
+        return (mWords[y * mWordsPerRow + (x >> 6)] & (1L << x)) != 0;
+    }
+
+    public void set (int x, int y)
+    {
+        mWords[y * mWordsPerRow + (x >> 6)] |= 1L << x;
+    }
+
+    public void clear ()
+    {
+        Arrays.fill(mWords, 0);
+    }
+
+    public void copyFrom (BitMask src)
+    {
+        System.arraycopy(src.mWords, 0, mWords, 0, mWords.length);
+    }
+
+    public int count ()
+    { // number of set pixels
+        int total = 0;
+        for (long word : mWords) total += Long.bitCount(word);
+        return total;
+    }
+
+    public int countRow (int y)
+    {
+        int total = 0;
+        for (int w = y * mWordsPerRow; w < (y + 1) * mWordsPerRow; w++) total += Long.bitCount(mWords[w]);
+        return total;
+    }
+
+    public void filterNeighbours (BitMask dst, int minNeighbours)
+    { // dst pixel set where at least minNeighbours of its 8 neighbours are set in this mask
+      // (the centre pixel itself is not counted; outside the image counts as unset)
+        final int wpr = mWordsPerRow;
+        for (int y = 0; y < mHeight; y++) {
+            int row = y * wpr;
+            for (int w = 0; w < wpr; w++) {
+                long aC = word(w, y - 1), aL = left(w, y - 1), aR = right(w, y - 1);
+                long cL = left(w, y), cR = right(w, y);
+                long bC = word(w, y + 1), bL = left(w, y + 1), bR = right(w, y + 1);
+                // add the eight neighbour planes with full adders: count = b0 + 2*b1 + 4*b2 + 8*b3
+                long x1 = aL ^ aC, s1 = x1 ^ aR, c1 = (aL & aC) | (aR & x1);
+                long x2 = cL ^ cR, s2 = x2 ^ bL, c2 = (cL & cR) | (bL & x2);
+                long s3 = bC ^ bR, c3 = bC & bR;
+                long x4 = s1 ^ s2, b0 = x4 ^ s3, k1 = (s1 & s2) | (s3 & x4);
+                long x5 = c1 ^ c2, t = x5 ^ c3, u = (c1 & c2) | (c3 & x5);
+                long b1 = t ^ k1, v = t & k1;
+                long b2 = u ^ v, b3 = u & v;
+                dst.mWords[row + w] = atLeast(minNeighbours, b0, b1, b2, b3);
+            }
+            dst.mWords[row + wpr - 1] &= mLastWordMask;
+        }
+    }
+
+    private long word (int w, int y)
+    { // word w of row y, zero outside the image
+        return y < 0 || y >= mHeight ? 0 : mWords[y * mWordsPerRow + w];
+    }
+
+    private long left (int w, int y)
+    { // bits of the pixels at x-1, for the 64 pixels of word w
+        if (y < 0 || y >= mHeight) return 0;
+        int i = y * mWordsPerRow + w;
+        return (mWords[i] << 1) | (w > 0 ? mWords[i - 1] >>> 63 : 0);
+    }
+
+    private long right (int w, int y)
+    { // bits of the pixels at x+1
+        if (y < 0 || y >= mHeight) return 0;
+        int i = y * mWordsPerRow + w;
+        return (mWords[i] >>> 1) | (w < mWordsPerRow - 1 ? mWords[i + 1] << 63 : 0);
+    }
+
+    static long atLeast (int k, long s0, long s1, long s2, long s3)
+    { // bits where the 4 bit counter (s3 s2 s1 s0) >= k, compared from the top bit down
+        long greater = 0, equal = -1L;
+        for (int b = 3; b >= 0; b--) {
+            long plane = b == 3 ? s3 : (b == 2 ? s2 : (b == 1 ? s1 : s0));
+            if (((k >> b) & 1) != 0) equal &= plane;
+            else {
+                greater |= equal & plane;
+                equal &= ~plane;
+            }
+        }
+        return greater | equal;
+    }
+
+    public void erode (BitMask dst)
+    { // dst pixel set only if the whole 3x3 neighbourhood is set (outside counts as unset)
+        morphology(dst, true);
+    }
+
+    public void dilate (BitMask dst)
+    { // dst pixel set if any pixel of the 3x3 neighbourhood is set
+        morphology(dst, false);
+    }
+
+    private void morphology (BitMask dst, boolean erode)
+    {
+        final int wpr = mWordsPerRow;
+        for (int y = 0; y < mHeight; y++) {
+            int row = y * wpr;
+            for (int w = 0; w < wpr; w++) {
+                long result;
+                if (erode)
+                    result = word(w, y - 1) & left(w, y - 1) & right(w, y - 1)
+                            & mWords[row + w] & left(w, y) & right(w, y)
+                            & word(w, y + 1) & left(w, y + 1) & right(w, y + 1);
+                else
+                    result = word(w, y - 1) | left(w, y - 1) | right(w, y - 1)
+                            | mWords[row + w] | left(w, y) | right(w, y)
+                            | word(w, y + 1) | left(w, y + 1) | right(w, y + 1);
+                dst.mWords[row + w] = result;
+            }
+            dst.mWords[row + wpr - 1] &= mLastWordMask;
+        }
+    }
+}
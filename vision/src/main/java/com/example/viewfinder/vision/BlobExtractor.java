@@ -0,0 +1,172 @@
+// Connected moving regions of a change mask: bounding boxes, centroids and areas
+
+package com.example.viewfinder.vision;
+
+public class BlobExtractor
+{	//	Single pass over the mask: each row is cut into runs of set pixels (found a word at a time
+    //	with numberOfTrailingZeros), every run is joined to the 8-connected runs of the row above
+    //	in a union-find forest, then one pass over the runs adds them up per root.
+    //	All tables are allocated once; at most mMaxRuns runs are looked at per frame, so a noisy
+    //	mask cannot stall the frame loop (the remaining rows are skipped and isTruncated is set).
+    public static class Blob
+    {
+        public int left, top, right, bottom;    // bounding box, inclusive
+        public int area;                        // pixels
+        public float centroidX, centroidY;
+
+        public void set (Blob other)
+        {
+            left = other.left;
+            top = other.top;
+            right = other.right;
+            bottom = other.bottom;
+            area = other.area;
+            centroidX = other.centroidX;
+            centroidY = other.centroidY;
+        }
+    }
+
+    final int mMaxRuns;
+    public final int mMaxBlobs;
+    public int mMinArea;        // smaller regions are ignored
+    // runs: row, first pixel, one past last pixel, union-find parent
+    private final int[] mRunY, mRunStart, mRunEnd, mParent;
+    private int nRuns;
+    // per root run: statistics of its region
+    private final int[] mLeft, mTop, mRight, mBottom, mArea;
+    private final long[] mSumX, mSumY;
+    public final Blob[] mBlobs;     // largest regions first
+    public int nBlobs;
+    public boolean isTruncated;     // run budget ran out before the end of the mask
+
+    public BlobExtractor (int maxRuns, int maxBlobs, int minArea)
+    { // constructor - allocates all label and statistics tables
+        mMaxRuns = maxRuns;
+        mMaxBlobs = maxBlobs;
+        mMinArea = minArea;
+        mRunY = new int[maxRuns];
+        mRunStart = new int[maxRuns];
+        mRunEnd = new int[maxRuns];
+        mParent = new int[maxRuns];
+        mLeft = new int[maxRuns];
+        mTop = new int[maxRuns];
+        mRight = new int[maxRuns];
+        mBottom = new int[maxRuns];
+        mArea = new int[maxRuns];
+        mSumX = new long[maxRuns];
+        mSumY = new long[maxRuns];
+        mBlobs = new Blob[maxBlobs];
+        for (int k = 0; k < maxBlobs; k++) mBlobs[k] = new Blob();
+    }
+
+    public int extract (BitMask mask)
+    { // label the mask, returns the number of blobs put in mBlobs
+        nRuns = 0;
+        isTruncated = false;
+        int prevStart = 0, prevEnd = 0;     // runs of the row above: [prevStart, prevEnd)
+        for (int y = 0; y < mask.mHeight && !isTruncated; y++) {
+            int rowStart = nRuns;
+            findRuns(mask, y);
+            // join with overlapping runs above; both lists are sorted by x
+            int p = prevStart;
+            for (int r = rowStart; r < nRuns; r++) {
+                while (p < prevEnd && mRunEnd[p] < mRunStart[r]) p++;     // ends before r starts (diagonal allowed)
+                for (int q = p; q < prevEnd && mRunStart[q] <= mRunEnd[r]; q++) union(q, r);
+            }
+            prevStart = rowStart;
+            prevEnd = nRuns;
+        }
+        collect();
+        return nBlobs;
+    }
+
+    private void findRuns (BitMask mask, int y)
+    { // append the runs of row y, merging runs that continue across word boundaries
+        long[] words = mask.mWords;
+        int rowStart = nRuns;
+        for (int w = 0; w < mask.mWordsPerRow; w++) {
+            long word = words[y * mask.mWordsPerRow + w];
+            int base = w << 6;
+            while (word != 0) {
+                int start = Long.numberOfTrailingZeros(word);
+                long ones = ~(word >>> start);      // zeros where the run is
+                int length = ones == 0 ? 64 - start : Long.numberOfTrailingZeros(ones);
+                int x0 = base + start, x1 = x0 + length;
+                if (nRuns > rowStart && mRunEnd[nRuns - 1] == x0) mRunEnd[nRuns - 1] = x1;  // continued
+                else {
+                    if (nRuns == mMaxRuns) {
+                        isTruncated = true;
+                        return;
+                    }
+                    mRunY[nRuns] = y;
+                    mRunStart[nRuns] = x0;
+                    mRunEnd[nRuns] = x1;
+                    mParent[nRuns] = nRuns;
+                    nRuns++;
+                }
+                word = start + length >= 64 ? 0 : word & (-1L << (start + length));
+            }
+        }
+    }
+
+    private int find (int r)
+    { // root of run r, halving the path on the way
+        while (mParent[r] != r) {
+            mParent[r] = mParent[mParent[r]];
+            r = mParent[r];
+        }
+        return r;
+    }
+
+    private void union (int a, int b)
+    { // the lower index (the earlier run) stays the root
+        a = find(a);
+        b = find(b);
+        if (a < b) mParent[b] = a;
+        else if (b < a) mParent[a] = b;
+    }
+
+    private void collect ()
+    { // add the runs up per region, then keep the largest mMaxBlobs regions of at least mMinArea
+        for (int r = 0; r < nRuns; r++) {
+            int root = find(r);
+            int y = mRunY[r], x0 = mRunStart[r], x1 = mRunEnd[r], length = x1 - x0;
+            long sumX = (long) (x0 + x1 - 1) * length / 2;
+            if (root == r) {    // roots come before their other runs
+                mLeft[r] = x0;
+                mRight[r] = x1 - 1;
+                mTop[r] = y;
+                mBottom[r] = y;
+                mArea[r] = length;
+                mSumX[r] = sumX;
+                mSumY[r] = (long) y * length;
+                continue;
+            }
+            if (x0 < mLeft[root]) mLeft[root] = x0;
+            if (x1 - 1 > mRight[root]) mRight[root] = x1 - 1;
+            mBottom[root] = y;
+            mArea[root] += length;
+            mSumX[root] += sumX;
+            mSumY[root] += (long) y * length;
+        }
+        nBlobs = 0;
+        for (int r = 0; r < nRuns; r++) {
+            if (mParent[r] != r || mArea[r] < mMinArea) continue;
+            // insertion into mBlobs, sorted by decreasing area
+            int k = nBlobs < mMaxBlobs ? nBlobs++ : mMaxBlobs;
+            while (k > 0 && mBlobs[k - 1].area < mArea[r]) {
+                if (k < mMaxBlobs) mBlobs[k].set(mBlobs[k - 1]);
+                k--;
+            }
+            if (k == mMaxBlobs) continue;   // smaller than all kept blobs
+            Blob blob = mBlobs[k];
+            blob.left = mLeft[r];
+            blob.right = mRight[r];
+            blob.top = mTop[r];
+            blob.bottom = mBottom[r];
+            blob.area = mArea[r];
+            blob.centroidX = (float) mSumX[r] / mArea[r];
+            blob.centroidY = (float) mSumY[r] / mArea[r];
+        }
+    }
+}
@@ -0,0 +1,351 @@
+// Block matching motion field: diamond search from predicted vectors, packed SAD with early termination
+
+package com.example.viewfinder.vision;
+
+import java.util.Arrays;
+
+public class BlockMatcher implements GlobalMotionEstimator
+{	//	Each block of mBlockSize pixels is searched for in the previous frame within +-mRange pixels
+    //	by SAD, diamond search from predicted vectors, then refined to a quarter pixel; u, v are
+    //	the median of the block vectors (NaN in mU/mV where a block has no texture).
+    //	mPacked entry y*width + x holds pixels x..x+3 of row y, brightness corrected, in four
+    //	16-bit lanes: the SAD of a block of up to MAX_BLOCK pixels cannot overflow them.
+    public static final int MAX_BLOCK = 16;
+    static final int MIN_BLOCKS = 3;        // fewer vectors than this: no global estimate
+    static final int MIN_CURVATURE = 1;     // SAD rise per block pixel one pixel away from the best, or no texture
+    static final int MAX_STEPS = 16;        // diamond moves per block
+    static final long LANES = 0x0001000100010001L;  // 1 in each lane
+    static final long HIGH = 0x8000800080008000L;   // top bit of each lane
+    static final long BYTES = 0x00FF00FF00FF00FFL;  // low byte of each lane
+
+    public float u, v;          // median of the block vectors
+    public int nVectors;        // blocks with a vector in the last frame
+    public final int mBlockSize;
+    public final int mGridWidth, mGridHeight;
+    public final float[] mU, mV;    // sub-pixel vector per block, row by row, NaN where there is none
+    public int nSadEvaluations;     // last frame, for tuning
+    final int mImageWidth, mImageHeight;
+    final int mRange;           // search limit (pixels in x and in y)
+    private final long[] mPacked;   // previous frame, four pixels per entry
+    private int[] mDx, mDy;     // whole pixel motion per block (kept as the next frame's predictors)
+    private int[] mPreDx, mPreDy;
+    private final float[] mMedian;
+    private int mPriorX, mPriorY;   // last global motion, rounded
+    private final int[] mSadCount;  // per tile
+
+    // optional parallel runs: packing by frame rows, search by block rows
+    private final TileScheduler mScheduler;
+    private final long[] mBlocks;   // per tile: the current block, packed like mPacked
+    private byte[] mJobPixels;
+    private int mJobOffset;
+    private final TileScheduler.Kernel mPackKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            pack(mJobPixels, mJobOffset, rowStart, rowEnd);
+        }
+    };
+    private final TileScheduler.Kernel mSearchKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            searchRows(mJobPixels, tile, rowStart, rowEnd);
+        }
+    };
+
+    public BlockMatcher (int width, int height, int blockSize, int range, TileScheduler scheduler)
+    { // constructor - blockSize is rounded down to a multiple of 4 (at most MAX_BLOCK)
+        mImageWidth = width;
+        mImageHeight = height;
+        mBlockSize = Math.max(4, Math.min(MAX_BLOCK, blockSize) & ~3);
+        mRange = range;
+        mScheduler = scheduler;
+        mGridWidth = width / mBlockSize;
+        mGridHeight = height / mBlockSize;
+        int blocks = mGridWidth * mGridHeight;
+        mU = new float[blocks];
+        mV = new float[blocks];
+        mDx = new int[blocks];
+        mDy = new int[blocks];
+        mPreDx = new int[blocks];
+        mPreDy = new int[blocks];
+        mMedian = new float[blocks];
+        mPacked = new long[width * height];
+        int tiles = scheduler == null ? 1 : scheduler.nTiles;
+        mBlocks = new long[tiles * mBlockSize * mBlockSize / 4];
+        mSadCount = new int[tiles];
+    }
+
+    public void reset ()
+    { // forget the predictors
+        Arrays.fill(mDx, 0);
+        Arrays.fill(mDy, 0);
+        mPriorX = 0;
+        mPriorY = 0;
+    }
+
+    public boolean estimate (byte[] pixels, byte[] prePixels)
+    { // block field of pixels against prePixels, then its median
+        int offset = Math.round(mean(pixels) - mean(prePixels));    // brightness change
+        int[] swap = mPreDx;    // this frame's predictors are the last frame's vectors
+        mPreDx = mDx;
+        mDx = swap;
+        swap = mPreDy;
+        mPreDy = mDy;
+        mDy = swap;
+        if (mScheduler == null) {
+            pack(prePixels, offset, 0, mImageHeight);
+            searchRows(pixels, 0, 0, mGridHeight);
+        } else {
+            mJobPixels = prePixels;
+            mJobOffset = offset;
+            mScheduler.run(mPackKernel, mImageHeight);
+            mJobPixels = pixels;
+            mScheduler.run(mSearchKernel, mGridHeight);
+            mJobPixels = null;
+        }
+        nSadEvaluations = 0;
+        for (int k = 0; k < mSadCount.length; k++) {
+            nSadEvaluations += mSadCount[k];
+            mSadCount[k] = 0;
+        }
+        int n = 0;
+        for (int k = 0; k < mU.length; k++) if (mU[k] == mU[k]) mMedian[n++] = mU[k];
+        nVectors = n;
+        if (n < MIN_BLOCKS) {
+            u = 0;
+            v = 0;
+            mPriorX = 0;
+            mPriorY = 0;
+            return false;
+        }
+        u = FeatureTracker.select(mMedian, n, n / 2);
+        n = 0;
+        for (int k = 0; k < mV.length; k++) if (mV[k] == mV[k]) mMedian[n++] = mV[k];
+        v = FeatureTracker.select(mMedian, n, n / 2);
+        mPriorX = Math.round(u);
+        mPriorY = Math.round(v);
+        return true;
+    }
+
+    public boolean motionAt (float x, float y, float[] motion)
+    { // vector of the block under (x, y) into motion[0..1]; false if it has none
+        int bx = (int) x / mBlockSize, by = (int) y / mBlockSize;
+        if (bx < 0 || by < 0 || bx >= mGridWidth || by >= mGridHeight) return false;
+        int k = by * mGridWidth + bx;
+        if (mU[k] != mU[k]) return false;
+        motion[0] = mU[k];
+        motion[1] = mV[k];
+        return true;
+    }
+
+    public float motionX ()
+    {
+        return u;
+    }
+
+    public float motionY ()
+    {
+        return v;
+    }
+
+    private float mean (byte[] pixels)
+    { // of every fourth pixel in every fourth row
+        long sum = 0;
+        int count = 0;
+        for (int y = 0; y < mImageHeight; y += 4) {
+            for (int pix = y * mImageWidth, end = pix + mImageWidth; pix < end; pix += 4) sum += pixels[pix] & 0xFF;
+            count += (mImageWidth + 3) / 4;
+        }
+        return (float) sum / count;
+    }
+
+    void pack (byte[] pixels, int offset, int y0, int y1)
+    { // rows [y0, y1) of mPacked from pixels + offset (clamped to 0..255), right to left
+        int width = mImageWidth;
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            long packed = 0;
+            for (int x = width - 1; x >= 0; x--) {
+                int value = (pixels[row + x] & 0xFF) + offset;
+                value = value < 0 ? 0 : (value > 255 ? 255 : value);
+                packed = (packed << 16) | value;
+                mPacked[row + x] = packed;  // the last 3 of a row are short of pixels, and never used
+            }
+        }
+    }
+
+    void searchRows (byte[] pixels, int tile, int row0, int row1)
+    { // block rows [row0, row1): predictors from this strip only, so strips are independent
+        int size = mBlockSize, width = mImageWidth, quads = size / 4;
+        long[] block = mBlocks;
+        int blockStart = tile * size * quads;
+        int count = 0;
+        for (int by = row0; by < row1; by++) {
+            int y = by * size;
+            for (int bx = 0; bx < mGridWidth; bx++) {
+                int k = by * mGridWidth + bx;
+                int x = bx * size;
+                for (int j = 0, out = blockStart; j < size; j++) {  // pack the current block
+                    int pix = (y + j) * width + x;
+                    for (int q = 0; q < quads; q++, pix += 4, out++) {
+                        block[out] = (pixels[pix] & 0xFF) | (long) (pixels[pix + 1] & 0xFF) << 16
+                                | (long) (pixels[pix + 2] & 0xFF) << 32 | (long) (pixels[pix + 3] & 0xFF) << 48;
+                    }
+                }
+                // the best of the predicted vectors
+                int bestX = 0, bestY = 0;
+                int best = sad(blockStart, x, y, Integer.MAX_VALUE);
+                count++;
+                for (int p = 0; p < 4; p++) {
+                    int dx, dy;
+                    if (p == 0) {
+                        dx = mPreDx[k];
+                        dy = mPreDy[k];
+                    } else if (p == 1) {
+                        if (bx == 0) continue;
+                        dx = mDx[k - 1];
+                        dy = mDy[k - 1];
+                    } else if (p == 2) {
+                        if (by == row0) continue;
+                        dx = mDx[k - mGridWidth];
+                        dy = mDy[k - mGridWidth];
+                    } else {
+                        dx = mPriorX;
+                        dy = mPriorY;
+                    }
+                    if ((dx == bestX && dy == bestY) || !inside(x, y, dx, dy)) continue;
+                    int value = sad(blockStart, x - dx, y - dy, best);
+                    count++;
+                    if (value < best) {
+                        best = value;
+                        bestX = dx;
+                        bestY = dy;
+                    }
+                }
+                // large diamond while it moves, then small diamond
+                for (int step = 0, radius = 2; step < MAX_STEPS; step++) {
+                    int centreX = bestX, centreY = bestY;
+                    for (int p = 0; p < (radius == 2 ? 8 : 4); p++) {
+                        int dx = centreX + (radius == 2 ? LARGE_X[p] : SMALL_X[p]);
+                        int dy = centreY + (radius == 2 ? LARGE_Y[p] : SMALL_Y[p]);
+                        if (!inside(x, y, dx, dy)) continue;
+                        int value = sad(blockStart, x - dx, y - dy, best);
+                        count++;
+                        if (value < best) {
+                            best = value;
+                            bestX = dx;
+                            bestY = dy;
+                        }
+                    }
+                    if (bestX == centreX && bestY == centreY) {
+                        if (radius == 1) break;
+                        radius = 1;
+                    }
+                }
+                mDx[k] = bestX;
+                mDy[k] = bestY;
+                // texture: SAD must rise one pixel off in both directions (full SADs this time)
+                int left = inside(x, y, bestX - 1, bestY) ? sad(blockStart, x - bestX + 1, y - bestY, Integer.MAX_VALUE) : -1;
+                int right = inside(x, y, bestX + 1, bestY) ? sad(blockStart, x - bestX - 1, y - bestY, Integer.MAX_VALUE) : -1;
+                int up = inside(x, y, bestX, bestY - 1) ? sad(blockStart, x - bestX, y - bestY + 1, Integer.MAX_VALUE) : -1;
+                int down = inside(x, y, bestX, bestY + 1) ? sad(blockStart, x - bestX, y - bestY - 1, Integer.MAX_VALUE) : -1;
+                count += 4;
+                int minRise = MIN_CURVATURE * size * size;
+                if (left < 0 || right < 0 || up < 0 || down < 0
+                        || Math.max(left, right) - best < minRise || Math.max(up, down) - best < minRise
+                        || !insideQuarter(x, y, 4 * bestX, 4 * bestY, 3)) {
+                    mU[k] = Float.NaN;
+                    mV[k] = Float.NaN;
+                    continue;
+                }
+                // sub-pixel, in quarter pixels on the interpolated previous frame: a half pixel diamond,
+                // then a V through the quarter pixel neighbours. (A V through the whole pixel neighbours
+                // is biased: the SAD of a block is a cone, and its cross section one pixel off in x is
+                // not centred on the true y.)
+                int x4 = 4 * bestX, y4 = 4 * bestY;
+                for (int p = 0; p < 4; p++) {
+                    int dx = 4 * bestX + 2 * SMALL_X[p], dy = 4 * bestY + 2 * SMALL_Y[p];
+                    int value = sadQuarter(blockStart, 4 * x - dx, 4 * y - dy, best);
+                    if (value < best) {
+                        best = value;
+                        x4 = dx;
+                        y4 = dy;
+                    }
+                }
+                left = sadQuarter(blockStart, 4 * x - x4 + 1, 4 * y - y4, Integer.MAX_VALUE);
+                right = sadQuarter(blockStart, 4 * x - x4 - 1, 4 * y - y4, Integer.MAX_VALUE);
+                up = sadQuarter(blockStart, 4 * x - x4, 4 * y - y4 + 1, Integer.MAX_VALUE);
+                down = sadQuarter(blockStart, 4 * x - x4, 4 * y - y4 - 1, Integer.MAX_VALUE);
+                count += 8;
+                mU[k] = (x4 + fraction(left, best, right)) / 4;
+                mV[k] = (y4 + fraction(up, best, down)) / 4;
+            }
+        }
+        mSadCount[tile] += count;
+    }
+
+    private static final int[] LARGE_X = {2, -2, 0, 0, 1, 1, -1, -1};
+    private static final int[] LARGE_Y = {0, 0, 2, -2, 1, -1, 1, -1};
+    private static final int[] SMALL_X = {1, -1, 0, 0};
+    private static final int[] SMALL_Y = {0, 0, 1, -1};
+
+    private boolean inside (int x, int y, int dx, int dy)
+    { // block at (x, y) having moved by (dx, dy): within the search range, and wholly in the previous frame
+        if (dx < -mRange || dx > mRange || dy < -mRange || dy > mRange) return false;
+        x -= dx;
+        y -= dy;
+        return x >= 0 && y >= 0 && x + mBlockSize <= mImageWidth && y + mBlockSize <= mImageHeight;
+    }
+
+    private boolean insideQuarter (int x, int y, int dx4, int dy4, int margin)
+    { // block at (x, y) having moved by (dx4, dy4) quarter pixels, give or take margin: interpolation stays in the frame
+        int left = 4 * x - Math.abs(dx4) - margin, top = 4 * y - Math.abs(dy4) - margin;
+        int right = 4 * x + Math.abs(dx4) + margin, bottom = 4 * y + Math.abs(dy4) + margin;
+        return left >= 0 && top >= 0 && (right >> 2) + mBlockSize + 1 <= mImageWidth && (bottom >> 2) + mBlockSize + 1 <= mImageHeight;
+    }
+
+    private int sadQuarter (int blockStart, int x4, int y4, int limit)
+    { // sad() against the previous frame at (x4, y4) quarter pixels, bilinear in sixteenths: the four
+      // weighted packed neighbours stay below 16 * 256 per lane, so they add up without spilling over
+        int x = x4 >> 2, y = y4 >> 2, fx = x4 & 3, fy = y4 & 3;
+        if (fx == 0 && fy == 0) return sad(blockStart, x, y, limit);
+        long topLeft = (4 - fx) * (4 - fy), topRight = fx * (4 - fy), bottomLeft = (4 - fx) * fy, bottomRight = fx * fy;
+        long[] block = mBlocks, packed = mPacked;
+        int quads = mBlockSize / 4, width = mImageWidth;
+        long sum = 0;
+        for (int j = 0, in = blockStart, row = y * width + x; j < mBlockSize; j++, row += width) {
+            for (int q = 0, pix = row; q < quads; q++, in++, pix += 4) {
+                long b = ((topLeft * packed[pix] + topRight * packed[pix + 1] + bottomLeft * packed[pix + width]
+                        + bottomRight * packed[pix + width + 1] + 8 * LANES) >>> 4) & BYTES;
+                long d = (block[in] | HIGH) - b;
+                long negative = ((d >>> 15) & LANES) ^ LANES;
+                sum += ((d ^ HIGH) ^ (negative * 0xFFFF)) + negative;
+            }
+            int total = (int) ((sum * LANES) >>> 48);
+            if (total >= limit) return total;
+        }
+        return (int) ((sum * LANES) >>> 48);
+    }
+
+    private int sad (int blockStart, int x, int y, int limit)
+    { // of the packed block against the previous frame at (x, y); stops at the first row that reaches limit
+        long[] block = mBlocks, packed = mPacked;
+        int quads = mBlockSize / 4, width = mImageWidth;
+        long sum = 0;
+        for (int j = 0, in = blockStart, row = y * width + x; j < mBlockSize; j++, row += width) {
+            for (int q = 0, pix = row; q < quads; q++, in++, pix += 4) {
+                long d = (block[in] | HIGH) - packed[pix];  // 0x8000 + a - b per lane, no borrow between lanes
+                long negative = ((d >>> 15) & LANES) ^ LANES;   // 1 where a < b
+                sum += ((d ^ HIGH) ^ (negative * 0xFFFF)) + negative;  // a - b, or its two's complement negated
+            }
+            int total = (int) ((sum * LANES) >>> 48);   // lanes added into the top one
+            if (total >= limit) return total;
+        }
+        return (int) ((sum * LANES) >>> 48);
+    }
+
+    static float fraction (int left, int best, int right)
+    { // minimum of the V through (-1, left), (0, best), (1, right): equal slopes on both sides
+        int rise = Math.max(left, right) - best;
+        return rise <= 0 ? 0 : 0.5f * (left - right) / rise;
+    }
+}
@@ -0,0 +1,158 @@
+// Luma and chroma histograms read straight from the planes of a YUV420SP frame, with mean and standard deviation
+
+package com.example.viewfinder.vision;
+
+public class ColorStatistics
+{	//	No RGB decode is needed: the Y plane gives the brightness histogram, the interleaved VU
+    //	plane the two chroma histograms (RGB histograms are still available on demand, from an
+    //	already decoded image, through ImageKernels). Consecutive samples are counted into
+    //	different copies of the histogram (LANES of them), so runs of equal grey levels do not
+    //	queue up behind each other's read-modify-write; the copies are added up at the end.
+    //	Each tile of a TileScheduler has its own set of copies.
+    static final int LANES = 4;                 // interleaved copies of each histogram
+    static final int LUMA = 0;                  // offsets into a tile's partial histograms
+    static final int CHROMA_V = LANES * 256;
+    static final int CHROMA_U = 2 * LANES * 256;
+    static final int PARTIAL_SIZE = 3 * LANES * 256;
+
+    final int mImageWidth, mImageHeight;
+    public final int[] mLumaHistogram = new int[256];
+    public final int[] mUHistogram = new int[256];
+    public final int[] mVHistogram = new int[256];
+    public int nLumaSamples, nChromaSamples;
+    public float mLumaMean, mLumaStdDev;
+    public float mUMean, mUStdDev;
+    public float mVMean, mVStdDev;
+    int mStep = 1;      // use every mStep'th pixel of every mStep'th row
+
+    private final TileScheduler mScheduler;
+    private final int[] mPartials;      // PARTIAL_SIZE per tile
+    private byte[] mJobYUV;
+    private boolean mJobChroma;
+    private final TileScheduler.Kernel mKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            accumulateRows(mJobYUV, mJobChroma, rowStart, rowEnd, tile * PARTIAL_SIZE);
+        }
+    };
+
+    public ColorStatistics (int width, int height, TileScheduler scheduler)
+    { // constructor - scheduler may be null (serial)
+        mImageWidth = width;
+        mImageHeight = height;
+        mScheduler = scheduler;
+        mPartials = new int[(scheduler == null ? 1 : scheduler.nTiles) * PARTIAL_SIZE];
+    }
+
+    public void setSubsampling (int step)
+    { // spatial subsampling: 1 looks at every pixel, 2 at one in four, ...
+        mStep = Math.max(1, step);
+    }
+
+    public void compute (byte[] yuv420sp, boolean chroma)
+    { // histograms and moments of one frame (chroma = false skips the UV plane)
+        int nTiles = mPartials.length / PARTIAL_SIZE;
+        int nRows = (mImageHeight + mStep - 1) / mStep;     // sampled rows
+        if (mScheduler == null) accumulateRows(yuv420sp, chroma, 0, nRows, 0);
+        else {
+            mJobYUV = yuv420sp;
+            mJobChroma = chroma;
+            mScheduler.run(mKernel, nRows);
+            mJobYUV = null;
+        }
+        merge(LUMA, nTiles, mLumaHistogram);
+        nLumaSamples = nRows * ((mImageWidth + mStep - 1) / mStep);
+        mLumaMean = mean(mLumaHistogram, nLumaSamples);
+        mLumaStdDev = stdDev(mLumaHistogram, nLumaSamples, mLumaMean);
+        if (!chroma) return;
+        merge(CHROMA_U, nTiles, mUHistogram);
+        merge(CHROMA_V, nTiles, mVHistogram);
+        nChromaSamples = countChromaSamples();
+        mUMean = mean(mUHistogram, nChromaSamples);
+        mUStdDev = stdDev(mUHistogram, nChromaSamples, mUMean);
+        mVMean = mean(mVHistogram, nChromaSamples);
+        mVStdDev = stdDev(mVHistogram, nChromaSamples, mVMean);
+    }
+
+    void accumulateRows (byte[] yuv, boolean chroma, int row0, int row1, int offset)
+    { // sampled rows [row0,row1) (row k is image row k * mStep) into mPartials[offset..]
+        final int[] h = mPartials;
+        final int width = mImageWidth, step = mStep;
+        for (int k = offset; k < offset + PARTIAL_SIZE; k++) h[k] = 0;
+        final int l0 = offset + LUMA, l1 = l0 + 256, l2 = l1 + 256, l3 = l2 + 256;
+        for (int r = row0; r < row1; r++) {
+            int y = r * step;
+            int pix = y * width, end = pix + width;
+            int step4 = 4 * step;
+            for (; pix + 3 * step < end; pix += step4) {    // four samples into four copies
+                h[l0 + (yuv[pix] & 0xFF)]++;
+                h[l1 + (yuv[pix + step] & 0xFF)]++;
+                h[l2 + (yuv[pix + 2 * step] & 0xFF)]++;
+                h[l3 + (yuv[pix + 3 * step] & 0xFF)]++;
+            }
+            for (; pix < end; pix += step) h[l0 + (yuv[pix] & 0xFF)]++;
+            // a chroma row is shared by two luma rows: without subsampling count it from the even
+            // one only; with step > 1 the sampled rows never share a chroma row
+            if (chroma && (step > 1 || (y & 1) == 0))
+                chromaRow(yuv, width * mImageHeight + (y >> 1) * width, offset);
+        }
+    }
+
+    private void chromaRow (byte[] yuv, int uvRow, int offset)
+    { // one row of V,U pairs; pairs are sampled at the same spacing as the luma
+        final int[] h = mPartials;
+        final int width = mImageWidth;
+        final int pairStep = 2 * Math.max(1, mStep >> 1);
+        final int v0 = offset + CHROMA_V, v1 = v0 + 256, u0 = offset + CHROMA_U, u1 = u0 + 256;
+        int uvp = uvRow, end = uvRow + width;
+        for (; uvp + pairStep < end; uvp += 2 * pairStep) {    // two pairs into two copies
+            h[v0 + (yuv[uvp] & 0xFF)]++;
+            h[u0 + (yuv[uvp + 1] & 0xFF)]++;
+            h[v1 + (yuv[uvp + pairStep] & 0xFF)]++;
+            h[u1 + (yuv[uvp + pairStep + 1] & 0xFF)]++;
+        }
+        for (; uvp < end; uvp += pairStep) {
+            h[v0 + (yuv[uvp] & 0xFF)]++;
+            h[u0 + (yuv[uvp + 1] & 0xFF)]++;
+        }
+    }
+
+    private int countChromaSamples ()
+    {
+        int total = 0;
+        for (int bin = 0; bin < 256; bin++) total += mUHistogram[bin];
+        return total;
+    }
+
+    private void merge (int base, int nTiles, int[] histogram)
+    { // add up all copies of all tiles
+        for (int bin = 0; bin < 256; bin++) {
+            int sum = 0;
+            for (int tile = 0; tile < nTiles; tile++)
+                for (int lane = 0, k = tile * PARTIAL_SIZE + base + bin; lane < LANES; lane++, k += 256)
+                    sum += mPartials[k];
+            histogram[bin] = sum;
+        }
+    }
+
+    static float mean (int[] histogram, int nSamples)
+    { // first moment over the bins
+        if (nSamples == 0) return 0;
+        long firstMoment = 0;
+        for (int bin = 1; bin < 256; bin++) firstMoment += (long) histogram[bin] * bin;
+        return (float) firstMoment / nSamples;
+    }
+
+    static float stdDev (int[] histogram, int nSamples, float mean)
+    { // second moment over the bins, squares built up incrementally: n^2 = (n-1)^2 + 2*n - 1
+        if (nSamples == 0) return 0;
+        long secondMoment = 0;
+        int binSquared = 0;
+        for (int bin = 1; bin < 256; bin++) {
+            binSquared += (bin << 1) - 1;
+            secondMoment += (long) histogram[bin] * binSquared;
+        }
+        double variance = (double) secondMoment / nSamples - (double) mean * mean;
+        return (float) Math.sqrt(Math.max(0, variance));
+    }
+}
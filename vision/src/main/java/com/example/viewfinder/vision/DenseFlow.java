@@ -0,0 +1,169 @@
+// Block-wise dense optical flow from summed-area tables of the five gradient products
+
+package com.example.viewfinder.vision;
+
+public class DenseFlow
+{	//	One pass over the frame builds summed-area tables of ExEx, EyEy, ExEy, ExEt, EyEt;
+    //	after that the 2x2 Lucas-Kanade system of any rectangle is four lookups per product.
+    //	Tables are int and allowed to wrap around: the difference of wrapped sums is still
+    //	exact as long as the true sum over one block fits in an int, which holds for blocks
+    //	of up to MAX_BLOCK x MAX_BLOCK cells (each product is at most 1020^2).
+    //	A block is solved only if its gradients are strong in every direction: along a single
+    //	edge the system is nearly singular and the solution is meaningless (and huge). What is
+    //	left is clamped to a block per frame, beyond which one linear step cannot be right.
+    public static final int MAX_BLOCK = 32;
+    static final int NSUMS = 5;     // interleaved: XX, YY, XY, XT, YT
+    static final int MIN_GRADIENT = 4;  // about one grey level per pixel, in the undivided (4x) gradient units
+
+    final int mImageWidth, mImageHeight;
+    final int mCellsWidth, mCellsHeight;    // 2x2 cells (one gradient each)
+    public final int mBlockSize;
+    public final int mGridWidth, mGridHeight;
+    final int[] mTable;     // (mCellsWidth+1) x (mCellsHeight+1) entries of NSUMS, first row and column zero
+
+    // optional parallel build: row strips for the running sums along x, then column strips along y
+    private final TileScheduler mScheduler;
+    private byte[] mJobPixels, mJobPrePixels;
+    private final TileScheduler.Kernel mRowKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            buildRows(mJobPixels, mJobPrePixels, rowStart, rowEnd);
+        }
+    };
+    private final TileScheduler.Kernel mColumnKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int columnStart, int columnEnd)
+        {
+            sumColumns(columnStart, columnEnd);
+        }
+    };
+
+    public DenseFlow (int width, int height, int blockSize)
+    {
+        this(width, height, blockSize, null);
+    }
+
+    public DenseFlow (int width, int height, int blockSize, TileScheduler scheduler)
+    { // constructor - allocates the summed-area tables
+        mScheduler = scheduler;
+        mImageWidth = width;
+        mImageHeight = height;
+        mCellsWidth = width - 1;
+        mCellsHeight = height - 1;
+        mBlockSize = Math.max(2, Math.min(MAX_BLOCK, blockSize));
+        mGridWidth = mCellsWidth / mBlockSize;
+        mGridHeight = mCellsHeight / mBlockSize;
+        mTable = new int[(mCellsWidth + 1) * (mCellsHeight + 1) * NSUMS];
+    }
+
+    public void compute (byte[] pixels, byte[] prePixels, float[] flowU, float[] flowV)
+    { // one vector per block, row by row into flowU/flowV (NaN where the block has too little texture)
+        buildTables(pixels, prePixels);
+        int stride = (mCellsWidth + 1) * NSUMS;
+        // smaller eigenvalue of the gradient matrix: half of what MIN_GRADIENT in every direction gives
+        double minEigen = 0.5 * MIN_GRADIENT * MIN_GRADIENT * mBlockSize * mBlockSize;
+        float limit = mBlockSize;
+        for (int by = 0, k = 0; by < mGridHeight; by++) {
+            int top = by * mBlockSize * stride;
+            int bot = top + mBlockSize * stride;
+            for (int bx = 0; bx < mGridWidth; bx++, k++) {
+                int a = top + bx * mBlockSize * NSUMS;         // top left corner
+                int b = a + mBlockSize * NSUMS;                 // top right
+                int c = bot + bx * mBlockSize * NSUMS;          // bottom left
+                int d = c + mBlockSize * NSUMS;                 // bottom right
+                double xx = mTable[d] - mTable[b] - mTable[c] + mTable[a];
+                double yy = mTable[d + 1] - mTable[b + 1] - mTable[c + 1] + mTable[a + 1];
+                double xy = mTable[d + 2] - mTable[b + 2] - mTable[c + 2] + mTable[a + 2];
+                double xt = mTable[d + 3] - mTable[b + 3] - mTable[c + 3] + mTable[a + 3];
+                double yt = mTable[d + 4] - mTable[b + 4] - mTable[c + 4] + mTable[a + 4];
+                double delta = xx * yy - xy * xy;
+                double half = 0.5 * (xx + yy);
+                double eigen = half - Math.sqrt(Math.max(0, half * half - delta));
+                if (eigen < minEigen) {
+                    flowU[k] = Float.NaN;
+                    flowV[k] = Float.NaN;
+                } else {
+                    float u = (float) ((xy * yt - yy * xt) / delta);
+                    float v = (float) ((xy * xt - xx * yt) / delta);
+                    flowU[k] = Math.max(-limit, Math.min(limit, u));
+                    flowV[k] = Math.max(-limit, Math.min(limit, v));
+                }
+            }
+        }
+    }
+
+    void buildTables (byte[] pixels, byte[] prePixels)
+    {
+        if (mScheduler == null) {   // single pass
+            buildRows(pixels, prePixels, 0, mCellsHeight);
+            return;
+        }
+        mJobPixels = pixels;
+        mJobPrePixels = prePixels;
+        mScheduler.run(mRowKernel, mCellsHeight);
+        mScheduler.run(mColumnKernel, mCellsWidth + 1);
+        mJobPixels = null;
+        mJobPrePixels = null;
+    }
+
+    void buildRows (byte[] pixels, byte[] prePixels, int y0, int y1)
+    { // same gradients as LucasKanade.accumulateRows, but the running sums along each row are stored.
+      // Serially (whole frame) the row above is added at once; in parallel that is left to sumColumns.
+        boolean addAbove = mScheduler == null;
+        int width = mImageWidth;
+        int stride = (mCellsWidth + 1) * NSUMS;
+        int[] table = mTable;
+        for (int y = y0; y < y1; y++) {
+            int top = width * y;
+            int bot = top + width;
+            int out = (y + 1) * stride + NSUMS;
+            int up = addAbove ? out - stride : 0;   // without the row above: first (zero) row
+            int pT = prePixels[top] & 0xFF, pB = prePixels[bot] & 0xFF;
+            int cT = pixels[top] & 0xFF, cB = pixels[bot] & 0xFF;
+            int colL = pT + pB + cT + cB;
+            int vertL = pB + cB - pT - cT;
+            int tempL = cT + cB - pT - pB;
+            int xx = 0, yy = 0, xy = 0, xt = 0, yt = 0;     // running sums along this row
+            for (int x = 0; x < mCellsWidth; x++, out += NSUMS) {
+                top++;
+                bot++;
+                pT = prePixels[top] & 0xFF;
+                pB = prePixels[bot] & 0xFF;
+                cT = pixels[top] & 0xFF;
+                cB = pixels[bot] & 0xFF;
+                int colR = pT + pB + cT + cB;
+                int vertR = pB + cB - pT - cT;
+                int tempR = cT + cB - pT - pB;
+
+                int ex = colR - colL;
+                int ey = vertL + vertR;
+                int et = tempL + tempR;
+                xx += ex * ex;
+                yy += ey * ey;
+                xy += ex * ey;
+                xt += ex * et;
+                yt += ey * et;
+                table[out] = table[up] + xx;
+                table[out + 1] = table[up + 1] + yy;
+                table[out + 2] = table[up + 2] + xy;
+                table[out + 3] = table[up + 3] + xt;
+                table[out + 4] = table[up + 4] + yt;
+                if (addAbove) up += NSUMS;
+
+                colL = colR;
+                vertL = vertR;
+                tempL = tempR;
+            }
+        }
+    }
+
+    void sumColumns (int x0, int x1)
+    { // turn the per-row running sums of table columns [x0,x1) into summed-area values
+        int stride = (mCellsWidth + 1) * NSUMS;
+        int[] table = mTable;
+        for (int y = 2; y <= mCellsHeight; y++) {
+            int out = y * stride + x0 * NSUMS;
+            int end = y * stride + x1 * NSUMS;
+            for (; out < end; out++) table[out] += table[out - stride];
+        }
+    }
+}
@@ -0,0 +1,427 @@
+// Sparse KLT tracker: Shi-Tomasi corners, each followed by a small-window pyramidal Lucas-Kanade
+
+package com.example.viewfinder.vision;
+
+import java.util.Arrays;
+
+public class FeatureTracker implements GlobalMotionEstimator
+{	//	Shi-Tomasi corners (best one per cell, found on mDetectLevel), each followed coarse to fine
+    //	by its own (2r+1)^2 window solve, less the window's mean difference (exposure is not motion).
+    //	Lost features are dropped and new ones detected below REDETECT_FRACTION of mMaxFeatures;
+    //	u, v are the median displacement, in full resolution pixels per frame.
+    static final int MIN_FEATURES = 3;      // fewer than this: no estimate
+    static final float REDETECT_FRACTION = 0.75f;   // look for more corners below this share of mMaxFeatures
+    static final float QUALITY = 0.02f;     // corners weaker than this share of the best one are ignored
+    static final float MIN_EIGEN = 4;       // smaller eigenvalue per window pixel, in (grey levels per pixel)^2
+    static final float MAX_RESIDUAL = 24;   // rms difference of a matched window, less its mean (grey levels)
+    static final int MAX_ITERATIONS = 8;    // per level
+    static final float EPSILON = 0.01f;     // converged when an update is smaller (pixels)
+    static final int DETECT_BOX = 2;        // structure tensor summed over (2*DETECT_BOX+1)^2 pixels
+
+    public float u, v;          // median displacement of the features tracked in the last frame
+    public int nFeatures;       // features now being tracked (positions in the newest frame)
+    public final float[] mX, mY;    // feature positions, full resolution pixels
+    public final float[] mDx, mDy;  // displacement over the last frame (0 for features just detected)
+    public int nTracked, nLost, nDetected;  // last frame: features followed, dropped, added
+
+    final int mImageWidth, mImageHeight;
+    final int mMaxFeatures;
+    final int mRadius;          // window half size
+    final int mDetectLevel;     // pyramid level searched for corners
+    final int mCellSize;        // one corner per cell of this many pixels (at the detection level)
+    int mFinestLevel;           // tracking stops here: 0 is full resolution, 1 half, ...
+    private LumaPyramid mCurrent, mPrevious;
+    private final TileScheduler mScheduler;     // optional, shares features and detection rows among threads
+    private final int nTiles;
+
+    // tracking results per feature slot, compacted afterwards
+    private final float[] mNewX, mNewY;
+    private final boolean[] mFound;
+    private final float[] mScratch;     // per tile: template with a one pixel border, and its gradients
+    private final int mScratchSize;
+    private final float[] mMedian;      // for the median of the displacements
+    private float mPriorX, mPriorY;     // expected motion (last median), start of the coarsest search
+
+    // detection
+    private final int mCellsWidth, mCellsHeight;
+    private final float[] mCellScore;   // best corner score per cell, 0 if none
+    private final int[] mCellPixel;     // where it is (index into the detection level)
+    private final boolean[] mOccupied;  // cell already has a feature
+    private final int[] mColumnSums;    // per tile: running box sums of the three products down each column
+    private final long[] mCandidates;   // score and cell, sortable
+    private final TileScheduler.Kernel mTrackKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int start, int end)
+        {
+            for (int k = start; k < end; k++) trackFeature(k, tile);
+        }
+    };
+    private final TileScheduler.Kernel mDetectKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int cellRowStart, int cellRowEnd)
+        {
+            scoreCells(tile, cellRowStart, cellRowEnd);
+        }
+    };
+
+    public FeatureTracker (int width, int height, int maxFeatures, int radius, int levels, TileScheduler scheduler)
+    { // constructor - allocates both pyramids and all per feature and per tile buffers
+        mImageWidth = width;
+        mImageHeight = height;
+        mMaxFeatures = maxFeatures;
+        mRadius = radius;
+        mScheduler = scheduler;
+        nTiles = scheduler == null ? 1 : scheduler.nTiles;
+        mCurrent = new LumaPyramid(width, height, levels, scheduler);
+        mPrevious = new LumaPyramid(width, height, levels, scheduler);
+        mDetectLevel = Math.min(width >= 320 ? 1 : 0, mCurrent.nLevels - 1);
+        mCellSize = Math.max(4, 16 >> mDetectLevel);
+        mX = new float[maxFeatures];
+        mY = new float[maxFeatures];
+        mDx = new float[maxFeatures];
+        mDy = new float[maxFeatures];
+        mNewX = new float[maxFeatures];
+        mNewY = new float[maxFeatures];
+        mFound = new boolean[maxFeatures];
+        mMedian = new float[maxFeatures];
+        int side = 2 * radius + 3;
+        mScratchSize = side * side + 2 * (2 * radius + 1) * (2 * radius + 1);
+        mScratch = new float[nTiles * mScratchSize];
+        int detectWidth = mCurrent.mWidths[mDetectLevel], detectHeight = mCurrent.mHeights[mDetectLevel];
+        mCellsWidth = detectWidth / mCellSize;
+        mCellsHeight = detectHeight / mCellSize;
+        mCellScore = new float[mCellsWidth * mCellsHeight];
+        mCellPixel = new int[mCellsWidth * mCellsHeight];
+        mOccupied = new boolean[mCellsWidth * mCellsHeight];
+        mColumnSums = new int[nTiles * 3 * detectWidth];
+        mCandidates = new long[mCellsWidth * mCellsHeight];
+    }
+
+    public void setFinestLevel (int level)
+    { // trade accuracy for time: skip the window solves at the finest levels
+        mFinestLevel = Math.max(0, Math.min(level, mCurrent.nLevels - 1));
+    }
+
+    public void reset ()
+    { // forget all features (the next frame only detects) and the previous pyramid: the frame
+      // buffer it was built from may since have been refilled, so the next track() rebuilds it
+        nFeatures = 0;
+        mPriorX = 0;
+        mPriorY = 0;
+        mPrevious.mLevels[0] = null;
+    }
+
+    public boolean track (byte[] pixels, byte[] prePixels)
+    { // follow the features from prePixels into pixels, then top them up with new corners in pixels;
+      // returns false if too few were followed for a motion estimate
+        if (mPrevious.mLevels[0] != prePixels) mPrevious.build(prePixels);    // first frame, or frames skipped
+        mCurrent.build(pixels);
+        int n = nFeatures;
+        if (n > 0) {
+            if (mScheduler != null && n >= nTiles) mScheduler.run(mTrackKernel, n);
+            else for (int k = 0; k < n; k++) trackFeature(k, 0);
+        }
+        // keep the features that were found, in order, with their displacements
+        int kept = 0;
+        for (int k = 0; k < n; k++) {
+            if (!mFound[k]) continue;
+            mDx[kept] = mNewX[k] - mX[k];
+            mDy[kept] = mNewY[k] - mY[k];
+            mX[kept] = mNewX[k];
+            mY[kept] = mNewY[k];
+            kept++;
+        }
+        nTracked = kept;
+        nLost = n - kept;
+        nFeatures = kept;
+        boolean solved = kept >= MIN_FEATURES;
+        if (solved) {
+            u = median(mDx, kept);
+            v = median(mDy, kept);
+        } else {
+            u = 0;
+            v = 0;
+        }
+        mPriorX = u;
+        mPriorY = v;
+        nDetected = 0;
+        if (nFeatures < mMaxFeatures * REDETECT_FRACTION) detect();
+        // current pyramid becomes the previous one for the next frame
+        LumaPyramid swap = mPrevious;
+        mPrevious = mCurrent;
+        mCurrent = swap;
+        return solved;
+    }
+
+    public boolean estimate (byte[] pixels, byte[] prePixels)
+    {
+        return track(pixels, prePixels);
+    }
+
+    public float motionX ()
+    {
+        return u;
+    }
+
+    public float motionY ()
+    {
+        return v;
+    }
+
+    public boolean motionNear (float x, float y, float radius, float[] motion)
+    { // median displacement of the features tracked to within radius of (x, y), into motion[0..1];
+      // false (and motion untouched) if there are fewer than MIN_FEATURES of them
+        int count = 0;
+        float r2 = radius * radius;
+        for (int k = 0; k < nTracked; k++) {
+            float dx = mX[k] - x, dy = mY[k] - y;
+            if (dx * dx + dy * dy <= r2) mMedian[count++] = mDx[k];
+        }
+        if (count < MIN_FEATURES) return false;
+        motion[0] = select(mMedian, count, count / 2);
+        count = 0;
+        for (int k = 0; k < nTracked; k++) {
+            float dx = mX[k] - x, dy = mY[k] - y;
+            if (dx * dx + dy * dy <= r2) mMedian[count++] = mDy[k];
+        }
+        motion[1] = select(mMedian, count, count / 2);
+        return true;
+    }
+
+    private float median (float[] values, int n)
+    {
+        System.arraycopy(values, 0, mMedian, 0, n);
+        return select(mMedian, n, n / 2);
+    }
+
+    static float select (float[] a, int n, int k)
+    { // k'th smallest of a[0..n), partially reordering a (quickselect, no allocation)
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            float pivot = a[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    float t = a[i];
+                    a[i] = a[j];
+                    a[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else break;
+        }
+        return a[k];
+    }
+
+    // ---- tracking ----
+
+    private void trackFeature (int k, int tile)
+    { // pyramidal iterative Lucas-Kanade for feature k, result into mNewX/mNewY/mFound
+        int r = mRadius, side = 2 * r + 3, n = 2 * r + 1;
+        float[] scratch = mScratch;
+        int template = tile * mScratchSize;         // side x side samples of the previous level
+        int gradX = template + side * side, gradY = gradX + n * n;
+        int top = mCurrent.nLevels - 1, finest = mFinestLevel;
+        float gx = mPriorX / (1 << top), gy = mPriorY / (1 << top);     // guess at the current level
+        mFound[k] = false;
+        for (int level = top; level >= finest; level--) {
+            int width = mCurrent.mWidths[level], height = mCurrent.mHeights[level];
+            float scale = 1f / (1 << level);
+            float px = (mX[k] + 0.5f) * scale - 0.5f, py = (mY[k] + 0.5f) * scale - 0.5f;
+            if (!inside(px, py, r + 1, width, height)) {    // too near the border at this level
+                if (level == finest) return;
+                gx *= 2;
+                gy *= 2;
+                continue;
+            }
+            // template around the previous position, and its central difference gradients
+            sampleWindow(mPrevious.mLevels[level], width, px, py, r + 1, scratch, template);
+            double gxx = 0, gyy = 0, gxy = 0, sumX = 0, sumY = 0;
+            for (int j = 0, g = 0; j < n; j++) {
+                int row = template + (j + 1) * side + 1;
+                for (int i = 0; i < n; i++, g++) {
+                    float ix = (scratch[row + i + 1] - scratch[row + i - 1]) * 0.5f;
+                    float iy = (scratch[row + i + side] - scratch[row + i - side]) * 0.5f;
+                    scratch[gradX + g] = ix;
+                    scratch[gradY + g] = iy;
+                    gxx += ix * ix;
+                    gyy += iy * iy;
+                    gxy += ix * iy;
+                    sumX += ix;
+                    sumY += iy;
+                }
+            }
+            double det = gxx * gyy - gxy * gxy;
+            double minEigen = (gxx + gyy - Math.sqrt((gxx - gyy) * (gxx - gyy) + 4 * gxy * gxy)) / 2;
+            if (det <= 0 || minEigen < MIN_EIGEN * n * n) {     // flat or a straight edge
+                if (level == finest) return;
+                gx *= 2;    // may be blurred away at this level only: leave it to the finer ones
+                gy *= 2;
+                continue;
+            }
+            float vx = 0, vy = 0;
+            float residual = 0;
+            for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+                float qx = px + gx + vx, qy = py + gy + vy;
+                if (!inside(qx, qy, r, width, height)) return;
+                // mismatch against the current level at the displaced window
+                byte[] current = mCurrent.mLevels[level];
+                int ix0 = (int) Math.floor(qx), iy0 = (int) Math.floor(qy);
+                float fx = qx - ix0, fy = qy - iy0;
+                float w00 = (1 - fx) * (1 - fy), w01 = fx * (1 - fy), w10 = (1 - fx) * fy, w11 = fx * fy;
+                double bx = 0, by = 0, sum = 0, sumSquares = 0;
+                for (int j = 0, g = 0; j < n; j++) {
+                    int src = (iy0 - r + j) * width + ix0 - r;
+                    int row = template + (j + 1) * side + 1;
+                    for (int i = 0; i < n; i++, g++, src++) {
+                        float sample = w00 * (current[src] & 0xFF) + w01 * (current[src + 1] & 0xFF)
+                                + w10 * (current[src + width] & 0xFF) + w11 * (current[src + width + 1] & 0xFF);
+                        float diff = scratch[row + i] - sample;
+                        bx += diff * scratch[gradX + g];
+                        by += diff * scratch[gradY + g];
+                        sum += diff;
+                        sumSquares += diff * diff;
+                    }
+                }
+                // without the mean difference, so a change of exposure is not taken for motion
+                double bias = sum / (n * n);
+                bx -= bias * sumX;
+                by -= bias * sumY;
+                residual = (float) Math.sqrt(Math.max(0, sumSquares / (n * n) - bias * bias));
+                float stepX = (float) ((gyy * bx - gxy * by) / det);
+                float stepY = (float) ((gxx * by - gxy * bx) / det);
+                vx += stepX;
+                vy += stepY;
+                if (stepX * stepX + stepY * stepY < EPSILON * EPSILON) break;
+            }
+            if (level > finest) {
+                gx = 2 * (gx + vx);
+                gy = 2 * (gy + vy);
+            } else {
+                if (residual > MAX_RESIDUAL) return;    // converged onto something else
+                mNewX[k] = mX[k] + (gx + vx) * (1 << level);
+                mNewY[k] = mY[k] + (gy + vy) * (1 << level);
+                mFound[k] = true;
+            }
+        }
+    }
+
+    private static boolean inside (float x, float y, int margin, int width, int height)
+    { // bilinear samples of [x-margin, x+margin] x [y-margin, y+margin] stay within the level
+        return x - margin >= 0 && y - margin >= 0 && x + margin < width - 1 && y + margin < height - 1;
+    }
+
+    private static void sampleWindow (byte[] level, int width, float x, float y, int half, float[] dst, int offset)
+    { // (2*half+1)^2 bilinear samples centred on (x, y), row by row into dst[offset..]
+        int ix0 = (int) Math.floor(x), iy0 = (int) Math.floor(y);
+        float fx = x - ix0, fy = y - iy0;
+        float w00 = (1 - fx) * (1 - fy), w01 = fx * (1 - fy), w10 = (1 - fx) * fy, w11 = fx * fy;
+        int side = 2 * half + 1;
+        for (int j = 0, out = offset; j < side; j++) {
+            int src = (iy0 - half + j) * width + ix0 - half;
+            for (int i = 0; i < side; i++, src++, out++)
+                dst[out] = w00 * (level[src] & 0xFF) + w01 * (level[src + 1] & 0xFF)
+                        + w10 * (level[src + width] & 0xFF) + w11 * (level[src + width + 1] & 0xFF);
+        }
+    }
+
+    // ---- detection ----
+
+    private void detect ()
+    { // add the strongest corners of the current frame in cells that have no feature yet
+        Arrays.fill(mOccupied, false);
+        float scale = 1f / (1 << mDetectLevel);
+        for (int k = 0; k < nFeatures; k++) {
+            int cx = (int) ((mX[k] + 0.5f) * scale / mCellSize), cy = (int) ((mY[k] + 0.5f) * scale / mCellSize);
+            if (cx >= 0 && cx < mCellsWidth && cy >= 0 && cy < mCellsHeight) mOccupied[cy * mCellsWidth + cx] = true;
+        }
+        if (mScheduler != null) mScheduler.run(mDetectKernel, mCellsHeight);
+        else scoreCells(0, 0, mCellsHeight);
+        float best = 0;
+        for (float score : mCellScore) best = Math.max(best, score);
+        int box = (2 * DETECT_BOX + 1) * (2 * DETECT_BOX + 1);
+        float threshold = Math.max(best * QUALITY, 4 * MIN_EIGEN * box);    // (central differences are twice the gradient)
+        int n = 0;
+        for (int c = 0; c < mCellScore.length; c++) {  // positive floats sort like their bits
+            if (!mOccupied[c] && mCellScore[c] >= threshold)
+                mCandidates[n++] = ((long) Float.floatToIntBits(mCellScore[c]) << 32) | c;
+        }
+        Arrays.sort(mCandidates, 0, n);
+        int width = mCurrent.mWidths[mDetectLevel];
+        float size = 1 << mDetectLevel;
+        for (int k = n - 1; k >= 0 && nFeatures < mMaxFeatures; k--) {
+            int pixel = mCellPixel[(int) mCandidates[k]];
+            mX[nFeatures] = ((pixel % width) + 0.5f) * size - 0.5f;     // centre of the pixel at full resolution
+            mY[nFeatures] = ((pixel / width) + 0.5f) * size - 0.5f;
+            mDx[nFeatures] = 0;
+            mDy[nFeatures] = 0;
+            nFeatures++;
+            nDetected++;
+        }
+    }
+
+    private void scoreCells (int tile, int cellRowStart, int cellRowEnd)
+    { // best Shi-Tomasi score (and its pixel) of each cell in the given rows of cells. Column
+      // sums of the gradient products over the box are slid down the strip, then summed across.
+        byte[] level = mCurrent.mLevels[mDetectLevel];
+        int width = mCurrent.mWidths[mDetectLevel], height = mCurrent.mHeights[mDetectLevel];
+        int b = DETECT_BOX;
+        int[] sums = mColumnSums;
+        int base = tile * 3 * width;
+        int y0 = cellRowStart * mCellSize, y1 = cellRowEnd * mCellSize;
+        for (int c = cellRowStart * mCellsWidth; c < cellRowEnd * mCellsWidth; c++) mCellScore[c] = 0;
+        Arrays.fill(sums, base, base + 3 * width, 0);
+        for (int y = y0 - b; y < y0 + b; y++) addRow(level, width, height, y, 1, sums, base);   // box above y0
+        for (int y = y0; y < y1; y++) {
+            addRow(level, width, height, y + b, 1, sums, base);
+            if (y >= b + 1 && y < height - b - 1) {     // whole box has gradients
+                int cellRow = y / mCellSize;
+                int xx = 0, yy = 0, xy = 0;
+                for (int x = 0; x < 2 * b; x++) {
+                    xx += sums[base + 3 * x];
+                    yy += sums[base + 3 * x + 1];
+                    xy += sums[base + 3 * x + 2];
+                }
+                for (int x = b; x < width - b; x++) {
+                    int right = base + 3 * (x + b);
+                    xx += sums[right];
+                    yy += sums[right + 1];
+                    xy += sums[right + 2];
+                    if (x >= b + 1 && x < width - b - 1) {
+                        int cellX = x / mCellSize;
+                        if (cellX < mCellsWidth) {
+                            float dxy = xx - yy;
+                            float score = 0.5f * (xx + yy - (float) Math.sqrt(dxy * dxy + 4f * xy * xy));
+                            int cell = cellRow * mCellsWidth + cellX;
+                            if (score > mCellScore[cell]) {
+                                mCellScore[cell] = score;
+                                mCellPixel[cell] = y * width + x;
+                            }
+                        }
+                    }
+                    int left = base + 3 * (x - b);
+                    xx -= sums[left];
+                    yy -= sums[left + 1];
+                    xy -= sums[left + 2];
+                }
+            }
+            addRow(level, width, height, y - b, -1, sums, base);
+        }
+    }
+
+    private static void addRow (byte[] level, int width, int height, int y, int sign, int[] sums, int base)
+    { // add (or take away) the gradient products of row y to the column sums (rows without both neighbours count as 0)
+        if (y < 1 || y >= height - 1) return;
+        int row = y * width;
+        for (int x = 1, out = base + 3; x < width - 1; x++, out += 3) {
+            int ix = (level[row + x + 1] & 0xFF) - (level[row + x - 1] & 0xFF);
+            int iy = (level[row + x + width] & 0xFF) - (level[row + x - width] & 0xFF);
+            sums[out] += sign * ix * ix;
+            sums[out + 1] += sign * iy * iy;
+            sums[out + 2] += sign * ix * iy;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+// In-place radix-2 complex FFT of one size, with twiddles and bit reversal worked out once
+
+package com.example.viewfinder.vision;
+
+public class Fft
+{	//	Data are separate re[] / im[] arrays; a transform works on n values starting at an offset
+    //	with a stride, so the rows and the columns of a 2D array are transformed where they lie.
+    //	The inverse is not scaled: divide by n (n * n for 2D) where it matters.
+    public final int n;
+    private final int nBits;
+    private final float[] mCos, mSin;   // exp(-2 pi i k / n), k < n/2
+    private final int[] mReverse;       // bit reversed index of every index (the reorder swaps only where it is larger)
+
+    public Fft (int size)
+    { // constructor - size must be a power of 2
+        if (size < 2 || (size & (size - 1)) != 0)
+            throw new IllegalArgumentException("FFT size " + size + " is not a power of 2");
+        n = size;
+        nBits = Integer.numberOfTrailingZeros(size);
+        mCos = new float[size / 2];
+        mSin = new float[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = -2 * Math.PI * k / size;
+            mCos[k] = (float) Math.cos(angle);
+            mSin[k] = (float) Math.sin(angle);
+        }
+        mReverse = new int[size];
+        for (int k = 0; k < size; k++) mReverse[k] = Integer.reverse(k) >>> (32 - nBits);
+    }
+
+    public void transform (float[] re, float[] im, int offset, int stride, boolean inverse)
+    {
+        for (int k = 0; k < n; k++) {   // reorder
+            int j = mReverse[k];
+            if (j <= k) continue;
+            int a = offset + k * stride, b = offset + j * stride;
+            float t = re[a];
+            re[a] = re[b];
+            re[b] = t;
+            t = im[a];
+            im[a] = im[b];
+            im[b] = t;
+        }
+        float sign = inverse ? -1 : 1;      // conjugate twiddles for the inverse
+        for (int half = 1, step = n / 2; half < n; half *= 2, step /= 2) {
+            for (int start = 0; start < n; start += 2 * half) {
+                for (int k = 0; k < half; k++) {
+                    float wr = mCos[k * step], wi = sign * mSin[k * step];
+                    int a = offset + (start + k) * stride, b = a + half * stride;
+                    float tr = wr * re[b] - wi * im[b];
+                    float ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    public void transform2D (float[] re, float[] im, boolean inverse)
+    { // n x n array, row by row
+        for (int row = 0; row < n; row++) transform(re, im, row * n, 1, inverse);
+        for (int column = 0; column < n; column++) transform(re, im, column, n, inverse);
+    }
+}
@@ -0,0 +1,85 @@
+// One camera frame as luma and chroma planes with a capture timestamp, in NV21 or YUV_420_888 layout
+
+package com.example.viewfinder.vision;
+
+import java.nio.ByteBuffer;
+
+public class Frame
+{	//	A frame either wraps an NV21 array (Camera1 callback buffers, recordings) or the three
+    //	planes of a YUV_420_888 image (Camera2 ImageReader), which are direct buffers owned by the
+    //	camera: they are not copied into the frame, only referenced, and stay valid only until the
+    //	source gets its image back. The source fills in the same Frame object for every image.
+    //	copyTo() is the one copy on the way into the pipeline, straight into its own buffers.
+    public int mWidth, mHeight;
+    public long mTimestamp;         // capture time (nanoseconds, time base depends on the source)
+    public byte[] mNV21;            // Y plane then interleaved VU, or null if the planes are set
+    public ByteBuffer mY, mU, mV;   // YUV_420_888 planes (chroma subsampled by 2 both ways)
+    public int mYRowStride;
+    public int mChromaRowStride, mChromaPixelStride;
+    private byte[] mChromaRow;      // one row of each chroma plane, for interleaving (allocated on first use)
+
+    public void setNV21 (byte[] data, int width, int height, long timestamp)
+    {
+        mWidth = width;
+        mHeight = height;
+        mTimestamp = timestamp;
+        mNV21 = data;
+        mY = mU = mV = null;
+    }
+
+    public void setPlanes (ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v,
+                           int chromaRowStride, int chromaPixelStride, int width, int height, long timestamp)
+    {
+        mWidth = width;
+        mHeight = height;
+        mTimestamp = timestamp;
+        mNV21 = null;
+        mY = y;
+        mU = u;
+        mV = v;
+        mYRowStride = yRowStride;
+        mChromaRowStride = chromaRowStride;
+        mChromaPixelStride = chromaPixelStride;
+    }
+
+    public void copyTo (byte[] nv21, boolean chroma)
+    { // the Y plane (and the chroma planes, as VU pairs, if chroma is set) into an NV21 array
+        int lumaSize = mWidth * mHeight;
+        if (mNV21 != null) {
+            System.arraycopy(mNV21, 0, nv21, 0, chroma ? lumaSize * 3 / 2 : lumaSize);
+            return;
+        }
+        copyPlane(mY, mYRowStride, nv21, 0, mWidth, mHeight);
+        if (!chroma) return;
+        int chromaWidth = mWidth / 2, chromaHeight = mHeight / 2;
+        int rowLength = (chromaWidth - 1) * mChromaPixelStride + 1;     // bytes spanned by one row
+        if (mChromaRow == null || mChromaRow.length < 2 * rowLength) mChromaRow = new byte[2 * rowLength];
+        byte[] row = mChromaRow;
+        int v0 = mV.position(), u0 = mU.position();
+        for (int y = 0; y < chromaHeight; y++) {  // whole rows in bulk, then interleaved as VU
+            mV.position(v0 + y * mChromaRowStride);
+            mV.get(row, 0, rowLength);
+            mU.position(u0 + y * mChromaRowStride);
+            mU.get(row, rowLength, rowLength);
+            for (int x = 0, src = 0, dst = lumaSize + y * mWidth; x < chromaWidth; x++, src += mChromaPixelStride) {
+                nv21[dst++] = row[src];
+                nv21[dst++] = row[rowLength + src];
+            }
+        }
+        mV.position(v0);
+        mU.position(u0);
+    }
+
+    private static void copyPlane (ByteBuffer plane, int rowStride, byte[] dst, int offset, int width, int height)
+    { // bulk copy, one get() per row unless rows are packed (the last row may be short of rowStride)
+        int start = plane.position();
+        if (rowStride == width) plane.get(dst, offset, width * height);
+        else {
+            for (int y = 0; y < height; y++) {
+                plane.position(start + y * rowStride);
+                plane.get(dst, offset + y * width, width);
+            }
+        }
+        plane.position(start);
+    }
+}
@@ -0,0 +1,62 @@
+// Frame sized byte arrays kept by size, so a pipeline restarted at a size seen before allocates nothing
+
+package com.example.viewfinder.vision;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class FrameBufferPool
+{	//	Whoever is done with a buffer gives it back, whoever needs one takes it (or a new one if
+    //	none of that size is left). Outlives the pipelines and frame sources that use it, so the
+    //	buffers survive a pause and resume, or a switch to another preview size and back.
+    //	Only the most recently used sizes are kept: the adaptive controller moves through a few
+    //	sizes, and buffers for ones it has left behind would only hold memory.
+    //	Taking and giving are synchronized, but happen at start and stop only, never per frame.
+    static final int MAX_SIZES = 2;
+
+    private final LinkedHashMap<Integer, ArrayList<byte[]>> mFree =
+            new LinkedHashMap<Integer, ArrayList<byte[]>>(4, 0.75f, true) {     // in access order
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<Integer, ArrayList<byte[]>> eldest)
+        {
+            return size() > MAX_SIZES;
+        }
+    };
+    public int nAllocated;      // buffers that had to be made, for the log
+    public int nReused;         // buffers taken from the pool
+
+    public synchronized byte[] take (int size)
+    { // a free buffer of exactly this size (contents undefined)
+        ArrayList<byte[]> free = mFree.get(size);
+        if (free != null && !free.isEmpty()) {
+            nReused++;
+            return free.remove(free.size() - 1);
+        }
+        nAllocated++;
+        return new byte[size];
+    }
+
+    public synchronized void give (byte[] buffer)
+    { // buffer must no longer be used by whoever gives it
+        ArrayList<byte[]> free = mFree.get(buffer.length);
+        if (free == null) {
+            free = new ArrayList<byte[]>();
+            mFree.put(buffer.length, free);
+        }
+        free.add(buffer);
+    }
+
+    public synchronized int bytesHeld ()
+    {
+        int total = 0;
+        for (ArrayList<byte[]> free : mFree.values())
+            for (byte[] buffer : free) total += buffer.length;
+        return total;
+    }
+
+    public synchronized void clear ()
+    { // let everything go (memory is short)
+        mFree.clear();
+    }
+}
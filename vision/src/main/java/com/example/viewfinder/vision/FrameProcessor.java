@@ -0,0 +1,471 @@
+// Worker thread that runs motion estimation on preview frames away from the camera and UI threads
+
+package com.example.viewfinder.vision;
+
+import java.util.concurrent.locks.LockSupport;
+
+public class FrameProcessor implements Runnable
+{	//	camera thread submits frames, worker processes the newest one, display reads the newest result.
+    //	The motion estimate always runs; the other stages run only while a consumer asks for them
+    //	(setDemand), and each stage's objects and result arrays are allocated the first time it runs.
+    public interface Listener
+    {
+        void onFrameProcessed ();   // called on the worker thread after a result is published
+        void onPreviewSizeRequested (int width, int height);  // worker thread: frames too slow or fast for this size
+        void onIdleChanged (boolean idle);  // worker thread: scene has been static for a while, or moves again
+    }
+
+    public static final int TRACK_GLOBAL = 0;  // one (u, v) from the whole frame
+    public static final int TRACK_WINDOW = 1;  // (u, v) from a window around the tracked point
+    public static final int TRACK_FEATURES = 2;    // (u, v) from tracked corners, point follows the ones near it
+    public static final int TRACK_PHASE = 3;   // one (u, v) by phase correlation of the middle of the frame
+    public static final int TRACK_BLOCKS = 4;  // (u, v) from a block matching field, point follows its block
+
+    public static final int STAGE_BACKGROUND = 1;  // change mask against the running background
+    public static final int STAGE_BLOBS = 2;   // moving regions of the change mask (runs the background model too)
+    public static final int STAGE_FLOW = 4;    // dense flow field, or the block matching field in TRACK_BLOCKS
+    public static final int STAGE_COLOR = 8;   // histograms and colour moments (and the chroma copy they need)
+    public static final int STAGE_ALL = STAGE_BACKGROUND | STAGE_BLOBS | STAGE_FLOW | STAGE_COLOR;
+
+    public static final int CONSUMER_OVERLAY = 0;  // drawn over the preview
+    public static final int CONSUMER_TELEMETRY = 1;    // numbers shown or logged
+    public static final int CONSUMER_RECORDER = 2;     // results written out
+    private static final int CONSUMERS = 3;
+
+    final int mImageWidth, mImageHeight;
+    private final Listener mListener;
+    private final TripleBuffer<byte[]> mFrames;     // NV21 frames: camera -> worker
+    private final byte[][] mFrameBuffers;   // the three slots and preLumaData, which trade places
+    private final long[] mTimestamps;       // capture time of the frame in each of mFrameBuffers
+    private final int[] mFrameStages;       // mStages when each of mFrameBuffers was filled (chroma copied or not)
+    private final FrameBufferPool mBufferPool;  // where mFrameBuffers came from and go back to, may be null
+    private final TripleBuffer<FrameResult> mResults;   // results: worker -> display
+    private volatile boolean mRunning;
+    private volatile boolean isStopped;     // stop() called: submit() ignores frames from here on
+    private final int[] mDemand = new int[CONSUMERS];  // stages each consumer asked for
+    private volatile int mStages;   // union of mDemand: what the worker runs
+    private Thread mThread;
+
+    // worker state
+    byte[] mLumaData;       // current frame (front slot of mFrames), Y plane then VU plane
+    byte[] preLumaData;     // previous processed frame, kept by reference (swapped, never copied)
+    boolean isFirstFrame = true;
+    long mFrameNumber;      // frames taken by the worker so far
+    float trackingX, trackingY;
+    TileScheduler mScheduler;   // shares whole frame kernels among the cores
+    volatile int mTrackingMode = TRACK_WINDOW;
+    volatile int mWindowRadius = 24;    // half size of tracking window (pixels)
+    PyramidalLucasKanade mFlow;     // coarse-to-fine motion estimator
+    int nPyramidLevels = 3;     // 1 gives the plain single level estimate
+    int nIterations = 2;        // refinement passes per pyramid level
+    FeatureTracker mFeatures;   // corners followed from frame to frame (TRACK_FEATURES)
+    int nMaxFeatures = 200;
+    int nFeatureRadius = 5;     // half size of each feature's window (pixels)
+    float[] mPointMotion = new float[2];    // motion of the features (or the block) at the tracked point
+    PhaseCorrelation mPhase;    // FFT based global motion (TRACK_PHASE)
+    int nPhaseSize = 64;        // side of the correlated tile, after downsampling (a power of 2)
+    BlockMatcher mBlocks;       // motion field by block matching (TRACK_BLOCKS), replaces the dense flow field
+    int nMatchBlockSize = 16;
+    int nMatchRange = 32;       // search limit (pixels per frame)
+    DenseFlow mDenseFlow;       // block-wise flow field
+    int nFlowBlockSize = 16;    // pixels per side of each flow field block
+    BackgroundModel mBackground;    // running Gaussian change detector
+    float mLearningRate = (float) 0.1;
+    float nSigma = 3;           // changed when further than this many standard deviations from mean
+    BitMask mChangeMask;        // background mask after the neighbour filter
+    int nMinNeighbours = 7;     // changed pixel survives if more than 6 of its 8 neighbours changed
+    BlobExtractor mBlobExtractor;   // moving regions of mChangeMask
+    int nMaxRuns = 4096;        // per frame work limit for blob labelling
+    int nMaxBlobs = 16;
+    int nMinBlobArea = 25;      // pixels
+    ColorStatistics mColor;     // luma and chroma histograms
+    volatile int nColorStep = 2;    // histogram uses every nColorStep'th pixel and row
+    AdaptiveController mController; // optional: decimates the pipeline when frames take too long
+    boolean canDecimate;        // the last frame's stages use the decimation level
+    MotionGate mGate;           // skips the pipeline while nothing moves
+    volatile boolean mGateEnabled = true;
+    int nStaticFrames;          // consecutive frames skipped by mGate
+    int nIdleAfterFrames = 45;  // static frames before going idle (3 s at 15 fps)
+    boolean isIdle;
+    LatencyRecorder mLatency = new LatencyRecorder();   // stage timings and frame counts
+
+    public FrameProcessor (int width, int height, int threads, Listener listener)
+    { // constructor - allocates the frame buffers, the stages wait for their first frame (threads <= 0: one per core)
+        this(width, height, threads, listener, null);
+    }
+
+    public FrameProcessor (int width, int height, int threads, Listener listener, FrameBufferPool pool)
+    { // constructor - frame buffers taken from pool (if not null), and given back by stop()
+        mImageWidth = width;
+        mImageHeight = height;
+        mListener = listener;
+        mBufferPool = pool;
+        int frameSize = width * height * 3 / 2;
+        mFrameBuffers = new byte[4][];
+        for (int k = 0; k < mFrameBuffers.length; k++)
+            mFrameBuffers[k] = pool == null ? new byte[frameSize] : pool.take(frameSize);
+        mTimestamps = new long[mFrameBuffers.length];
+        mFrameStages = new int[mFrameBuffers.length];
+        mFrames = new TripleBuffer<byte[]>(mFrameBuffers[0], mFrameBuffers[1], mFrameBuffers[2]);
+        preLumaData = mFrameBuffers[3];
+        trackingX = width / 2;
+        trackingY = height / 2;
+        mScheduler = new TileScheduler(threads);
+        mGate = new MotionGate(width, height);
+        mResults = new TripleBuffer<FrameResult>(new FrameResult(), new FrameResult(), new FrameResult());
+    }
+
+    public void start ()
+    {
+        if (mThread != null) return;
+        mRunning = true;
+        mThread = new Thread(this, "FrameProcessor");
+        mThread.start();
+    }
+
+    public void stop ()
+    { // stop worker and wait for it to finish the frame it is on; with a pool, stop the frame
+      // source first: the frame buffers go back to the pool, and submit() must not write to them
+        isStopped = true;
+        Thread thread = mThread;
+        boolean stopped = true;
+        if (thread != null) {
+            mRunning = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = false;    // worker may still be using the buffers: leave them to the GC
+            }
+            mThread = null;
+        }
+        mScheduler.shutdown();
+        if (mBufferPool != null && stopped) releaseBuffers();
+    }
+
+    private void releaseBuffers ()
+    {
+        for (int k = 0; k < mFrameBuffers.length; k++) {
+            if (mFrameBuffers[k] == null) continue;     // already given back
+            mBufferPool.give(mFrameBuffers[k]);
+            mFrameBuffers[k] = null;
+        }
+    }
+
+    public void submit (byte[] data)
+    { // camera thread: copy an NV21 frame into the back slot and publish it
+      // (only the Y plane unless colour statistics are asked for)
+        long start = System.nanoTime();
+        if (isStopped) return;
+        mLatency.nReceived++;   // only this thread writes it
+        byte[] frame = mFrames.back();
+        int stages = mStages;
+        System.arraycopy(data, 0, frame, 0, (stages & STAGE_COLOR) != 0 ? frame.length : mImageWidth * mImageHeight);
+        int slot = indexOf(frame);
+        if (slot == mFrameBuffers.length) return;     // buffers given back by stop() meanwhile
+        mTimestamps[slot] = start;
+        mFrameStages[slot] = stages;
+        publish(start);
+    }
+
+    public void submit (Frame source)
+    { // FrameSource thread: as submit(byte[]), from either plane layout, keeping the capture time
+        long start = System.nanoTime();
+        if (isStopped) return;
+        mLatency.nReceived++;
+        byte[] frame = mFrames.back();
+        int stages = mStages;
+        source.copyTo(frame, (stages & STAGE_COLOR) != 0);
+        int slot = indexOf(frame);
+        if (slot == mFrameBuffers.length) return;     // buffers given back by stop() meanwhile
+        mTimestamps[slot] = source.mTimestamp;
+        mFrameStages[slot] = stages;
+        publish(start);
+    }
+
+    private void publish (long start)
+    {
+        mFrames.publish();  // also publishes the timestamp and stages written before it
+        Thread thread = mThread;
+        if (thread != null) LockSupport.unpark(thread);
+        mLatency.record(LatencyRecorder.COPY, start);
+    }
+
+    private int indexOf (byte[] buffer)
+    { // which of mFrameBuffers (each one keeps its timestamp wherever it is swapped to)
+        int k = 0;
+        while (k < mFrameBuffers.length && mFrameBuffers[k] != buffer) k++;
+        return k;   // mFrameBuffers.length if it is not there (any more)
+    }
+
+    public void setTrackingMode (int mode, int windowRadius)
+    { // may be called from any thread, takes effect on the next frame
+        mWindowRadius = windowRadius;
+        mTrackingMode = mode;
+    }
+
+    public void setDemand (int consumer, int stages)
+    { // may be called from any thread, takes effect on the next frame; 0 withdraws the consumer
+        synchronized (mDemand) {
+            mDemand[consumer] = stages;
+            int union = 0;
+            for (int demand : mDemand) union |= demand;
+            mStages = union;
+        }
+    }
+
+    public void setMotionGateEnabled (boolean enabled)
+    {
+        mGateEnabled = enabled;
+    }
+
+    public void setColorSubsampling (int step)
+    { // histograms use every step'th pixel and row
+        nColorStep = step;
+    }
+
+    public void setController (AdaptiveController controller)
+    { // set before start()
+        mController = controller;
+    }
+
+    public void setLatencyRecorder (LatencyRecorder latency)
+    { // set before start(), to keep one record across pipelines (the app makes a new one per preview size)
+        mLatency = latency;
+    }
+
+    public LatencyRecorder latencyRecorder ()
+    {
+        return mLatency;
+    }
+
+    public FrameResult latestResult ()
+    { // display thread: newest published result (may be the same as last time)
+        mResults.poll();
+        return mResults.front();
+    }
+
+    @Override
+    public void run ()
+    {
+        while (mRunning) {
+            if (!mFrames.poll()) {  // nothing new: sleep until the camera hands over a frame
+                LockSupport.park(this);
+                continue;
+            }
+            step();
+        }
+    }
+
+    public boolean process (byte[] data)
+    { // headless use, instead of start(): run one frame through the pipeline on the calling thread,
+      // returns false if the motion gate skipped it (latestResult() then has the last published result)
+        submit(data);
+        mFrames.poll();
+        return step();
+    }
+
+    private boolean step ()
+    { // the frame in the front slot of mFrames
+        mLumaData = mFrames.front();
+        mFrameNumber++;
+        long start = System.nanoTime();
+        boolean processed = processFrame();
+        if (processed) {
+            mLatency.record(LatencyRecorder.FRAME, start);
+            mLatency.nProcessed++;
+        }
+        else mLatency.nSkipped++;
+        if (processed && mController != null) {   // skipped frames would make the load look low
+            int change = mController.onFrameProcessed(System.nanoTime() - start, canDecimate);
+            if (change == AdaptiveController.RESIZE && mListener != null)
+                mListener.onPreviewSizeRequested(mController.requestedWidth, mController.requestedHeight);
+        }
+        // keep this frame as the previous one, and give the old previous back to the camera;
+        // a skipped frame is not kept, so slow changes add up against the last processed one
+        if (processed) preLumaData = mFrames.exchangeFront(preLumaData);
+        return processed;
+    }
+
+    boolean processFrame ()
+    { // returns false if the frame was skipped because nothing moved
+        long start;
+        if (!isFirstFrame && mGateEnabled) {
+            start = System.nanoTime();
+            boolean moving = mGate.isMoving(mLumaData, preLumaData);
+            mLatency.record(LatencyRecorder.GATE, start);
+            if (!moving) {
+                onStaticFrame();
+                return false;
+            }
+        }
+        if (nStaticFrames > 0) onMotion();
+        int decimation = mController == null ? 0 : mController.decimation();
+        int stages = mFrameStages[indexOf(mLumaData)];  // as when the frame was copied: chroma is there only if colour was asked for then
+        boolean blobs = (stages & STAGE_BLOBS) != 0;
+        boolean background = blobs || (stages & STAGE_BACKGROUND) != 0;
+        if (background) {
+            start = System.nanoTime();
+            if (mBackground == null) {
+                mBackground = new BackgroundModel(mImageWidth, mImageHeight, mLearningRate, nSigma, mScheduler);
+                mChangeMask = new BitMask(mImageWidth, mImageHeight);
+            }
+            mBackground.update(mLumaData);
+            mBackground.mMask.filterNeighbours(mChangeMask, nMinNeighbours);  // drop isolated pixels
+            if (blobs) {
+                if (mBlobExtractor == null) mBlobExtractor = new BlobExtractor(nMaxRuns, nMaxBlobs, nMinBlobArea);
+                mBlobExtractor.extract(mChangeMask);
+            }
+            mLatency.record(LatencyRecorder.BACKGROUND, start);
+        }
+        else if (mBackground != null) mBackground.reset();     // relearn when asked for again
+        if (isFirstFrame) {
+            isFirstFrame = false;
+            return true;
+        }
+        start = System.nanoTime();
+        int mode = mTrackingMode;
+        float u, v, pointU, pointV;
+        // block matching and phase correlation have no cheaper level: only the colour statistics would gain
+        canDecimate = (mode != TRACK_BLOCKS && mode != TRACK_PHASE) || (stages & STAGE_COLOR) != 0;
+        if (mode != TRACK_PHASE && mPhase != null) mPhase.reset();
+        if (mode != TRACK_BLOCKS && mBlocks != null) mBlocks.reset();
+        if (mode != TRACK_FEATURES && mFeatures != null) mFeatures.reset();
+        if (mode != TRACK_GLOBAL && mode != TRACK_WINDOW && mFlow != null) mFlow.reset();
+        if (mode == TRACK_FEATURES) {  // background motion from all features, the point's from those around it
+            if (mFeatures == null)
+                mFeatures = new FeatureTracker(mImageWidth, mImageHeight, nMaxFeatures, nFeatureRadius, nPyramidLevels, mScheduler);
+            mFeatures.setFinestLevel(decimation);
+            mFeatures.track(mLumaData, preLumaData);
+            u = pointU = mFeatures.u;
+            v = pointV = mFeatures.v;
+            if (mFeatures.motionNear(trackingX, trackingY, featureRadius(), mPointMotion)) {
+                pointU = mPointMotion[0];
+                pointV = mPointMotion[1];
+            }
+        } else if (mode == TRACK_BLOCKS) {  // the point moves with its block, or with the median if that has no vector
+            if (mBlocks == null) mBlocks = new BlockMatcher(mImageWidth, mImageHeight, nMatchBlockSize, nMatchRange, mScheduler);
+            mBlocks.estimate(mLumaData, preLumaData);
+            u = pointU = mBlocks.u;
+            v = pointV = mBlocks.v;
+            if (mBlocks.motionAt(trackingX, trackingY, mPointMotion)) {
+                pointU = mPointMotion[0];
+                pointV = mPointMotion[1];
+            }
+        } else if (mode == TRACK_PHASE) {  // no motion when the correlation peak is too weak to trust
+            if (mPhase == null) mPhase = new PhaseCorrelation(mImageWidth, mImageHeight, nPhaseSize);
+            mPhase.estimate(mLumaData, preLumaData);
+            u = pointU = mPhase.u;
+            v = pointV = mPhase.v;
+        } else {
+            if (mFlow == null) mFlow = new PyramidalLucasKanade(mImageWidth, mImageHeight, nPyramidLevels, nIterations, mScheduler);
+            mFlow.setFinestLevel(decimation);
+            if (mode == TRACK_WINDOW)
+                mFlow.estimateWindow(mLumaData, preLumaData, trackingX, trackingY, mWindowRadius);
+            else
+                mFlow.estimateGlobal(mLumaData, preLumaData);
+            u = pointU = mFlow.u;
+            v = pointV = mFlow.v;
+        }
+        mLatency.record(LatencyRecorder.MOTION, start);
+
+        // follow the motion, but hold the point at the image border rather than jumping back to the centre
+        trackingX = Math.max(0, Math.min(mImageWidth - 1, trackingX + pointU));
+        trackingY = Math.max(0, Math.min(mImageHeight - 1, trackingY + pointV));
+
+        FrameResult result = mResults.back();
+        result.valid = true;
+        result.isStatic = false;
+        result.isIdle = false;
+        result.frameNumber = mFrameNumber;
+        result.timestamp = mTimestamps[indexOf(mLumaData)];
+        result.u = u;
+        result.v = v;
+        result.trackingX = trackingX;
+        result.trackingY = trackingY;
+        result.windowRadius = windowRadius(mode);
+        result.setFeatures(mode == TRACK_FEATURES ? mFeatures : null);
+        result.confidence = mode == TRACK_PHASE ? mPhase.confidence : 0;
+        result.hasChangeMask = background;
+        result.changedPixels = background ? mChangeMask.count() : 0;
+        if (background) result.setChangeMask(mChangeMask);
+        if (blobs) result.setBlobs(mBlobExtractor);
+        else result.nBlobs = 0;
+        result.hasFlowField = (stages & STAGE_FLOW) != 0;
+        if (result.hasFlowField) {
+            start = System.nanoTime();
+            if (mode == TRACK_BLOCKS) result.setFlowField(mBlocks);    // already there
+            else {
+                if (mDenseFlow == null) mDenseFlow = new DenseFlow(mImageWidth, mImageHeight, nFlowBlockSize, mScheduler);
+                result.setFlowGrid(mDenseFlow.mGridWidth, mDenseFlow.mGridHeight, mDenseFlow.mBlockSize);
+                mDenseFlow.compute(mLumaData, preLumaData, result.flowU, result.flowV);
+            }
+            mLatency.record(LatencyRecorder.DENSE_FLOW, start);
+        }
+        result.hasColorStatistics = (stages & STAGE_COLOR) != 0;
+        if (result.hasColorStatistics) {
+            start = System.nanoTime();
+            if (mColor == null) mColor = new ColorStatistics(mImageWidth, mImageHeight, mScheduler);
+            mColor.setSubsampling(nColorStep << decimation);
+            mColor.compute(mLumaData, true);
+            result.setColorStatistics(mColor);
+            mLatency.record(LatencyRecorder.COLOR, start);
+        }
+        mResults.publish();
+        mLatency.recordFirstResult();
+        if (mListener != null) mListener.onFrameProcessed();
+        return true;
+    }
+
+    private int windowRadius (int mode)
+    { // what the display draws around the tracked point, 0 for the global modes
+        if (mode == TRACK_GLOBAL || mode == TRACK_PHASE) return 0;
+        if (mode == TRACK_BLOCKS) return nMatchBlockSize / 2;
+        return mode == TRACK_FEATURES ? featureRadius() : mWindowRadius;
+    }
+
+    private int featureRadius ()
+    { // features within this distance move the tracked point (a window holds too few of them)
+        return 2 * mWindowRadius;
+    }
+
+    private void onStaticFrame ()
+    { // publish a result only when the state changes, so the display is not redrawn for nothing
+        nStaticFrames++;
+        if (nStaticFrames == nIdleAfterFrames) {
+            isIdle = true;
+            if (mListener != null) mListener.onIdleChanged(true);
+        }
+        else if (nStaticFrames != 1) return;
+        FrameResult result = mResults.back();
+        result.valid = true;
+        result.isStatic = true;
+        result.isIdle = isIdle;
+        result.frameNumber = mFrameNumber;
+        result.timestamp = mTimestamps[indexOf(mLumaData)];
+        result.u = 0;
+        result.v = 0;
+        result.trackingX = trackingX;
+        result.trackingY = trackingY;
+        result.windowRadius = windowRadius(mTrackingMode);
+        result.nFeatures = 0;
+        result.confidence = 0;
+        result.hasChangeMask = false;
+        result.changedPixels = 0;
+        result.nBlobs = 0;
+        result.hasFlowField = false;
+        result.hasColorStatistics = false;
+        mResults.publish();
+        if (mListener != null) mListener.onFrameProcessed();
+    }
+
+    private void onMotion ()
+    {
+        nStaticFrames = 0;
+        if (isIdle) {
+            isIdle = false;
+            if (mListener != null) mListener.onIdleChanged(false);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+// Results of processing one preview frame, as handed from the processing worker to the display
+
+package com.example.viewfinder.vision;
+
+public class FrameResult
+{	//	instances are preallocated and recycled through a TripleBuffer, never created per frame;
+    //	the arrays of each stage are allocated the first time that stage fills them, so stages
+    //	nothing asks for cost no memory
+    public boolean valid;       // false until a frame pair has been processed
+    public long frameNumber;    // sequence number of the frame these results belong to
+    public long timestamp;      // capture time of that frame, as given by the FrameSource
+    public float u, v;          // global image motion (pixels per frame)
+    public float trackingX;     // tracked point, in preview image coordinates
+    public float trackingY;
+    public int windowRadius;    // half size of the window used for tracking, 0 if global
+    public int nFeatures;       // corners tracked into this frame (TRACK_FEATURES only)
+    public float[] featureX, featureY;  // where they are now
+    public float[] featureU, featureV;  // how far they moved since the last frame
+    public float confidence;    // phase correlation peak height, 0..1 (TRACK_PHASE only)
+    public boolean isStatic;    // nothing moved: the pipeline was skipped and only u, v (zero) are set
+    public boolean isIdle;      // static for long enough that the frame rate has been lowered
+
+    public boolean hasChangeMask;   // background model was run
+    public int changedPixels;       // pixels that differ from the background
+    public long[] changeMask;       // packed as in BitMask
+    public int maskWordsPerRow;
+    public BlobExtractor.Blob[] blobs;  // moving regions, largest first
+    public int nBlobs;
+
+    // dense flow field (or block matching field), one vector per block (NaN where no estimate), row by row
+    public boolean hasFlowField;
+    public int flowBlockSize;
+    public int flowGridWidth, flowGridHeight;
+    public float[] flowU, flowV;
+
+    // colour statistics from the YUV planes
+    public boolean hasColorStatistics;
+    public int[] lumaHistogram, uHistogram, vHistogram;
+    public int nLumaSamples, nChromaSamples;
+    public float lumaMean, lumaStdDev;
+    public float uMean, uStdDev, vMean, vStdDev;
+
+    void setChangeMask (BitMask mask)
+    {
+        if (changeMask == null) {
+            maskWordsPerRow = mask.mWordsPerRow;
+            changeMask = new long[mask.mWords.length];
+        }
+        System.arraycopy(mask.mWords, 0, changeMask, 0, changeMask.length);
+    }
+
+    void setBlobs (BlobExtractor extractor)
+    {
+        nBlobs = extractor.nBlobs;
+        if (blobs == null) {
+            blobs = new BlobExtractor.Blob[extractor.mBlobs.length];
+            for (int k = 0; k < blobs.length; k++) blobs[k] = new BlobExtractor.Blob();
+        }
+        for (int k = 0; k < nBlobs; k++) blobs[k].set(extractor.mBlobs[k]);
+    }
+
+    void setFeatures (FeatureTracker tracker)
+    { // those tracked from the last frame (not the ones just detected), or none if tracker is null
+        nFeatures = tracker == null ? 0 : tracker.nTracked;
+        if (nFeatures == 0) return;
+        if (featureX == null) {
+            int maxFeatures = tracker.mX.length;
+            featureX = new float[maxFeatures];
+            featureY = new float[maxFeatures];
+            featureU = new float[maxFeatures];
+            featureV = new float[maxFeatures];
+        }
+        System.arraycopy(tracker.mX, 0, featureX, 0, nFeatures);
+        System.arraycopy(tracker.mY, 0, featureY, 0, nFeatures);
+        System.arraycopy(tracker.mDx, 0, featureU, 0, nFeatures);
+        System.arraycopy(tracker.mDy, 0, featureV, 0, nFeatures);
+    }
+
+    void setColorStatistics (ColorStatistics stats)
+    {
+        if (lumaHistogram == null) {
+            lumaHistogram = new int[256];
+            uHistogram = new int[256];
+            vHistogram = new int[256];
+        }
+        System.arraycopy(stats.mLumaHistogram, 0, lumaHistogram, 0, 256);
+        System.arraycopy(stats.mUHistogram, 0, uHistogram, 0, 256);
+        System.arraycopy(stats.mVHistogram, 0, vHistogram, 0, 256);
+        nLumaSamples = stats.nLumaSamples;
+        nChromaSamples = stats.nChromaSamples;
+        lumaMean = stats.mLumaMean;
+        lumaStdDev = stats.mLumaStdDev;
+        uMean = stats.mUMean;
+        uStdDev = stats.mUStdDev;
+        vMean = stats.mVMean;
+        vStdDev = stats.mVStdDev;
+    }
+
+    void setFlowGrid (int gridWidth, int gridHeight, int blockSize)
+    { // the grid depends on which estimator made the field; grows the arrays to fit it
+        flowGridWidth = gridWidth;
+        flowGridHeight = gridHeight;
+        flowBlockSize = blockSize;
+        if (flowU == null || flowU.length < gridWidth * gridHeight) {
+            flowU = new float[gridWidth * gridHeight];
+            flowV = new float[gridWidth * gridHeight];
+        }
+    }
+
+    void setFlowField (BlockMatcher matcher)
+    {
+        setFlowGrid(matcher.mGridWidth, matcher.mGridHeight, matcher.mBlockSize);
+        System.arraycopy(matcher.mU, 0, flowU, 0, matcher.mU.length);
+        System.arraycopy(matcher.mV, 0, flowV, 0, matcher.mV.length);
+    }
+}
@@ -0,0 +1,17 @@
+// Anything that delivers camera frames to the pipeline: Camera1, Camera2 or a recording
+
+package com.example.viewfinder.vision;
+
+public interface FrameSource
+{	//	frames arrive on a thread of the source's choosing; the Frame and its buffers belong to
+    //	the source and are only valid during onFrame, so a sink copies what it wants to keep
+    interface Sink
+    {
+        void onFrame (Frame frame);
+    }
+
+    int width ();
+    int height ();
+    void start (Sink sink);     // frames flow to sink from now on
+    void stop ();               // no more onFrame calls once this returns
+}
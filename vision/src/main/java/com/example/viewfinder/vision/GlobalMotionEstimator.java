@@ -0,0 +1,11 @@
+// Anything that estimates one (u, v) translation between two luma frames of a fixed size
+
+package com.example.viewfinder.vision;
+
+public interface GlobalMotionEstimator
+{	//	implementations allocate for their frame size up front and keep whatever state they like
+    //	between calls (pyramids, predictions), so frames should be passed in sequence
+    boolean estimate (byte[] pixels, byte[] prePixels);  // false if there was no usable estimate
+    float motionX ();           // pixels per frame, positive when the scene moves right
+    float motionY ();           // positive when the scene moves down
+}
@@ -0,0 +1,157 @@
+// Per-pixel colour kernels (YUV decoding, histograms), run in parallel strips
+
+package com.example.viewfinder.vision;
+
+public class ImageKernels
+{	//	each kernel has a row-range version, so the same code runs serially or split by a TileScheduler
+    private final TileScheduler mScheduler;     // may be null (serial)
+    private final int[] mPartialHistograms;     // red, green, blue (256 bins each) per tile
+    // arguments of the job being run
+    private int[] mJobRGB;
+    private byte[] mJobYUV;
+    private int mJobWidth, mJobHeight;
+    private int mJobStep;       // histogram sampling step, or downscale factor
+    private int mJobLeft, mJobTop, mJobRegionWidth;
+    private final TileScheduler.Kernel mDecodeKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            YuvConverter.decodeRegion(mJobYUV, mJobWidth, mJobHeight, 0, 0, mJobWidth, mJobRGB, mJobWidth,
+                    rowStart, rowEnd);
+        }
+    };
+    private final TileScheduler.Kernel mGrayscaleKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            YuvConverter.decodeGrayscale(mJobYUV, mJobWidth, 0, 0, mJobWidth, mJobRGB, mJobWidth, rowStart, rowEnd);
+        }
+    };
+    private final TileScheduler.Kernel mRegionKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            YuvConverter.decodeRegion(mJobYUV, mJobWidth, mJobHeight, mJobLeft, mJobTop, mJobRegionWidth,
+                    mJobRGB, mJobRegionWidth, rowStart, rowEnd);
+        }
+    };
+    private final TileScheduler.Kernel mDownscaleKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            YuvConverter.decodeDownscaled(mJobYUV, mJobWidth, mJobHeight, mJobStep, mJobRGB, rowStart, rowEnd);
+        }
+    };
+    private final TileScheduler.Kernel mHistogramKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            histogramRows(mJobRGB, mJobWidth, rowStart, rowEnd, mJobStep, mPartialHistograms, tile * 768);
+        }
+    };
+
+    public ImageKernels (TileScheduler scheduler)
+    { // constructor
+        mScheduler = scheduler;
+        mPartialHistograms = new int[(scheduler == null ? 1 : scheduler.nTiles) * 768];
+    }
+
+    public void decodeYUV420SP (int[] rgb, byte[] yuv420sp, int width, int height)
+    { // convert image in YUV420SP format to RGB format
+        if (mScheduler == null) {
+            YuvConverter.decode(yuv420sp, width, height, rgb);
+            return;
+        }
+        setJob(rgb, yuv420sp, width, height);
+        mScheduler.run(mDecodeKernel, height);
+        setJob(null, null, 0, 0);
+    }
+
+    public void decodeYUV420SPGrayscale (int[] rgb, byte[] yuv420sp, int width, int height)
+    { // extract grey RGB format image
+        if (mScheduler == null) {
+            YuvConverter.decodeGrayscale(yuv420sp, width, 0, 0, width, rgb, width, 0, height);
+            return;
+        }
+        setJob(rgb, yuv420sp, width, height);
+        mScheduler.run(mGrayscaleKernel, height);
+        setJob(null, null, 0, 0);
+    }
+
+    public void decodeYUV420SPRegion (int[] rgb, byte[] yuv420sp, int width, int height,
+                                      int left, int top, int regionWidth, int regionHeight)
+    { // convert only a window of the frame; rgb is regionWidth x regionHeight
+        if (mScheduler == null) {
+            YuvConverter.decodeRegion(yuv420sp, width, height, left, top, regionWidth,
+                    rgb, regionWidth, 0, regionHeight);
+            return;
+        }
+        setJob(rgb, yuv420sp, width, height);
+        mJobLeft = left;
+        mJobTop = top;
+        mJobRegionWidth = regionWidth;
+        mScheduler.run(mRegionKernel, regionHeight);
+        setJob(null, null, 0, 0);
+    }
+
+    public void decodeYUV420SPDownscaled (int[] rgb, byte[] yuv420sp, int width, int height, int factor)
+    { // convert at 1/factor size (factor a power of 2); rgb is (width/factor) x (height/factor)
+        YuvConverter.checkDownscaleFactor(factor);     // here, not in the worker threads
+        if (mScheduler == null) {
+            YuvConverter.decodeDownscaled(yuv420sp, width, height, factor, rgb, 0, height / factor);
+            return;
+        }
+        setJob(rgb, yuv420sp, width, height);
+        mJobStep = factor;
+        mScheduler.run(mDownscaleKernel, height / factor);
+        setJob(null, null, 0, 0);
+    }
+
+    // This is where we finally actually do some "image processing"!
+
+    public void calculateIntensityHistograms (int[] rgb, int[] redHistogram, int[] greenHistogram, int[] blueHistogram,
+                                              int width, int height, int dpix)
+    { // histograms of every dpix'th pixel, accumulated per tile and then merged
+        int nTiles = mPartialHistograms.length / 768;
+        if (mScheduler == null) histogramRows(rgb, width, 0, height, dpix, mPartialHistograms, 0);
+        else {
+            setJob(rgb, null, width, height);
+            mJobStep = dpix;
+            mScheduler.run(mHistogramKernel, height);
+            setJob(null, null, 0, 0);
+        }
+        for (int bin = 0; bin < 256; bin++) { // merge the partial histograms
+            int red = 0, green = 0, blue = 0;
+            for (int k = bin; k < nTiles * 768; k += 768) {
+                red += mPartialHistograms[k];
+                green += mPartialHistograms[k + 256];
+                blue += mPartialHistograms[k + 512];
+            }
+            redHistogram[bin] = red;
+            greenHistogram[bin] = green;
+            blueHistogram[bin] = blue;
+        }
+    }
+
+    private void setJob (int[] rgb, byte[] yuv, int width, int height)
+    {
+        mJobRGB = rgb;
+        mJobYUV = yuv;
+        mJobWidth = width;
+        mJobHeight = height;
+    }
+
+    static void histogramRows (int[] rgb, int width, int row0, int row1, int dpix, int[] histograms, int offset)
+    { // red, green and blue histograms of rows [row0,row1) into histograms[offset..offset+767]
+        int red, green, blue, bin, pixVal;
+        for (bin = offset; bin < offset + 768; bin++) histograms[bin] = 0;  // reset the histograms
+        int first = row0 * width;
+        first += (dpix - first % dpix) % dpix;  // keep the same sampling grid as a single pass
+        for (int pix = first; pix < row1 * width; pix += dpix) {
+            pixVal = rgb[pix];
+            blue = pixVal & 0xFF;
+            histograms[offset + 512 + blue]++;
+            pixVal = pixVal >> 8;
+            green = pixVal & 0xFF;
+            histograms[offset + 256 + green]++;
+            pixVal = pixVal >> 8;
+            red = pixVal & 0xFF;
+            histograms[offset + red]++;
+        }
+    }
+}
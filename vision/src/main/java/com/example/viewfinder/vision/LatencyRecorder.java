@@ -0,0 +1,129 @@
+// Per-stage timings of the frame pipeline in preallocated rings, with percentiles and frame counters
+
+package com.example.viewfinder.vision;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+public class LatencyRecorder
+{	//	Recording is one array store and an index increment: nothing is allocated, logged or locked,
+    //	so it can stay on in release builds. Each stage has a single writing thread (camera, worker
+    //	or display); durations are kept as int nanoseconds, whose stores are atomic on every VM,
+    //	so a reader at worst sees a sample that is one frame old. Percentiles are computed by the
+    //	reader over the last SAMPLES durations of a stage, in a scratch array it owns.
+    //	reset() may be called while the other threads keep recording, so it writes nothing they
+    //	write: it notes where each ring and counter stands, and the readers count from there.
+    public static final int COPY = 0;           // onPreviewFrame: hand the frame to the worker
+    public static final int GATE = 1;           // motion gate
+    public static final int BACKGROUND = 2;     // background model, neighbour filter, blobs
+    public static final int MOTION = 3;         // pyramid build, gradients and solve
+    public static final int DENSE_FLOW = 4;
+    public static final int COLOR = 5;          // histograms and moments
+    public static final int FRAME = 6;          // whole processFrame
+    public static final int DRAW = 7;           // DrawOnTop.onDraw
+    public static final int STAGES = 8;
+    public static final String[] NAMES = {"copy", "gate", "background", "motion", "dense flow", "color", "frame", "draw"};
+
+    static final int SAMPLES = 256;     // per stage, a power of 2
+
+    private final int[][] mDurations = new int[STAGES][SAMPLES];
+    private final int[] mNext = new int[STAGES];    // total samples recorded per stage
+    private final int[] mFirst = new int[STAGES];   // mNext at the last reset(): earlier samples do not count
+    private final int[] mScratch = new int[SAMPLES];
+    // totals since construction, each written by one thread only; read them through received() etc.
+    public volatile long nReceived;     // frames delivered by the camera
+    public volatile long nProcessed;    // frames that went through the pipeline
+    public volatile long nSkipped;      // frames stopped by the motion gate
+    private volatile long mReceivedBase, mProcessedBase, mSkippedBase;  // the totals at the last reset()
+    public volatile long nFirstResultNanos = -1;    // from markStart() to the first published result, -1 until then
+    private volatile long mStartNanos;  // when markStart() was called, 0 if it was not
+
+    public void record (int stage, long startNanos)
+    { // duration from startNanos until now
+        long nanos = System.nanoTime() - startNanos;
+        int next = mNext[stage];
+        mDurations[stage][next & (SAMPLES - 1)] = nanos > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) nanos;
+        mNext[stage] = next + 1;
+    }
+
+    public synchronized void markStart ()
+    { // the app is starting or resuming: time from here to the first result
+        nFirstResultNanos = -1;
+        mStartNanos = System.nanoTime();
+    }
+
+    public void recordFirstResult ()
+    { // worker thread, each result: only the first one after markStart() counts (locks only for that one)
+        if (nFirstResultNanos >= 0 || mStartNanos == 0) return;
+        synchronized (this) {
+            if (nFirstResultNanos < 0 && mStartNanos != 0) nFirstResultNanos = System.nanoTime() - mStartNanos;
+        }
+    }
+
+    public long received ()
+    { // since the last reset()
+        return nReceived - mReceivedBase;
+    }
+
+    public long processed ()
+    {
+        return nProcessed - mProcessedBase;
+    }
+
+    public long skipped ()
+    {
+        return nSkipped - mSkippedBase;
+    }
+
+    public long dropped ()
+    { // frames overwritten in the hand-over before the worker got to them
+        return Math.max(0, received() - processed() - skipped());
+    }
+
+    public synchronized void reset ()
+    { // start counting afresh; any thread, while the others keep recording
+        for (int stage = 0; stage < STAGES; stage++) mFirst[stage] = mNext[stage];
+        mReceivedBase = nReceived;
+        mProcessedBase = nProcessed;
+        mSkippedBase = nSkipped;
+        nFirstResultNanos = -1;
+        mStartNanos = 0;
+    }
+
+    public synchronized int percentiles (int stage, float[] percents, long[] nanos)
+    { // nanos[k] = percents[k] percentile of the recent durations of the stage; returns sample count
+        int next = mNext[stage], count = Math.min(next - mFirst[stage], SAMPLES);   // since the last reset()
+        for (int k = 0; k < count; k++) mScratch[k] = mDurations[stage][(next - count + k) & (SAMPLES - 1)];
+        Arrays.sort(mScratch, 0, count);
+        for (int k = 0; k < percents.length; k++)
+            nanos[k] = count == 0 ? 0 : mScratch[Math.min(count - 1, (int) (percents[k] / 100 * count))];
+        return count;
+    }
+
+    public synchronized void dump (PrintWriter out)
+    { // summary table, then the raw recent durations of every stage (oldest first)
+        summary(out);
+        out.println("stage,nanos");
+        for (int stage = 0; stage < STAGES; stage++) {
+            int next = mNext[stage], count = Math.min(next - mFirst[stage], SAMPLES);
+            for (int k = next - count; k < next; k++)
+                out.println(NAMES[stage] + "," + mDurations[stage][k & (SAMPLES - 1)]);
+        }
+        out.flush();
+    }
+
+    public synchronized void summary (PrintWriter out)
+    { // frame counts and the percentiles of every stage (microseconds)
+        float[] percents = {50, 95, 99};
+        long[] nanos = new long[3];
+        out.println("frames received " + received() + " processed " + processed() + " skipped " + skipped()
+                + " dropped " + dropped());
+        if (nFirstResultNanos >= 0) out.println("first result after start " + nFirstResultNanos / 1000 + " us");
+        out.println("stage,samples,p50_us,p95_us,p99_us");
+        for (int stage = 0; stage < STAGES; stage++) {
+            int count = percentiles(stage, percents, nanos);
+            out.println(NAMES[stage] + "," + count + "," + nanos[0] / 1000 + "," + nanos[1] / 1000 + "," + nanos[2] / 1000);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,159 @@
+// Lucas-Kanade motion estimate between two luma frames, computed in a single fused pass
+
+package com.example.viewfinder.vision;
+
+public class LucasKanade
+{	//	gradients are formed on the fly and only the five products are kept, so nothing is allocated per frame
+    public float u, v;      // most recent motion estimate (pixels per frame)
+    public double delta;    // determinant of the 2x2 system for that estimate
+
+    static final int MIN_GRADIENT = 4;  // about one grey level per pixel, in the undivided (4x) gradient units
+
+    // Sums of gradient products ExEx, EyEy, ExEy, ExEt, EyEt.
+    // Gradients are kept as the undivided sum of eight pixels (i.e. 4x the
+    // average used originally); the common scale cancels in the solution.
+    long sumXX, sumYY, sumXY, sumXT, sumYT;
+    private final long[] mSums = new long[5];
+
+    // optional parallel execution of the whole frame estimate
+    private final TileScheduler mScheduler;
+    private final long[] mPartials;     // five sums per tile
+    private byte[] mJobPixels, mJobPrePixels;
+    private int mJobWidth;
+    private final TileScheduler.Kernel mKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            accumulateRows(mJobPixels, mJobPrePixels, mJobWidth, 0, mJobWidth - 1, rowStart, rowEnd, mPartials, tile * 5);
+        }
+    };
+
+    public LucasKanade ()
+    {
+        this(null);
+    }
+
+    public LucasKanade (TileScheduler scheduler)
+    { // constructor - with a scheduler, whole frame estimates are split over its threads
+        mScheduler = scheduler;
+        mPartials = scheduler == null ? null : new long[scheduler.nTiles * 5];
+    }
+
+    public boolean estimateGlobal (byte[] pixels, byte[] prePixels, int width, int height)
+    { // one (u, v) for the whole frame, returns false if the system is singular
+        if (mScheduler == null) {
+            accumulate(pixels, prePixels, width, 0, 0, width - 1, height - 1);
+            return solve((long) (width - 1) * (height - 1));
+        }
+        mJobPixels = pixels;
+        mJobPrePixels = prePixels;
+        mJobWidth = width;
+        mScheduler.run(mKernel, height - 1);
+        mJobPixels = null;
+        mJobPrePixels = null;
+        long xx = 0, yy = 0, xy = 0, xt = 0, yt = 0;
+        for (int k = 0; k < mPartials.length; k += 5) {  // merge per tile sums
+            xx += mPartials[k];
+            yy += mPartials[k + 1];
+            xy += mPartials[k + 2];
+            xt += mPartials[k + 3];
+            yt += mPartials[k + 4];
+        }
+        sumXX = xx;
+        sumYY = yy;
+        sumXY = xy;
+        sumXT = xt;
+        sumYT = yt;
+        return solve((long) (width - 1) * (height - 1));
+    }
+
+    public boolean estimateWindow (byte[] pixels, byte[] prePixels, int width, int height,
+                                   float centreX, float centreY, int radius)
+    { // (u, v) from a (2*radius) square window around a point; near the border the window
+      // is shifted inwards so it keeps its size (and its reliability) instead of shrinking
+        int x0 = windowStart(Math.round(centreX) - radius, 2 * radius, width - 1);
+        int y0 = windowStart(Math.round(centreY) - radius, 2 * radius, height - 1);
+        int x1 = Math.min(x0 + 2 * radius, width - 1);
+        int y1 = Math.min(y0 + 2 * radius, height - 1);
+        accumulate(pixels, prePixels, width, x0, y0, x1, y1);
+        return solve((long) (x1 - x0) * (y1 - y0));
+    }
+
+    static int windowStart (int start, int size, int limit)
+    { // clamp a window start so that [start, start+size) lies within [0, limit) where possible
+        if (start + size > limit) start = limit - size;
+        if (start < 0) start = 0;
+        return start;
+    }
+
+    void accumulate (byte[] pixels, byte[] prePixels, int width, int x0, int y0, int x1, int y1)
+    { // sum gradient products over the 2x2 cells whose top left corner lies in [x0,x1) x [y0,y1)
+        accumulateRows(pixels, prePixels, width, x0, x1, y0, y1, mSums, 0);
+        sumXX = mSums[0];
+        sumYY = mSums[1];
+        sumXY = mSums[2];
+        sumXT = mSums[3];
+        sumYT = mSums[4];
+    }
+
+    static void accumulateRows (byte[] pixels, byte[] prePixels, int width, int x0, int x1, int y0, int y1,
+                                long[] sums, int offset)
+    { // the fused kernel: ExEx, EyEy, ExEy, ExEt, EyEt over [x0,x1) x [y0,y1) into sums[offset..offset+4]
+        long xx = 0, yy = 0, xy = 0, xt = 0, yt = 0;
+        for (int y = y0; y < y1; y++) {
+            int top = width * y + x0;
+            int bot = top + width;
+            // per column: sum of all four samples, vertical and temporal differences
+            int pT = prePixels[top] & 0xFF, pB = prePixels[bot] & 0xFF;
+            int cT = pixels[top] & 0xFF, cB = pixels[bot] & 0xFF;
+            int colL = pT + pB + cT + cB;
+            int vertL = pB + cB - pT - cT;
+            int tempL = cT + cB - pT - pB;
+            for (int x = x0; x < x1; x++) {
+                top++;
+                bot++;
+                pT = prePixels[top] & 0xFF;
+                pB = prePixels[bot] & 0xFF;
+                cT = pixels[top] & 0xFF;
+                cB = pixels[bot] & 0xFF;
+                int colR = pT + pB + cT + cB;
+                int vertR = pB + cB - pT - cT;
+                int tempR = cT + cB - pT - pB;
+
+                int ex = colR - colL;
+                int ey = vertL + vertR;
+                int et = tempL + tempR;
+                xx += ex * ex;
+                yy += ey * ey;
+                xy += ex * ey;
+                xt += ex * et;
+                yt += ey * et;
+
+                colL = colR;
+                vertL = vertR;
+                tempL = tempR;
+            }
+        }
+        sums[offset] = xx;
+        sums[offset + 1] = yy;
+        sums[offset + 2] = xy;
+        sums[offset + 3] = xt;
+        sums[offset + 4] = yt;
+    }
+
+    boolean solve (long cells)
+    { // solve the 2x2 normal equations from the sums over this many cells
+        double xx = sumXX, yy = sumYY, xy = sumXY, xt = sumXT, yt = sumYT;
+        delta = xx * yy - xy * xy;
+        // smaller eigenvalue of the gradient matrix: half of what MIN_GRADIENT in every direction gives
+        double half = 0.5 * (xx + yy);
+        double eigen = half - Math.sqrt(Math.max(0, half * half - delta));
+        if (eigen < 0.5 * MIN_GRADIENT * MIN_GRADIENT * cells) {  // no texture, or a single edge: report no motion
+            u = 0;
+            v = 0;
+            return false;
+        }
+        u = (float) ((xy * yt - yy * xt) / delta);
+        v = (float) ((xy * xt - xx * yt) / delta);
+        return true;
+    }
+}
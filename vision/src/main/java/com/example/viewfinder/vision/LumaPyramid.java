@@ -0,0 +1,102 @@
+// Multi-resolution luma pyramid (2x2 box downsampling) with buffers allocated once
+
+package com.example.viewfinder.vision;
+
+public class LumaPyramid
+{	//	level 0 is the full resolution frame itself (held by reference), level k is 1/2^k size
+    static final int MIN_SIZE = 16;     // don't go coarser than this many pixels across
+
+    public final int nLevels;
+    public final int[] mWidths, mHeights;
+    public final byte[][] mLevels;
+    private final TileScheduler mScheduler;     // optional, splits each level into strips
+    private int mJobLevel;
+    private final TileScheduler.Kernel mKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            int k = mJobLevel;
+            downsample(mLevels[k - 1], mWidths[k - 1], mLevels[k], mWidths[k], rowStart, rowEnd);
+        }
+    };
+
+    public LumaPyramid (int width, int height, int maxLevels)
+    {
+        this(width, height, maxLevels, null);
+    }
+
+    public LumaPyramid (int width, int height, int maxLevels, TileScheduler scheduler)
+    { // constructor - allocates every level below the first
+        mScheduler = scheduler;
+        int n = 1;
+        while (n < maxLevels && (width >> n) >= MIN_SIZE && (height >> n) >= MIN_SIZE) n++;
+        nLevels = n;
+        mWidths = new int[n];
+        mHeights = new int[n];
+        mLevels = new byte[n][];
+        for (int k = 0; k < n; k++) {
+            mWidths[k] = width >> k;
+            mHeights[k] = height >> k;
+            if (k > 0) mLevels[k] = new byte[mWidths[k] * mHeights[k]];
+        }
+    }
+
+    public void build (byte[] luma)
+    { // fill the pyramid from a full resolution frame
+        mLevels[0] = luma;
+        for (int k = 1; k < nLevels; k++) {
+            if (mScheduler != null) {
+                mJobLevel = k;
+                mScheduler.run(mKernel, mHeights[k]);
+            }
+            else downsample(mLevels[k - 1], mWidths[k - 1], mLevels[k], mWidths[k], 0, mHeights[k]);
+        }
+    }
+
+    static void downsample (byte[] src, int srcWidth, byte[] dst, int width, int y0, int y1)
+    { // each output pixel of rows [y0,y1) is the rounded mean of a 2x2 input block
+        for (int y = y0, pix = y0 * width; y < y1; y++) {
+            int top = 2 * y * srcWidth;
+            int bot = top + srcWidth;
+            for (int x = 0; x < width; x++, pix++, top += 2, bot += 2) {
+                int sum = (src[top] & 0xFF) + (src[top + 1] & 0xFF) + (src[bot] & 0xFF) + (src[bot + 1] & 0xFF);
+                dst[pix] = (byte) ((sum + 2) >> 2);
+            }
+        }
+    }
+
+    static void warp (byte[] src, byte[] dst, int width, int height, float dx, float dy,
+                      int x0, int y0, int x1, int y1)
+    { // dst(x,y) = src(x-dx, y-dy) by bilinear interpolation over [x0,x1) x [y0,y1), clamped at borders
+        // the shift is the same for every pixel, so are the integer offset and the 8 bit weights
+        float sx = -dx, sy = -dy;
+        int ox = (int) Math.floor(sx), oy = (int) Math.floor(sy);
+        int fx = (int) ((sx - ox) * 256 + 0.5f), fy = (int) ((sy - oy) * 256 + 0.5f);
+        if (fx == 256) { ox++; fx = 0; }
+        if (fy == 256) { oy++; fy = 0; }
+        int w00 = (256 - fx) * (256 - fy), w01 = fx * (256 - fy);
+        int w10 = (256 - fx) * fy, w11 = fx * fy;
+        int xLo = Math.max(x0, -ox), xHi = Math.min(x1, width - 1 - ox);     // x+ox, x+ox+1 both inside
+        for (int y = y0; y < y1; y++) {
+            int ya = clamp(y + oy, height - 1), yb = clamp(y + oy + 1, height - 1);
+            int rowA = ya * width, rowB = yb * width, out = y * width;
+            for (int x = x0; x < x1; x++) {
+                int xa, xb;
+                if (x >= xLo && x < xHi) {
+                    xa = x + ox;
+                    xb = xa + 1;
+                } else {
+                    xa = clamp(x + ox, width - 1);
+                    xb = clamp(x + ox + 1, width - 1);
+                }
+                int sum = w00 * (src[rowA + xa] & 0xFF) + w01 * (src[rowA + xb] & 0xFF)
+                        + w10 * (src[rowB + xa] & 0xFF) + w11 * (src[rowB + xb] & 0xFF);
+                dst[out + x] = (byte) ((sum + 32768) >> 16);
+            }
+        }
+    }
+
+    static int clamp (int i, int max)
+    {
+        return i < 0 ? 0 : (i > max ? max : i);
+    }
+}
@@ -0,0 +1,59 @@
+// Cheap test of whether anything moved, to skip the full pipeline while the scene is static
+
+package com.example.viewfinder.vision;
+
+public class MotionGate
+{	//	Sparse absolute differences against the reference frame, one pixel in STEP x STEP per call,
+    //	the sample grid moving through all 16 offsets (every column once in 4 calls, every row
+    //	within 7). A CELL square moved if its mean difference is over mThreshold or MIN_CHANGED
+    //	samples differ by over mNoise: the smallest object always caught is 12 x 4 pixels.
+    static final int CELL = 16;     // pixels per side of a cell (16 samples)
+    static final int STEP = 4;      // sample spacing, in both directions
+    static final int[] ORDER = {0, 2, 1, 3};    // offsets within a step, far apart ones first
+    static final int MIN_CHANGED = 2;   // samples over mNoise that make a cell move (one could be a hot pixel)
+
+    final int mImageWidth, mImageHeight;
+    int mThreshold = 8;     // mean absolute difference (grey levels) that counts as motion in a cell
+                            // (well above sensor noise averaged over 16 samples)
+    int mNoise = 32;        // difference of one sample that is not noise (about 4 sigma in low light)
+    private int mPhase;     // which of the STEP x STEP sample grids was used last
+    public int mMaxDifference;      // largest cell mean difference seen by the last call
+
+    public MotionGate (int width, int height)
+    { // constructor
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    public boolean isMoving (byte[] luma, byte[] reference)
+    { // true as soon as one cell differs from the reference by more than mThreshold on average,
+      // or has MIN_CHANGED samples that differ by more than mNoise
+        final int width = mImageWidth, height = mImageHeight;
+        mPhase = (mPhase + 1) & (STEP * STEP - 1);
+        final int column = mPhase & (STEP - 1), row = (column + mPhase / STEP) & (STEP - 1);
+        final int offsetX = ORDER[column], offsetY = ORDER[row];
+        final int noise = mNoise;
+        mMaxDifference = 0;
+        for (int top = 0; top < height; top += CELL) {
+            int bottom = Math.min(top + CELL, height);
+            for (int left = 0; left < width; left += CELL) {
+                int right = Math.min(left + CELL, width);
+                int sad = 0, nSamples = 0, nChanged = 0;
+                for (int y = top + offsetY; y < bottom; y += STEP) {
+                    for (int pix = y * width + left + offsetX, end = y * width + right; pix < end; pix += STEP) {
+                        int diff = (luma[pix] & 0xFF) - (reference[pix] & 0xFF);
+                        if (diff < 0) diff = -diff;
+                        sad += diff;
+                        if (diff > noise) nChanged++;
+                    }
+                    nSamples += (right - left - offsetX + STEP - 1) / STEP;
+                }
+                if (nSamples == 0) continue;
+                int difference = sad / nSamples;
+                if (difference > mMaxDifference) mMaxDifference = difference;
+                if (difference > mThreshold || nChanged >= MIN_CHANGED) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,129 @@
+// Draws masks, flow arrows and heat maps into an ARGB pixel buffer, to be pushed to a Bitmap in one call
+
+package com.example.viewfinder.vision;
+
+import java.util.Arrays;
+
+public class OverlayRenderer
+{	//	works on a caller supplied int[] (one ARGB value per preview pixel) that is reused every frame,
+    //	so the whole overlay costs one clear, the drawing itself and one bulk copy to the Bitmap
+    static final int TRANSPARENT = 0;
+
+    final int mImageWidth, mImageHeight;
+    public final int[] mPixels;
+    private final int[] mHeatColors = new int[256];     // blue -> red, without alpha
+    private double mClipStart, mClipEnd;  // drawLine: the part of the segment inside the image
+
+    public OverlayRenderer (int[] pixels, int width, int height)
+    { // constructor
+        mPixels = pixels;
+        mImageWidth = width;
+        mImageHeight = height;
+        for (int k = 0; k < 256; k++) {  // simple blue - green - red ramp
+            int red = Math.max(0, 2 * k - 255), blue = Math.max(0, 255 - 2 * k);
+            int green = 255 - red - blue;
+            mHeatColors[k] = (red << 16) | (green << 8) | blue;
+        }
+    }
+
+    public void clear ()
+    {
+        Arrays.fill(mPixels, 0, mImageWidth * mImageHeight, TRANSPARENT);
+    }
+
+    public void drawMask (long[] words, int wordsPerRow, int color)
+    { // colour every set pixel of a packed mask; empty words are skipped 64 pixels at a time
+        for (int y = 0; y < mImageHeight; y++) {
+            int row = y * mImageWidth;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = words[y * wordsPerRow + w];
+                int base = row + (w << 6);
+                while (word != 0) {
+                    mPixels[base + Long.numberOfTrailingZeros(word)] = color;
+                    word &= word - 1;   // clear lowest set bit
+                }
+            }
+        }
+    }
+
+    public void drawFlowHeatMap (FrameResult result, float maxMagnitude, int alpha)
+    { // fill each flow field block with a colour for its motion magnitude
+        int block = result.flowBlockSize;
+        float scale = 255 / maxMagnitude;
+        for (int by = 0, k = 0; by < result.flowGridHeight; by++) {
+            for (int bx = 0; bx < result.flowGridWidth; bx++, k++) {
+                float du = result.flowU[k], dv = result.flowV[k];
+                if (Float.isNaN(du)) continue;
+                int level = (int) (Math.sqrt(du * du + dv * dv) * scale);
+                int color = (alpha << 24) | mHeatColors[Math.min(255, level)];
+                for (int y = by * block; y < (by + 1) * block; y++) {
+                    int start = y * mImageWidth + bx * block;
+                    Arrays.fill(mPixels, start, start + block, color);
+                }
+            }
+        }
+    }
+
+    public void drawFlowArrows (FrameResult result, float arrowScale, int color)
+    { // one arrow per flow field block, from the block centre in the direction of motion
+      // (shortened, keeping its direction, if it would reach further than across the image)
+        int block = result.flowBlockSize;
+        float maxLength = Math.max(mImageWidth, mImageHeight);
+        for (int by = 0, k = 0; by < result.flowGridHeight; by++) {
+            for (int bx = 0; bx < result.flowGridWidth; bx++, k++) {
+                float du = result.flowU[k], dv = result.flowV[k];
+                if (Float.isNaN(du)) continue;	// no estimate for this block
+                float dx = du * arrowScale, dy = dv * arrowScale;
+                if (Float.isInfinite(dx) || Float.isInfinite(dy) || Float.isNaN(dy)) continue;
+                float length = (float) Math.sqrt(dx * dx + dy * dy);
+                if (length > maxLength) {
+                    dx *= maxLength / length;
+                    dy *= maxLength / length;
+                }
+                float x0 = bx * block + block * 0.5f, y0 = by * block + block * 0.5f;
+                float x1 = x0 + dx, y1 = y0 + dy;
+                drawLine(Math.round(x0), Math.round(y0), Math.round(x1), Math.round(y1), color);
+                // barbs: the shaft direction rotated by +/-135 degrees, a third as long
+                drawLine(Math.round(x1), Math.round(y1), Math.round(x1 + (-dx - dy) * 0.24f), Math.round(y1 + (dx - dy) * 0.24f), color);
+                drawLine(Math.round(x1), Math.round(y1), Math.round(x1 + (-dx + dy) * 0.24f), Math.round(y1 + (-dx - dy) * 0.24f), color);
+            }
+        }
+    }
+
+    public void drawLine (int x0, int y0, int x1, int y1, int color)
+    { // one pixel per step along the longer axis, the other coordinate rounded from the exact line.
+      // Only the steps inside the image are taken: the segment is clipped first (Liang-Barsky), so
+      // a line of any length costs no more than one across the image, and looks the same as unclipped.
+        double ex = (double) x1 - x0, ey = (double) y1 - y0;
+        double steps = Math.max(Math.abs(ex), Math.abs(ey));
+        mClipStart = 0;
+        mClipEnd = 1;
+        // against the pixels' outer edges, half a pixel beyond the centres
+        if (!clip(-ex, x0 + 0.5) || !clip(ex, mImageWidth - 0.5 - x0)
+                || !clip(-ey, y0 + 0.5) || !clip(ey, mImageHeight - 0.5 - y0)) return;   // all outside
+        if (steps == 0) {
+            mPixels[y0 * mImageWidth + x0] = color;
+            return;
+        }
+        double stepX = ex / steps, stepY = ey / steps;
+        long last = (long) Math.min(steps, Math.ceil(mClipEnd * steps));
+        for (long k = (long) Math.floor(mClipStart * steps); k <= last; k++) {   // a step either side, tested below
+            int x = (int) Math.floor(x0 + k * stepX + 0.5), y = (int) Math.floor(y0 + k * stepY + 0.5);
+            if (x >= 0 && x < mImageWidth && y >= 0 && y < mImageHeight) mPixels[y * mImageWidth + x] = color;
+        }
+    }
+
+    private boolean clip (double p, double q)
+    { // one edge: the segment is inside where p * t <= q; narrows [mClipStart, mClipEnd], false if empty
+        if (p == 0) return q >= 0;
+        double t = q / p;
+        if (p < 0) {
+            if (t > mClipEnd) return false;
+            if (t > mClipStart) mClipStart = t;
+        } else {
+            if (t < mClipStart) return false;
+            if (t < mClipEnd) mClipEnd = t;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,188 @@
+// Global motion by phase correlation of a downsampled, windowed tile from the middle of the frame
+
+package com.example.viewfinder.vision;
+
+public class PhaseCorrelation implements GlobalMotionEstimator
+{	//	The centre of the frame, box-averaged by nFactor to nSize x nSize and Hann windowed; the
+    //	peak of the normalised cross power spectrum gives the whole shift, the phase slope the
+    //	fraction. Each frame's spectrum is kept for the next one (one forward, one inverse FFT).
+    static final float REGULARISATION = 1;      // magnitude floor, as a multiple of the mean magnitude
+    static final float MIN_CONFIDENCE = 0.2f;   // below this the peak is taken to be noise (which reaches about 0.12)
+
+    public float u, v;          // most recent estimate (full resolution pixels per frame)
+    public float confidence;    // height of the correlation peak, 0..1
+    final int mImageWidth, mImageHeight;
+    public final int nSize;     // tile side (a power of 2)
+    public final int nFactor;   // full resolution pixels per tile pixel
+    final int mLeft, mTop;      // where the tile starts in the frame
+    private final Fft mFft;
+    private final float[] mWindow;      // Hann window along one side
+    private float[] mRe, mIm;           // current tile, then its spectrum
+    private float[] mPreRe, mPreIm;     // spectrum of the previous frame
+    private byte[] mPreviousFrame;      // the frame mPreRe/mPreIm belong to
+    private final float[] mCrossRe, mCrossIm;   // cross power spectrum, then the correlation surface
+    private final float[] mMagnitude;   // of the cross power spectrum
+    private final float[] mCos, mSin;   // exp(2 pi i k / n), to take the whole shift out of the phase
+
+    public PhaseCorrelation (int width, int height, int size)
+    { // constructor - size is the tile side (a power of 2), the factor is as large as the frame allows
+        mImageWidth = width;
+        mImageHeight = height;
+        nSize = size;
+        nFactor = Math.max(1, Math.min(width, height) / size);
+        mLeft = Math.max(0, (width - size * nFactor) / 2);
+        mTop = Math.max(0, (height - size * nFactor) / 2);
+        mFft = new Fft(size);
+        mWindow = new float[size];
+        for (int k = 0; k < size; k++) mWindow[k] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * (k + 0.5) / size));
+        mRe = new float[size * size];
+        mIm = new float[size * size];
+        mPreRe = new float[size * size];
+        mPreIm = new float[size * size];
+        mCrossRe = new float[size * size];
+        mCrossIm = new float[size * size];
+        mMagnitude = new float[size * size];
+        mCos = new float[size];
+        mSin = new float[size];
+        for (int k = 0; k < size; k++) {
+            mCos[k] = (float) Math.cos(2 * Math.PI * k / size);
+            mSin[k] = (float) Math.sin(2 * Math.PI * k / size);
+        }
+    }
+
+    public void reset ()
+    { // forget the previous spectrum (its frame buffer may since have been refilled)
+        mPreviousFrame = null;
+    }
+
+    public boolean estimate (byte[] pixels, byte[] prePixels)
+    { // shift of pixels against prePixels; false (and no motion) if the peak is too weak to trust
+        if (mPreviousFrame != prePixels) {  // first frame, or frames skipped
+            spectrum(prePixels, mPreRe, mPreIm);
+            mPreviousFrame = prePixels;
+        }
+        spectrum(pixels, mRe, mIm);
+        int n = nSize, size = n * n;
+        double total = 0;
+        for (int k = 1; k < size; k++) {   // current times conjugate of previous (DC left out)
+            float re = mRe[k] * mPreRe[k] + mIm[k] * mPreIm[k];
+            float im = mIm[k] * mPreRe[k] - mRe[k] * mPreIm[k];
+            mCrossRe[k] = re;
+            mCrossIm[k] = im;
+            mMagnitude[k] = (float) Math.sqrt(re * re + im * im);
+            total += mMagnitude[k];
+        }
+        float floor = (float) (REGULARISATION * total / (size - 1)) + 1e-6f;
+        double weights = 0;
+        for (int k = 1; k < size; k++) {   // towards unit magnitude, but not where there is little signal
+            float scale = 1 / (mMagnitude[k] + floor);
+            mCrossRe[k] *= scale;
+            mCrossIm[k] *= scale;
+            weights += mMagnitude[k] * scale;
+        }
+        mCrossRe[0] = 0;
+        mCrossIm[0] = 0;
+        mFft.transform2D(mCrossRe, mCrossIm, true);
+        // the peak, searched within a quarter of the tile (beyond that the tiles hardly overlap)
+        int bestX = 0, bestY = 0;
+        float peak = -Float.MAX_VALUE;
+        int reach = n / 4;
+        for (int dy = -reach; dy <= reach; dy++) {
+            int row = ((dy + n) & (n - 1)) * n;
+            for (int dx = -reach; dx <= reach; dx++) {
+                int k = row + ((dx + n) & (n - 1));
+                if (mCrossRe[k] > peak) {
+                    peak = mCrossRe[k];
+                    bestX = dx;
+                    bestY = dy;
+                }
+            }
+        }
+        confidence = (float) (peak / weights);  // the inverse is unscaled: a perfect match sums to the weights
+        boolean solved = confidence >= MIN_CONFIDENCE && refine(bestX, bestY);
+        // the current spectrum becomes the previous one for the next frame
+        float[] swap = mPreRe;
+        mPreRe = mRe;
+        mRe = swap;
+        swap = mPreIm;
+        mPreIm = mIm;
+        mIm = swap;
+        mPreviousFrame = pixels;
+        if (!solved) {
+            u = 0;
+            v = 0;
+        }
+        return solved;
+    }
+
+    private boolean refine (int dx, int dy)
+    { // whole plus fractional shift: with exp(-i w.d) taken out, the phase of the cross power
+      // spectrum is -w.f for the fraction f. Least squares over the lower frequencies (the higher
+      // ones alias in the downsampling), weighted by magnitude; false if they do not fix f.
+        int n = nSize, reach = n / 4;
+        float step = (float) (2 * Math.PI / n);
+        double sxx = 0, sxy = 0, syy = 0, sx = 0, sy = 0;
+        for (int ky = -reach; ky <= reach; ky++) {
+            int row = ((ky + n) & (n - 1)) * n;
+            float wy = ky * step;
+            for (int kx = -reach; kx <= reach; kx++) {
+                if (kx == 0 && ky == 0) continue;
+                int k = row + ((kx + n) & (n - 1));
+                float weight = mMagnitude[k];
+                if (weight == 0) continue;
+                float wx = kx * step;
+                float re = mRe[k] * mPreRe[k] + mIm[k] * mPreIm[k];
+                float im = mIm[k] * mPreRe[k] - mRe[k] * mPreIm[k];
+                int turn = (kx * dx + ky * dy) & (n - 1);   // times exp(+i w.d)
+                float c = mCos[turn], s = mSin[turn];
+                float phase = (float) Math.atan2(re * s + im * c, re * c - im * s);
+                sxx += weight * wx * wx;
+                sxy += weight * wx * wy;
+                syy += weight * wy * wy;
+                sx -= weight * wx * phase;
+                sy -= weight * wy * phase;
+            }
+        }
+        double det = sxx * syy - sxy * sxy;
+        if (!(det > 0)) return false;
+        u = (float) ((dx + (syy * sx - sxy * sy) / det) * nFactor);
+        v = (float) ((dy + (sxx * sy - sxy * sx) / det) * nFactor);
+        return true;
+    }
+
+    public float motionX ()
+    {
+        return u;
+    }
+
+    public float motionY ()
+    {
+        return v;
+    }
+
+    private void spectrum (byte[] pixels, float[] re, float[] im)
+    { // downsample the tile (box average), subtract its mean, apply the window and transform
+        int n = nSize, f = nFactor;
+        float scale = 1f / (f * f);
+        double sum = 0;
+        for (int y = 0, k = 0; y < n; y++) {
+            int top = (mTop + y * f) * mImageWidth + mLeft;
+            for (int x = 0; x < n; x++, k++, top += f) {
+                int total = 0;
+                for (int j = 0, row = top; j < f; j++, row += mImageWidth)
+                    for (int i = 0; i < f; i++) total += pixels[row + i] & 0xFF;
+                re[k] = total * scale;
+                sum += re[k];
+            }
+        }
+        float mean = (float) (sum / (n * n));
+        for (int y = 0, k = 0; y < n; y++) {
+            float wy = mWindow[y];
+            for (int x = 0; x < n; x++, k++) {
+                re[k] = (re[k] - mean) * wy * mWindow[x];
+                im[k] = 0;
+            }
+        }
+        mFft.transform2D(re, im, false);
+    }
+}
@@ -0,0 +1,144 @@
+// Coarse-to-fine Lucas-Kanade: large motions are found at low resolution and refined level by level
+
+package com.example.viewfinder.vision;
+
+public class PyramidalLucasKanade implements GlobalMotionEstimator
+{	//	keeps the pyramids of the current and previous frame and swaps them between frames,
+    //	so each frame is downsampled only once
+    public float u, v;          // most recent motion estimate at full resolution
+    public double delta;        // determinant at the finest level used
+    final int mImageWidth, mImageHeight;
+    final int nIterations;      // warp / solve passes per level
+    int mFinestLevel;           // refinement stops here: 0 is full resolution, 1 half, ...
+    private LumaPyramid mCurrent, mPrevious;
+    private final byte[][] mWarped;     // previous frame warped by the running estimate, per level
+    private final LucasKanade mLucasKanade;
+    private final TileScheduler mScheduler;     // optional, used for whole frame work only
+    private byte[] mJobSrc, mJobDst;
+    private int mJobWidth, mJobHeight;
+    private float mJobDx, mJobDy;
+    private final TileScheduler.Kernel mWarpKernel = new TileScheduler.Kernel() {
+        public void run (int tile, int rowStart, int rowEnd)
+        {
+            LumaPyramid.warp(mJobSrc, mJobDst, mJobWidth, mJobHeight, mJobDx, mJobDy, 0, rowStart, mJobWidth, rowEnd);
+        }
+    };
+
+    public PyramidalLucasKanade (int width, int height, int maxLevels, int iterations)
+    {
+        this(width, height, maxLevels, iterations, null);
+    }
+
+    public PyramidalLucasKanade (int width, int height, int maxLevels, int iterations, TileScheduler scheduler)
+    { // constructor - allocates both pyramids and the warp buffers
+        mImageWidth = width;
+        mImageHeight = height;
+        nIterations = iterations;
+        mScheduler = scheduler;
+        mLucasKanade = new LucasKanade(scheduler);
+        mCurrent = new LumaPyramid(width, height, maxLevels, scheduler);
+        mPrevious = new LumaPyramid(width, height, maxLevels, scheduler);
+        mWarped = new byte[mCurrent.nLevels][];
+        for (int k = 0; k < mCurrent.nLevels; k++)
+            mWarped[k] = new byte[mCurrent.mWidths[k] * mCurrent.mHeights[k]];
+    }
+
+    public int levels ()
+    {
+        return mCurrent.nLevels;
+    }
+
+    public void setFinestLevel (int level)
+    { // trade accuracy for time: skip the refinement at the finest levels
+        mFinestLevel = Math.max(0, Math.min(level, mCurrent.nLevels - 1));
+    }
+
+    public void reset ()
+    { // forget the previous pyramid (its frame buffer may since have been refilled)
+        mPrevious.mLevels[0] = null;
+    }
+
+    public boolean estimateGlobal (byte[] pixels, byte[] prePixels)
+    {
+        return estimate(pixels, prePixels, 0, 0, 0);
+    }
+
+    public boolean estimate (byte[] pixels, byte[] prePixels)
+    {
+        return estimateGlobal(pixels, prePixels);
+    }
+
+    public float motionX ()
+    {
+        return u;
+    }
+
+    public float motionY ()
+    {
+        return v;
+    }
+
+    public boolean estimateWindow (byte[] pixels, byte[] prePixels, float centreX, float centreY, int radius)
+    { // radius is in pixels of each level, so the window covers more of the image at coarse levels
+        return estimate(pixels, prePixels, centreX, centreY, radius);
+    }
+
+    private boolean estimate (byte[] pixels, byte[] prePixels, float centreX, float centreY, int radius)
+    {
+        if (mPrevious.mLevels[0] != prePixels) mPrevious.build(prePixels);    // first frame, or frames skipped
+        mCurrent.build(pixels);
+        float du = 0, dv = 0;
+        boolean solved = false;
+        int finest = mFinestLevel;
+        for (int k = mCurrent.nLevels - 1; k >= finest; k--) {
+            du *= 2;
+            dv *= 2;
+            int width = mCurrent.mWidths[k], height = mCurrent.mHeights[k];
+            float cx = centreX / (1 << k), cy = centreY / (1 << k);
+            // region read by the kernel: whole level, or the window plus its extra row and column
+            int x0 = 0, y0 = 0, x1 = width, y1 = height;
+            if (radius > 0) {
+                x0 = LucasKanade.windowStart(Math.round(cx) - radius, 2 * radius, width - 1);
+                y0 = LucasKanade.windowStart(Math.round(cy) - radius, 2 * radius, height - 1);
+                x1 = Math.min(x0 + 2 * radius + 1, width);
+                y1 = Math.min(y0 + 2 * radius + 1, height);
+            }
+            for (int iter = 0; iter < nIterations; iter++) {
+                byte[] previous = mPrevious.mLevels[k];
+                if (du != 0 || dv != 0) {
+                    if (radius == 0 && mScheduler != null) warpParallel(previous, mWarped[k], width, height, du, dv);
+                    else LumaPyramid.warp(previous, mWarped[k], width, height, du, dv, x0, y0, x1, y1);
+                    previous = mWarped[k];
+                }
+                if (radius > 0)
+                    solved = mLucasKanade.estimateWindow(mCurrent.mLevels[k], previous, width, height, cx, cy, radius);
+                else
+                    solved = mLucasKanade.estimateGlobal(mCurrent.mLevels[k], previous, width, height);
+                if (!solved) break;
+                du += mLucasKanade.u;
+                dv += mLucasKanade.v;
+            }
+        }
+        u = du * (1 << finest);
+        v = dv * (1 << finest);
+        delta = mLucasKanade.delta;
+        // current pyramid becomes the previous one for the next frame
+        LumaPyramid swap = mPrevious;
+        mPrevious = mCurrent;
+        mCurrent = swap;
+        return solved;
+    }
+
+    private void warpParallel (byte[] src, byte[] dst, int width, int height, float dx, float dy)
+    {
+        mJobSrc = src;
+        mJobDst = dst;
+        mJobWidth = width;
+        mJobHeight = height;
+        mJobDx = dx;
+        mJobDy = dy;
+        mScheduler.run(mWarpKernel, height);
+        mJobSrc = null;
+        mJobDst = null;
+    }
+}
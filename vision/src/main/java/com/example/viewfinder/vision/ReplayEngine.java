@@ -0,0 +1,148 @@
+// Headless driver: recorded NV21 frames from a memory-mapped file, pushed through FrameProcessor as fast as it goes
+
+package com.example.viewfinder.vision;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class ReplayEngine
+{	//	A recording is just frames of width x height x 3/2 bytes back to back, as delivered to
+    //	onPreviewFrame. The file is mapped rather than read, in segments of whole frames (a single
+    //	mapping is limited to 2 GB), so the page cache feeds the frames without extra copies on
+    //	the way in. Frames run through the same FrameProcessor as on the device, on the calling
+    //	thread, one after the other without waiting for a camera.
+    public interface Listener
+    {
+        void onResult (int frame, boolean processed, FrameResult result);  // after every frame
+    }
+
+    public static class Report
+    {
+        public int nFrames;         // frames replayed
+        public int nProcessed;      // frames not skipped by the motion gate
+        public long mNanos;         // wall time of the pass
+
+        public double framesPerSecond ()
+        {
+            return mNanos == 0 ? 0 : nFrames * 1e9 / mNanos;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return String.format("%d frames (%d processed) in %.1f ms: %.1f frames/s, %.3f ms/frame",
+                    nFrames, nProcessed, mNanos / 1e6, framesPerSecond(), nFrames == 0 ? 0 : mNanos / 1e6 / nFrames);
+        }
+    }
+
+    public final int mImageWidth, mImageHeight, mFrameSize;
+    public final int nFrames;
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer[] mSegments;
+    private final int nFramesPerSegment;
+
+    public ReplayEngine (File file, int width, int height) throws IOException
+    { // constructor - maps the whole recording (a trailing partial frame is ignored)
+        mImageWidth = width;
+        mImageHeight = height;
+        mFrameSize = width * height * 3 / 2;
+        mFile = new RandomAccessFile(file, "r");
+        FileChannel channel = mFile.getChannel();
+        long length = channel.size();
+        nFrames = (int) (length / mFrameSize);
+        nFramesPerSegment = Math.max(1, Integer.MAX_VALUE / mFrameSize);
+        mSegments = new MappedByteBuffer[(nFrames + nFramesPerSegment - 1) / nFramesPerSegment];
+        for (int k = 0; k < mSegments.length; k++) {
+            int frames = Math.min(nFramesPerSegment, nFrames - k * nFramesPerSegment);
+            mSegments[k] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    (long) k * nFramesPerSegment * mFrameSize, (long) frames * mFrameSize);
+        }
+    }
+
+    public void frame (int index, byte[] dst)
+    { // copy frame number index of the recording into dst
+        MappedByteBuffer segment = mSegments[index / nFramesPerSegment];
+        synchronized (segment) {    // position is shared state of the buffer
+            segment.position((index % nFramesPerSegment) * mFrameSize);
+            segment.get(dst, 0, mFrameSize);
+        }
+    }
+
+    public Report run (FrameProcessor processor, Listener listener)
+    { // one pass over the recording; processor must not have been start()ed
+        Report report = new Report();
+        byte[] data = new byte[mFrameSize];
+        long start = System.nanoTime();
+        for (int k = 0; k < nFrames; k++) {
+            frame(k, data);
+            boolean processed = processor.process(data);
+            if (processed) report.nProcessed++;
+            if (listener != null) listener.onResult(k, processed, processor.latestResult());
+        }
+        report.mNanos = System.nanoTime() - start;
+        report.nFrames = nFrames;
+        return report;
+    }
+
+    public void close () throws IOException
+    {
+        mFile.close();
+    }
+
+    public static void main (String[] args) throws IOException
+    { // ReplayEngine file width height [-threads n] [-passes n] [-global | -features | -phase | -blocks] [-nogate] [-noflow] [-results] [-latency]
+        if (args.length < 3) {
+            System.err.println("usage: ReplayEngine file.nv21 width height [-threads n] [-passes n]"
+                    + " [-global | -features | -phase | -blocks] [-nogate] [-noflow] [-nooverlay] [-results] [-latency]");
+            System.exit(1);
+        }
+        int width = Integer.parseInt(args[1]), height = Integer.parseInt(args[2]);
+        int threads = 0, passes = 3;
+        int mode = FrameProcessor.TRACK_WINDOW;
+        boolean gate = true, flow = true, overlay = true, results = false, latency = false;
+        for (int k = 3; k < args.length; k++) {
+            if (args[k].equals("-threads")) threads = Integer.parseInt(args[++k]);
+            else if (args[k].equals("-passes")) passes = Integer.parseInt(args[++k]);
+            else if (args[k].equals("-global")) mode = FrameProcessor.TRACK_GLOBAL;
+            else if (args[k].equals("-features")) mode = FrameProcessor.TRACK_FEATURES;
+            else if (args[k].equals("-phase")) mode = FrameProcessor.TRACK_PHASE;
+            else if (args[k].equals("-blocks")) mode = FrameProcessor.TRACK_BLOCKS;
+            else if (args[k].equals("-nogate")) gate = false;
+            else if (args[k].equals("-noflow")) flow = false;
+            else if (args[k].equals("-nooverlay")) overlay = false;
+            else if (args[k].equals("-results")) results = true;
+            else if (args[k].equals("-latency")) latency = true;
+        }
+        ReplayEngine engine = new ReplayEngine(new File(args[0]), width, height);
+        System.err.println(args[0] + ": " + engine.nFrames + " frames of " + width + " x " + height);
+        final PrintStream out = System.out;
+        Listener printer = new Listener() {
+            public void onResult (int frame, boolean processed, FrameResult result)
+            {
+                out.println(frame + "," + (processed ? 1 : 0) + "," + result.u + "," + result.v + ","
+                        + result.trackingX + "," + result.trackingY + "," + result.changedPixels + "," + result.nBlobs);
+            }
+        };
+        if (results) out.println("frame,processed,u,v,trackingX,trackingY,changedPixels,blobs");
+        for (int pass = 0; pass < passes; pass++) {    // a fresh pipeline each pass; the first warms up the JIT
+            FrameProcessor processor = new FrameProcessor(width, height, threads, null);
+            processor.setTrackingMode(mode, 24);
+            processor.setMotionGateEnabled(gate);
+            // what the app's overlay asks for by default (-nooverlay: motion only), plus what gets printed
+            if (overlay) processor.setDemand(FrameProcessor.CONSUMER_OVERLAY,
+                    flow ? FrameProcessor.STAGE_ALL : FrameProcessor.STAGE_ALL & ~FrameProcessor.STAGE_FLOW);
+            if (results) processor.setDemand(FrameProcessor.CONSUMER_RECORDER, FrameProcessor.STAGE_BLOBS);
+            processor.latencyRecorder().markStart();    // time to the first result, JIT included
+            Report report = engine.run(processor, results && pass == passes - 1 ? printer : null);
+            processor.stop();
+            System.err.println("pass " + pass + ": " + report);
+            if (latency) processor.latencyRecorder().summary(new PrintWriter(System.err));
+        }
+        engine.close();
+    }
+}
@@ -0,0 +1,79 @@
+// Recorded NV21 frames played back as a FrameSource, at a steady frame rate or as fast as the sink takes them
+
+package com.example.viewfinder.vision;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class ReplayFrameSource implements FrameSource, Runnable
+{	//	Stands in for a camera when testing on the device or off it: frames come from a
+    //	ReplayEngine recording on a thread of their own, paced like preview callbacks, and the
+    //	timestamps are the times they would have been captured at that rate.
+    private final ReplayEngine mEngine;
+    private final float mFrameRate;     // frames per second, 0 => no pacing
+    private final boolean mLoop;        // start again at the end of the recording
+    private final Frame mFrame = new Frame();
+    private final byte[] mData;
+    private volatile Sink mSink;
+    private Thread mThread;
+
+    public ReplayFrameSource (ReplayEngine engine, float frameRate, boolean loop)
+    { // constructor
+        mEngine = engine;
+        mFrameRate = frameRate;
+        mLoop = loop;
+        mData = new byte[engine.mFrameSize];
+    }
+
+    public int width ()
+    {
+        return mEngine.mImageWidth;
+    }
+
+    public int height ()
+    {
+        return mEngine.mImageHeight;
+    }
+
+    public void start (Sink sink)
+    {
+        if (mThread != null) return;
+        mSink = sink;
+        mThread = new Thread(this, "ReplayFrameSource");
+        mThread.start();
+    }
+
+    public void stop ()
+    {
+        Thread thread = mThread;
+        if (thread == null) return;
+        mSink = null;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    @Override
+    public void run ()
+    {
+        long period = mFrameRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / mFrameRate) : 0;
+        long start = System.nanoTime();
+        long frames = 0;    // delivered so far, over all loops
+        do {
+            for (int k = 0; k < mEngine.nFrames; k++, frames++) {
+                long due = start + frames * period;
+                long wait;
+                while (mSink != null && (wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(this, wait);
+                Sink sink = mSink;
+                if (sink == null) return;
+                mEngine.frame(k, mData);
+                mFrame.setNV21(mData, mEngine.mImageWidth, mEngine.mImageHeight, period > 0 ? due : System.nanoTime());
+                sink.onFrame(mFrame);
+            }
+        } while (mLoop && mEngine.nFrames > 0);
+    }
+}
@@ -0,0 +1,112 @@
+// NV21 frame sequences with known sub-pixel motion, sensor noise and brightness drift, for measuring accuracy
+
+package com.example.viewfinder.vision;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+public class SyntheticSequence
+{	//	The scene is a sum of plane waves (random orientation, period 12 to 200 pixels), defined
+    //	everywhere, so moving it by a fraction of a pixel is exact: no resampling error ends up in
+    //	the ground truth. Each wave is split as sin(a + b) = sin a cos b + cos a sin b, which
+    //	makes a frame cost a few table lookups per pixel instead of a sin() per wave.
+    //	Every frame is a pure function of (seed, index), so frames can be made in any order.
+    static final int WAVES = 8;
+
+    public final int mWidth, mHeight, nFrames;
+    public final float[] mPositionX, mPositionY;    // where the scene is in each frame
+    final float mNoise;             // standard deviation of the added noise (grey levels)
+    final float mBrightnessStep;    // grey levels added per frame (exposure drifting)
+    final long mSeed;
+    private final float[] mAmplitude = new float[WAVES];
+    private final float[] mFrequencyX = new float[WAVES], mFrequencyY = new float[WAVES];
+    private final float[] mPhase = new float[WAVES];
+    private final float[][] mSinX, mCosX, mSinY, mCosY;     // per wave, per column / row
+
+    public SyntheticSequence (int width, int height, int frames, float maxStep, float noise,
+                              float brightnessStep, long seed)
+    { // constructor - each frame moves by up to maxStep pixels in x and in y (uniform, independent)
+        mWidth = width;
+        mHeight = height;
+        nFrames = frames;
+        mNoise = noise;
+        mBrightnessStep = brightnessStep;
+        mSeed = seed;
+        Random random = new Random(seed);
+        for (int k = 0; k < WAVES; k++) {
+            double period = 12 * Math.pow(200.0 / 12, random.nextDouble());   // log-uniform
+            double angle = random.nextDouble() * Math.PI;
+            mFrequencyX[k] = (float) (2 * Math.PI / period * Math.cos(angle));
+            mFrequencyY[k] = (float) (2 * Math.PI / period * Math.sin(angle));
+            mPhase[k] = (float) (random.nextDouble() * 2 * Math.PI);
+            mAmplitude[k] = (float) (8 + 8 * random.nextDouble());  // at most 128 in all, so 0..255 is rarely left
+        }
+        mPositionX = new float[frames];
+        mPositionY = new float[frames];
+        for (int k = 1; k < frames; k++) {
+            mPositionX[k] = mPositionX[k - 1] + (float) ((2 * random.nextDouble() - 1) * maxStep);
+            mPositionY[k] = mPositionY[k - 1] + (float) ((2 * random.nextDouble() - 1) * maxStep);
+        }
+        mSinX = new float[WAVES][width];
+        mCosX = new float[WAVES][width];
+        mSinY = new float[WAVES][height];
+        mCosY = new float[WAVES][height];
+    }
+
+    public float truthX (int index)
+    { // motion from frame index-1 to frame index
+        return index == 0 ? 0 : mPositionX[index] - mPositionX[index - 1];
+    }
+
+    public float truthY (int index)
+    {
+        return index == 0 ? 0 : mPositionY[index] - mPositionY[index - 1];
+    }
+
+    public void frame (int index, byte[] nv21)
+    { // render frame index (luma, then a neutral chroma plane) into nv21
+        float dx = mPositionX[index], dy = mPositionY[index];
+        for (int k = 0; k < WAVES; k++) {   // wave k at (x - dx, y - dy): a = fx (x - dx) + phase, b = fy (y - dy)
+            for (int x = 0; x < mWidth; x++) {
+                double a = mFrequencyX[k] * (x - dx) + mPhase[k];
+                mSinX[k][x] = (float) (mAmplitude[k] * Math.sin(a));
+                mCosX[k][x] = (float) (mAmplitude[k] * Math.cos(a));
+            }
+            for (int y = 0; y < mHeight; y++) {
+                double b = mFrequencyY[k] * (y - dy);
+                mSinY[k][y] = (float) Math.sin(b);
+                mCosY[k][y] = (float) Math.cos(b);
+            }
+        }
+        Random random = new Random(mSeed * 31 + index);
+        float offset = 128 + mBrightnessStep * index;
+        for (int y = 0; y < mHeight; y++) {
+            for (int x = 0, pix = y * mWidth; x < mWidth; x++, pix++) {
+                float value = offset;
+                for (int k = 0; k < WAVES; k++) value += mSinX[k][x] * mCosY[k][y] + mCosX[k][x] * mSinY[k][y];
+                if (mNoise > 0) value += (float) (random.nextGaussian() * mNoise);
+                int grey = Math.round(value);
+                nv21[pix] = (byte) (grey < 0 ? 0 : (grey > 255 ? 255 : grey));
+            }
+        }
+        for (int pix = mWidth * mHeight; pix < mWidth * mHeight * 3 / 2; pix++) nv21[pix] = (byte) 128;
+    }
+
+    public void write (File file) throws IOException
+    { // the whole sequence as a recording for ReplayEngine
+        byte[] frame = new byte[mWidth * mHeight * 3 / 2];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        try {
+            for (int k = 0; k < nFrames; k++) {
+                frame(k, frame);
+                out.write(frame);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+// Fixed pool of threads that run a per-pixel kernel over horizontal strips of a frame
+
+package com.example.viewfinder.vision;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class TileScheduler
+{	//	The calling thread splits the rows into nTiles strips, takes part in the work itself
+    //	and returns once every strip is done. Kernels keep per-tile partial results (sums,
+    //	histograms) indexed by tile number, and merge them after run() returns.
+    //	Nothing is allocated per run, and idle threads are parked.
+    //	(java.util.concurrent.ForkJoinPool would do, but only exists from API 21.)
+    public interface Kernel
+    {
+        void run (int tile, int rowStart, int rowEnd);  // process rows [rowStart, rowEnd)
+    }
+
+    static final int TILES_PER_THREAD = 2;     // a few more strips than threads evens out the load
+
+    public final int nThreads;      // including the calling thread
+    public final int nTiles;
+    private final Thread[] mWorkers;
+    private volatile boolean mRunning = true;
+    // current job: the upper half of mTicket is the job number, the lower half the next free tile
+    private final AtomicLong mTicket = new AtomicLong();
+    private final AtomicInteger mPending = new AtomicInteger();
+    private volatile Kernel mKernel;
+    private volatile int mRows;
+    private volatile Thread mCaller;
+    private volatile Throwable mError;
+    private int mJob;
+
+    public TileScheduler (int threads)
+    { // constructor - threads <= 0 means one per available core
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        nThreads = threads;
+        nTiles = threads == 1 ? 1 : threads * TILES_PER_THREAD;
+        mWorkers = new Thread[threads - 1];
+        for (int k = 0; k < mWorkers.length; k++) {
+            mWorkers[k] = new Thread(new Runnable() {
+                public void run ()
+                {
+                    workerLoop();
+                }
+            }, "TileWorker" + k);
+            mWorkers[k].setDaemon(true);
+            mWorkers[k].start();
+        }
+    }
+
+    public void run (Kernel kernel, int nRows)
+    { // run kernel over rows [0, nRows) split into nTiles strips, return when all are done
+        if (mWorkers.length == 0) {     // nothing to share the work with
+            kernel.run(0, 0, nRows);
+            return;
+        }
+        mKernel = kernel;
+        mRows = nRows;
+        mCaller = Thread.currentThread();
+        mError = null;
+        mPending.set(nTiles);
+        mJob++;
+        mTicket.set((long) mJob << 32);     // publishes the job to the workers
+        for (Thread worker : mWorkers) LockSupport.unpark(worker);
+        work(mJob);
+        while (mPending.get() > 0) LockSupport.park(this);
+        mKernel = null;
+        Throwable error = mError;
+        if (error != null) throw new RuntimeException("tile kernel failed", error);
+    }
+
+    public void shutdown ()
+    {
+        mRunning = false;
+        for (Thread worker : mWorkers) LockSupport.unpark(worker);
+    }
+
+    private void workerLoop ()
+    {
+        int seen = 0;
+        while (mRunning) {
+            int job = (int) (mTicket.get() >>> 32);
+            if (job == seen) {
+                LockSupport.park(this);
+                continue;
+            }
+            seen = job;
+            work(job);
+        }
+    }
+
+    private void work (int job)
+    { // claim strips of the given job until none are left (or the job is over)
+        while (true) {
+            long ticket = mTicket.get();
+            int tile = (int) ticket;
+            if ((int) (ticket >>> 32) != job || tile >= nTiles) return;
+            Kernel kernel = mKernel;
+            int rows = mRows;
+            // the job cannot finish (and be replaced) while it still has unclaimed strips,
+            // so if the claim succeeds, kernel and rows belong to this job
+            if (!mTicket.compareAndSet(ticket, ticket + 1)) continue;
+            try {
+                kernel.run(tile, (int) ((long) rows * tile / nTiles), (int) ((long) rows * (tile + 1) / nTiles));
+            } catch (Throwable e) {
+                mError = e;
+            }
+            if (mPending.decrementAndGet() == 0) LockSupport.unpark(mCaller);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+// Lock-free single-producer / single-consumer triple buffer
+
+package com.example.viewfinder.vision;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TripleBuffer<T>
+{	//	writer fills the back slot and publishes it, reader always picks up the newest one;
+    //	anything published but not yet picked up is simply overwritten (stale data is dropped)
+    private static final int FRESH = 4;     // flag bit on mMiddle: slot not yet seen by reader
+    private static final int INDEX = 3;
+
+    private final Object[] mSlots;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private int mBack = 0;      // owned by writer
+    private int mFront = 2;     // owned by reader
+
+    public TripleBuffer (T a, T b, T c)
+    { // constructor - three distinct, preallocated slots
+        mSlots = new Object[] {a, b, c};
+    }
+
+    @SuppressWarnings("unchecked")
+    public T back ()
+    { // writer: the slot to fill next
+        return (T) mSlots[mBack];
+    }
+
+    public void publish ()
+    { // writer: hand the filled back slot over, take the middle one in exchange
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX;
+    }
+
+    public boolean poll ()
+    { // reader: move to the newest published slot, returns false if nothing new
+        if ((mMiddle.get() & FRESH) == 0) return false;
+        mFront = mMiddle.getAndSet(mFront) & INDEX;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T front ()
+    { // reader: the most recently polled slot (stays valid until the next poll)
+        return (T) mSlots[mFront];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T exchangeFront (T replacement)
+    { // reader: keep the front slot for itself and put another buffer in its place
+        T kept = (T) mSlots[mFront];
+        mSlots[mFront] = replacement;   // safe: the writer only sees this index after the next poll
+        return kept;
+    }
+}
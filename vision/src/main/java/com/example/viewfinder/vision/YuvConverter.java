@@ -0,0 +1,116 @@
+// YUV420SP (NV21) to ARGB conversion with lookup tables: full frame, region and downscaled
+
+package com.example.viewfinder.vision;
+
+public class YuvConverter
+{	//	Same fixed point coefficients as the original decodeYUV420SP (and bit for bit the same output),
+    //	but every per-channel product comes from a table, the green chroma term is formed once per
+    //	2x2 block, and clamping to 0..255 is a table lookup instead of compare and branch.
+    //	All methods write into caller supplied buffers; row ranges let a TileScheduler split the work.
+    static final int[] Y_TABLE = new int[256];     // 1192 * (y - 16), y below 16 treated as 16
+    static final int[] RV_TABLE = new int[256];    // red from v
+    static final int[] GV_TABLE = new int[256];    // green from v
+    static final int[] GU_TABLE = new int[256];    // green from u
+    static final int[] BU_TABLE = new int[256];    // blue from u
+    static final int CLAMP_OFFSET = 512;
+    static final int[] CLAMP = new int[1280];      // (value >> 10) + CLAMP_OFFSET -> 0..255, covers -512..767
+    static final int[] GREY_TABLE = new int[256];  // y -> grey ARGB pixel (y - 16, as before)
+
+    static {
+        for (int k = 0; k < 256; k++) {
+            Y_TABLE[k] = 1192 * Math.max(0, k - 16);
+            RV_TABLE[k] = 1634 * (k - 128);
+            GV_TABLE[k] = -833 * (k - 128);
+            GU_TABLE[k] = -400 * (k - 128);
+            BU_TABLE[k] = 2066 * (k - 128);
+            int grey = Math.max(0, k - 16);
+            GREY_TABLE[k] = 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+        }
+        for (int k = 0; k < CLAMP.length; k++)
+            CLAMP[k] = Math.max(0, Math.min(255, k - CLAMP_OFFSET));
+    }
+
+    static int pack (int y1192, int rv, int guv, int bu)
+    { // one ARGB pixel from the table terms
+        return 0xFF000000 | (CLAMP[((y1192 + rv) >> 10) + CLAMP_OFFSET] << 16)
+                | (CLAMP[((y1192 + guv) >> 10) + CLAMP_OFFSET] << 8)
+                | CLAMP[((y1192 + bu) >> 10) + CLAMP_OFFSET];
+    }
+
+    public static void decode (byte[] yuv420sp, int width, int height, int[] rgb)
+    { // whole frame, rgb is width x height
+        decodeRegion(yuv420sp, width, height, 0, 0, width, rgb, width, 0, height);
+    }
+
+    public static void decodeRegion (byte[] yuv420sp, int width, int height,
+                                     int left, int top, int roiWidth,
+                                     int[] rgb, int rgbStride, int row0, int row1)
+    { // rows [row0,row1) of the region (relative to its top), into rgb[(y - top) * rgbStride + (x - left)]
+        final int frameSize = width * height;
+        for (int j = row0; j < row1; j++) {
+            int y = top + j;
+            int uvRow = frameSize + (y >> 1) * width;   // u and v are at quarter resolution of y
+            int pix = y * width + left;
+            int out = j * rgbStride;
+            int x = left;
+            int end = left + roiWidth;
+            if ((x & 1) != 0) {     // region starts on the second pixel of a chroma pair
+                int uvp = uvRow + x - 1;
+                int v = yuv420sp[uvp] & 0xFF, u = yuv420sp[uvp + 1] & 0xFF;
+                rgb[out++] = pack(Y_TABLE[yuv420sp[pix++] & 0xFF], RV_TABLE[v], GV_TABLE[v] + GU_TABLE[u], BU_TABLE[u]);
+                x++;
+            }
+            for (; x < end; x += 2) {
+                int uvp = uvRow + x;
+                int v = yuv420sp[uvp] & 0xFF, u = yuv420sp[uvp + 1] & 0xFF;
+                int rv = RV_TABLE[v], guv = GV_TABLE[v] + GU_TABLE[u], bu = BU_TABLE[u];
+                rgb[out++] = pack(Y_TABLE[yuv420sp[pix++] & 0xFF], rv, guv, bu);
+                if (x + 1 < end) rgb[out++] = pack(Y_TABLE[yuv420sp[pix++] & 0xFF], rv, guv, bu);
+            }
+        }
+    }
+
+    public static void decodeDownscaled (byte[] yuv420sp, int width, int height, int factor,
+                                         int[] rgb, int row0, int row1)
+    { // output rows [row0,row1) of a (width/factor) x (height/factor) image, factor a power of 2
+      // (2, 4, 8, ...): each output pixel uses the mean luma of its block and the mean chroma under it
+        checkDownscaleFactor(factor);
+        final int frameSize = width * height;
+        final int outWidth = width / factor;
+        final int shiftY = 2 * Integer.numberOfTrailingZeros(factor);  // log2 of luma samples per block
+        final int chroma = factor >> 1;             // chroma samples per block side
+        final int shiftUV = 2 * Integer.numberOfTrailingZeros(chroma);
+        for (int oy = row0; oy < row1; oy++) {
+            int out = oy * outWidth;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int ySum = 0;
+                for (int dy = 0, pix = oy * factor * width + ox * factor; dy < factor; dy++, pix += width)
+                    for (int dx = 0; dx < factor; dx++) ySum += yuv420sp[pix + dx] & 0xFF;
+                int vSum = 0, uSum = 0;
+                for (int dy = 0, uvp = frameSize + oy * chroma * width + ox * factor; dy < chroma; dy++, uvp += width)
+                    for (int dx = 0; dx < chroma; dx++) {
+                        vSum += yuv420sp[uvp + 2 * dx] & 0xFF;
+                        uSum += yuv420sp[uvp + 2 * dx + 1] & 0xFF;
+                    }
+                int v = vSum >> shiftUV, u = uSum >> shiftUV;
+                rgb[out++] = pack(Y_TABLE[ySum >> shiftY], RV_TABLE[v], GV_TABLE[v] + GU_TABLE[u], BU_TABLE[u]);
+            }
+        }
+    }
+
+    static void checkDownscaleFactor (int factor)
+    {
+        if (factor < 2 || (factor & (factor - 1)) != 0)
+            throw new IllegalArgumentException("downscale factor " + factor + " is not a power of 2");
+    }
+
+    public static void decodeGrayscale (byte[] yuv420sp, int width, int left, int top, int roiWidth,
+                                        int[] rgb, int rgbStride, int row0, int row1)
+    { // grey ARGB from luma only, rows [row0,row1) of a region as in decodeRegion
+        for (int j = row0; j < row1; j++) {
+            int pix = (top + j) * width + left;
+            int out = j * rgbStride;
+            for (int x = 0; x < roiWidth; x++) rgb[out++] = GREY_TABLE[yuv420sp[pix++] & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,84 @@
+// AdaptiveController decisions: decimate first, then resize; relax in the same order
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveControllerTest
+{
+    static final long BUDGET = 1000000000L / 20;   // ns per frame at 20 fps
+
+    static AdaptiveController controller (int maxDecimation)
+    { // three sizes (given out of order), running at the middle one
+        AdaptiveController controller = new AdaptiveController(maxDecimation);
+        controller.setSizes(new int[] {640, 320, 1280}, new int[] {480, 240, 720});
+        controller.setFrameRate(20);
+        controller.onSizeChanged(640, 480);
+        return controller;
+    }
+
+    static int run (AdaptiveController controller, long nanos, boolean canDecimate)
+    { // frames at this cost until the controller decides something (settling and evaluation included)
+        for (int frame = 0; frame < AdaptiveController.SETTLING_FRAMES + AdaptiveController.EVALUATION_FRAMES; frame++) {
+            int change = controller.onFrameProcessed(nanos, canDecimate);
+            if (change != AdaptiveController.NO_CHANGE) return change;
+        }
+        return AdaptiveController.NO_CHANGE;
+    }
+
+    @Test
+    public void sizesInPixelOrder ()
+    {
+        AdaptiveController controller = controller(2);
+        assertEquals(320, controller.width(0));
+        assertEquals(1280, controller.width(2));
+        assertEquals(1, controller.indexOf(640, 480));
+        assertEquals(-1, controller.indexOf(800, 600));
+        assertEquals(0, controller.nearestSize(70000));
+    }
+
+    @Test
+    public void overloadDecimatesThenResizes ()
+    {
+        AdaptiveController controller = controller(2);
+        assertEquals(AdaptiveController.DECIMATION_CHANGED, run(controller, BUDGET, true));
+        assertEquals(1, controller.decimation());
+        assertEquals(AdaptiveController.DECIMATION_CHANGED, run(controller, BUDGET, true));
+        assertEquals(2, controller.decimation());
+        assertEquals(AdaptiveController.RESIZE, run(controller, BUDGET, true));
+        assertEquals(320, controller.requestedWidth);
+        assertEquals(240, controller.requestedHeight);
+        assertEquals(2, controller.decimation());   // a smaller size starts fully decimated
+    }
+
+    @Test
+    public void overloadResizesAtOnceWhenDecimationCannotHelp ()
+    {
+        AdaptiveController controller = controller(2);
+        assertEquals(AdaptiveController.RESIZE, run(controller, BUDGET, false));
+        assertEquals(320, controller.requestedWidth);
+    }
+
+    @Test
+    public void underloadRelaxesThenGrows ()
+    {
+        AdaptiveController controller = controller(2);
+        run(controller, BUDGET, true);
+        assertEquals(1, controller.decimation());
+        assertEquals(AdaptiveController.DECIMATION_CHANGED, run(controller, BUDGET / 10, true));
+        assertEquals(0, controller.decimation());
+        assertEquals(AdaptiveController.RESIZE, run(controller, BUDGET / 10, true));
+        assertEquals(1280, controller.requestedWidth);
+        assertEquals(0, controller.decimation());
+    }
+
+    @Test
+    public void steadyLoadChangesNothing ()
+    {
+        AdaptiveController controller = controller(2);
+        for (int k = 0; k < 5; k++) assertEquals(AdaptiveController.NO_CHANGE, run(controller, BUDGET / 2, true));
+        assertEquals(0, controller.decimation());
+    }
+}
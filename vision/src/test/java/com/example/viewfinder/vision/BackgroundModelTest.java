@@ -0,0 +1,66 @@
+// BackgroundModel: learning a static scene, flagging what appears in it, and relearning after reset
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BackgroundModelTest
+{
+    static final int WIDTH = 80, HEIGHT = 60;
+
+    static byte[] scene (Random random, int squareLevel)
+    { // gradient with +-2 noise, and (if squareLevel >= 0) a 10 x 10 square at (30, 20)
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) {
+                boolean square = squareLevel >= 0 && x >= 30 && x < 40 && y >= 20 && y < 30;
+                luma[y * WIDTH + x] = (byte) (square ? squareLevel : 40 + x + y + random.nextInt(5) - 2);
+            }
+        return luma;
+    }
+
+    @Test
+    public void newObjectIsFlagged ()
+    {
+        Random random = new Random(21);
+        BackgroundModel model = new BackgroundModel(WIDTH, HEIGHT, 0.1f, 3, null);
+        assertEquals(0, model.update(scene(random, -1)));  // first frame only initialises
+        for (int k = 0; k < 30; k++) model.update(scene(random, -1));
+        assertTrue(model.mChangedPixels < 20);      // noise is learnt
+        for (int k = 0; k < 5; k++) {   // the square does not become background while it stays flagged
+            model.update(scene(random, 250));
+            for (int y = 20; y < 30; y++)
+                for (int x = 30; x < 40; x++) assertTrue(model.mMask.get(x, y));
+            assertTrue(model.mChangedPixels < 100 + 20);
+        }
+        model.reset();
+        assertEquals(0, model.update(scene(random, 250)));     // learnt afresh, square included
+        assertFalse(model.mMask.get(35, 25));
+        model.update(scene(random, 250));
+        assertFalse(model.mMask.get(35, 25));
+    }
+
+    @Test
+    public void sameWithTiles ()
+    {
+        TileScheduler scheduler = new TileScheduler(3);
+        try {
+            BackgroundModel serial = new BackgroundModel(WIDTH, HEIGHT, 0.1f, 3, null);
+            BackgroundModel tiled = new BackgroundModel(WIDTH, HEIGHT, 0.1f, 3, scheduler);
+            for (int k = 0; k < 10; k++) {
+                byte[] luma = scene(new Random(k), k < 8 ? -1 : 250);
+                assertEquals(serial.update(luma), tiled.update(luma));
+                assertArrayEquals(serial.mMask.mWords, tiled.mMask.mWords);
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
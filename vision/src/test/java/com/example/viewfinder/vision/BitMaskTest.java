@@ -0,0 +1,50 @@
+// BitMask neighbourhood filter against a pixel by pixel count of the 8 neighbours
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BitMaskTest
+{
+    static int neighbours (BitMask mask, int x, int y)
+    { // set pixels among the 8 around (x, y), outside the image counts as unset
+        int count = 0;
+        for (int dy = -1; dy <= 1; dy++)
+            for (int dx = -1; dx <= 1; dx++) {
+                int nx = x + dx, ny = y + dy;
+                if ((dx != 0 || dy != 0) && nx >= 0 && nx < mask.mWidth && ny >= 0 && ny < mask.mHeight
+                        && mask.get(nx, ny)) count++;
+            }
+        return count;
+    }
+
+    @Test
+    public void filterNeighboursMatchesNaiveCount ()
+    { // widths around the word boundaries, sparse to dense masks, every threshold
+        Random random = new Random(2);
+        int[] widths = {1, 2, 63, 64, 65, 127, 128, 130};
+        float[] densities = {0.05f, 0.3f, 0.5f, 0.8f, 1};
+        for (int width : widths)
+            for (float density : densities) {
+                int height = 1 + random.nextInt(12);
+                BitMask mask = new BitMask(width, height), filtered = new BitMask(width, height);
+                for (int y = 0; y < height; y++)
+                    for (int x = 0; x < width; x++)
+                        if (random.nextFloat() < density) mask.set(x, y);
+                for (int minNeighbours = 0; minNeighbours <= 9; minNeighbours++) {
+                    mask.filterNeighbours(filtered, minNeighbours);
+                    for (int y = 0; y < height; y++)
+                        for (int x = 0; x < width; x++)
+                            assertEquals("width " + width + " at " + x + "," + y + " min " + minNeighbours,
+                                    neighbours(mask, x, y) >= minNeighbours, filtered.get(x, y));
+                    int last = (width - 1) >> 6;    // bits past the end of a row stay zero
+                    for (int y = 0; y < height; y++)
+                        assertEquals(0, filtered.mWords[y * filtered.mWordsPerRow + last] & ~filtered.mLastWordMask);
+                }
+            }
+    }
+}
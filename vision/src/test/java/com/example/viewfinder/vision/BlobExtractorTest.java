@@ -0,0 +1,108 @@
+// BlobExtractor labels of small masks drawn by hand
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BlobExtractorTest
+{
+    static BitMask mask (String... rows)
+    { // '#' is a set pixel
+        BitMask mask = new BitMask(rows[0].length(), rows.length);
+        for (int y = 0; y < rows.length; y++)
+            for (int x = 0; x < rows[y].length(); x++)
+                if (rows[y].charAt(x) == '#') mask.set(x, y);
+        return mask;
+    }
+
+    static void assertBlob (BlobExtractor.Blob blob, int left, int top, int right, int bottom, int area)
+    {
+        assertEquals(left, blob.left);
+        assertEquals(top, blob.top);
+        assertEquals(right, blob.right);
+        assertEquals(bottom, blob.bottom);
+        assertEquals(area, blob.area);
+    }
+
+    @Test
+    public void separateRegionsLargestFirst ()
+    {
+        BlobExtractor extractor = new BlobExtractor(64, 4, 1);
+        assertEquals(2, extractor.extract(mask(
+                "##......",
+                "##....##",
+                "......##",
+                "......##")));
+        assertBlob(extractor.mBlobs[0], 6, 1, 7, 3, 6);
+        assertBlob(extractor.mBlobs[1], 0, 0, 1, 1, 4);
+        assertEquals(6.5f, extractor.mBlobs[0].centroidX, 1e-6f);
+        assertEquals(2, extractor.mBlobs[0].centroidY, 1e-6f);
+        assertEquals(0.5f, extractor.mBlobs[1].centroidX, 1e-6f);
+        assertEquals(0.5f, extractor.mBlobs[1].centroidY, 1e-6f);
+    }
+
+    @Test
+    public void diagonalNeighboursAreConnected ()
+    {
+        BlobExtractor extractor = new BlobExtractor(64, 4, 1);
+        assertEquals(1, extractor.extract(mask(
+                "#...",
+                ".#..",
+                "..#.",
+                ".#..")));
+        assertBlob(extractor.mBlobs[0], 0, 0, 2, 3, 4);
+    }
+
+    @Test
+    public void branchesJoinedBelow ()
+    { // a U: two regions until the last row merges them (and a W, joined twice)
+        BlobExtractor extractor = new BlobExtractor(64, 4, 1);
+        assertEquals(1, extractor.extract(mask(
+                "#...#...#",
+                "#...#...#",
+                "#########")));
+        assertBlob(extractor.mBlobs[0], 0, 0, 8, 2, 15);
+        assertEquals(4, extractor.mBlobs[0].centroidX, 1e-6f);
+    }
+
+    @Test
+    public void runAcrossWordBoundary ()
+    {
+        BitMask mask = new BitMask(130, 2);
+        for (int x = 60; x < 70; x++) mask.set(x, 0);
+        for (int x = 120; x < 130; x++) mask.set(x, 1);
+        BlobExtractor extractor = new BlobExtractor(64, 4, 1);
+        assertEquals(2, extractor.extract(mask));
+        assertBlob(extractor.mBlobs[0], 60, 0, 69, 0, 10);
+        assertBlob(extractor.mBlobs[1], 120, 1, 129, 1, 10);
+    }
+
+    @Test
+    public void smallAndExtraRegionsAreLeftOut ()
+    {
+        BlobExtractor extractor = new BlobExtractor(64, 2, 2);
+        assertEquals(2, extractor.extract(mask(
+                "#.##.###",
+                "........",
+                "####....")));
+        assertEquals(4, extractor.mBlobs[0].area);
+        assertEquals(3, extractor.mBlobs[1].area);
+        assertFalse(extractor.isTruncated);
+    }
+
+    @Test
+    public void runBudget ()
+    {
+        BlobExtractor extractor = new BlobExtractor(3, 4, 1);
+        extractor.extract(mask(
+                "#.#",
+                "...",
+                "#.#"));
+        assertTrue(extractor.isTruncated);
+        assertEquals(3, extractor.nBlobs);     // the three runs found before the budget ran out
+    }
+}
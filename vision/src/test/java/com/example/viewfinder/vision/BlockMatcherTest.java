@@ -0,0 +1,71 @@
+// BlockMatcher on large known motion, brightness changes and frames without texture
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BlockMatcherTest
+{
+    static final int WIDTH = 160, HEIGHT = 128;
+
+    static byte[][] frames (SyntheticSequence sequence)
+    {
+        byte[][] frames = new byte[sequence.nFrames][WIDTH * HEIGHT * 3 / 2];
+        for (int k = 0; k < frames.length; k++) sequence.frame(k, frames[k]);
+        return frames;
+    }
+
+    @Test
+    public void largeMotion ()
+    { // up to 12 pixels per frame, with the brightness drifting
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 8, 12, 1, 3, 27);
+        byte[][] frames = frames(sequence);
+        BlockMatcher matcher = new BlockMatcher(WIDTH, HEIGHT, 16, 32, null);
+        for (int k = 1; k < frames.length; k++) {
+            assertTrue(matcher.estimate(frames[k], frames[k - 1]));
+            assertEquals("frame " + k, sequence.truthX(k), matcher.u, 0.4);
+            assertEquals("frame " + k, sequence.truthY(k), matcher.v, 0.4);
+            assertTrue(matcher.nVectors >= BlockMatcher.MIN_BLOCKS);
+        }
+    }
+
+    @Test
+    public void sameWithTiles ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 4, 6, 1, 0, 28);
+        byte[][] frames = frames(sequence);
+        BlockMatcher serial = new BlockMatcher(WIDTH, HEIGHT, 16, 32, null);
+        TileScheduler scheduler = new TileScheduler(3);
+        try {
+            BlockMatcher tiled = new BlockMatcher(WIDTH, HEIGHT, 16, 32, scheduler);
+            for (int k = 1; k < frames.length; k++) {
+                serial.estimate(frames[k], frames[k - 1]);
+                tiled.estimate(frames[k], frames[k - 1]);
+                for (int b = 0; b < serial.mU.length; b++) {
+                    assertEquals(serial.mU[b], tiled.mU[b], 0);
+                    assertEquals(serial.mV[b], tiled.mV[b], 0);
+                }
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void flatFramesHaveNoVectors ()
+    {
+        byte[] previous = new byte[WIDTH * HEIGHT], current = new byte[WIDTH * HEIGHT];
+        Arrays.fill(previous, (byte) 90);
+        Arrays.fill(current, (byte) 100);
+        BlockMatcher matcher = new BlockMatcher(WIDTH, HEIGHT, 16, 32, null);
+        assertFalse(matcher.estimate(current, previous));
+        assertEquals(0, matcher.nVectors);
+        for (float u : matcher.mU) assertTrue(Float.isNaN(u));
+    }
+}
@@ -0,0 +1,93 @@
+// ColorStatistics histograms and moments against a direct count of the sampled pixels
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ColorStatisticsTest
+{
+    static final int WIDTH = 70, HEIGHT = 50;
+
+    static void assertMatchesCount (ColorStatistics statistics, byte[] yuv, int step)
+    { // luma: every step'th pixel of every step'th row; chroma: the VU row under each sampled
+      // row (the even rows only when step is 1), every max(1, step/2)'th pair
+        int[] luma = new int[256], u = new int[256], v = new int[256];
+        int pairStep = Math.max(1, step / 2);
+        for (int y = 0; y < HEIGHT; y += step) {
+            for (int x = 0; x < WIDTH; x += step) luma[yuv[y * WIDTH + x] & 0xFF]++;
+            if (step == 1 && (y & 1) != 0) continue;
+            int row = WIDTH * HEIGHT + (y >> 1) * WIDTH;
+            for (int pair = 0; 2 * pair < WIDTH; pair += pairStep) {
+                v[yuv[row + 2 * pair] & 0xFF]++;
+                u[yuv[row + 2 * pair + 1] & 0xFF]++;
+            }
+        }
+        assertArrayEquals(luma, statistics.mLumaHistogram);
+        assertArrayEquals(u, statistics.mUHistogram);
+        assertArrayEquals(v, statistics.mVHistogram);
+        assertMoments(luma, statistics.nLumaSamples, statistics.mLumaMean, statistics.mLumaStdDev);
+        assertMoments(u, statistics.nChromaSamples, statistics.mUMean, statistics.mUStdDev);
+        assertMoments(v, statistics.nChromaSamples, statistics.mVMean, statistics.mVStdDev);
+    }
+
+    static void assertMoments (int[] histogram, int nSamples, float mean, float stdDev)
+    {
+        int count = 0;
+        double sum = 0, sumSquares = 0;
+        for (int bin = 0; bin < 256; bin++) {
+            count += histogram[bin];
+            sum += (double) histogram[bin] * bin;
+            sumSquares += (double) histogram[bin] * bin * bin;
+        }
+        assertEquals(count, nSamples);
+        assertEquals(sum / count, mean, 1e-3);
+        assertEquals(Math.sqrt(sumSquares / count - (sum / count) * (sum / count)), stdDev, 1e-3);
+    }
+
+    static byte[] frame (long seed)
+    {
+        byte[] yuv = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(seed).nextBytes(yuv);
+        return yuv;
+    }
+
+    @Test
+    public void everyPixel ()
+    {
+        ColorStatistics statistics = new ColorStatistics(WIDTH, HEIGHT, null);
+        byte[] yuv = frame(22);
+        statistics.compute(yuv, true);
+        assertMatchesCount(statistics, yuv, 1);
+    }
+
+    @Test
+    public void subsampled ()
+    {
+        ColorStatistics statistics = new ColorStatistics(WIDTH, HEIGHT, null);
+        for (int step = 2; step <= 8; step *= 2) {
+            byte[] yuv = frame(step);
+            statistics.setSubsampling(step);
+            statistics.compute(yuv, true);
+            assertMatchesCount(statistics, yuv, step);
+        }
+    }
+
+    @Test
+    public void sameWithTiles ()
+    {
+        TileScheduler scheduler = new TileScheduler(3);
+        try {
+            ColorStatistics statistics = new ColorStatistics(WIDTH, HEIGHT, scheduler);
+            byte[] yuv = frame(23);
+            statistics.compute(yuv, true);
+            assertMatchesCount(statistics, yuv, 1);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
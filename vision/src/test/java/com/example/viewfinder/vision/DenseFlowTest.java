@@ -0,0 +1,93 @@
+// DenseFlow vectors on a known shift, and the blocks it must refuse to solve
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DenseFlowTest
+{
+    static final int WIDTH = 129, HEIGHT = 97;     // 128 x 96 cells: 8 x 6 blocks of 16
+
+    @Test
+    public void knownShift ()
+    { // textured blocks follow the scene to within a tenth of a pixel
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 2, 0.8f, 0, 0, 7);
+        byte[] previous = new byte[WIDTH * HEIGHT * 3 / 2], current = new byte[previous.length];
+        sequence.frame(0, previous);
+        sequence.frame(1, current);
+        DenseFlow flow = new DenseFlow(WIDTH, HEIGHT, 16);
+        float[] u = new float[flow.mGridWidth * flow.mGridHeight], v = new float[u.length];
+        flow.compute(current, previous, u, v);
+        int solved = 0;
+        for (int k = 0; k < u.length; k++) {
+            if (Float.isNaN(u[k])) continue;
+            assertEquals(sequence.truthX(1), u[k], 0.1);
+            assertEquals(sequence.truthY(1), v[k], 0.1);
+            solved++;
+        }
+        assertTrue(solved > u.length / 2);
+    }
+
+    @Test
+    public void singleEdgeIsRejected ()
+    { // a noisy vertical edge has a tiny positive determinant: it used to come out as a huge vector
+        byte[] previous = new byte[WIDTH * HEIGHT], current = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) {
+                int speck = (x * 7 + y * 13) % 29 == 0 ? 1 : 0;
+                previous[y * WIDTH + x] = (byte) ((x < 40 ? 60 : 180) + speck);
+                current[y * WIDTH + x] = (byte) ((x < 41 ? 60 : 180) + speck);
+            }
+        DenseFlow flow = new DenseFlow(WIDTH, HEIGHT, 16);
+        float[] u = new float[flow.mGridWidth * flow.mGridHeight], v = new float[u.length];
+        flow.compute(current, previous, u, v);
+        for (int k = 0; k < u.length; k++) {
+            assertTrue("block " + k, Float.isNaN(u[k]));
+            assertTrue("block " + k, Float.isNaN(v[k]));
+        }
+    }
+
+    @Test
+    public void vectorsStayWithinABlock ()
+    { // whatever the input, a solved vector is at most one block size
+        Random random = new Random(8);
+        byte[] previous = new byte[WIDTH * HEIGHT], current = new byte[WIDTH * HEIGHT];
+        random.nextBytes(previous);
+        random.nextBytes(current);
+        DenseFlow flow = new DenseFlow(WIDTH, HEIGHT, 16);
+        float[] u = new float[flow.mGridWidth * flow.mGridHeight], v = new float[u.length];
+        flow.compute(current, previous, u, v);
+        for (int k = 0; k < u.length; k++) {
+            if (Float.isNaN(u[k])) continue;
+            assertTrue(Math.abs(u[k]) <= 16);
+            assertTrue(Math.abs(v[k]) <= 16);
+        }
+    }
+
+    @Test
+    public void sameWithTiles ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 2, 2, 1, 0, 9);
+        byte[] previous = new byte[WIDTH * HEIGHT * 3 / 2], current = new byte[previous.length];
+        sequence.frame(0, previous);
+        sequence.frame(1, current);
+        DenseFlow serial = new DenseFlow(WIDTH, HEIGHT, 12);
+        float[] u = new float[serial.mGridWidth * serial.mGridHeight], v = new float[u.length];
+        serial.compute(current, previous, u, v);
+        TileScheduler scheduler = new TileScheduler(3);
+        try {
+            float[] tiledU = new float[u.length], tiledV = new float[u.length];
+            new DenseFlow(WIDTH, HEIGHT, 12, scheduler).compute(current, previous, tiledU, tiledV);
+            assertArrayEquals(u, tiledU, 0);
+            assertArrayEquals(v, tiledV, 0);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
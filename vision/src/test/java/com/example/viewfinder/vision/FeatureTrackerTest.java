@@ -0,0 +1,80 @@
+// FeatureTracker on a known motion, with decimation, and after a reset
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FeatureTrackerTest
+{
+    static final int WIDTH = 320, HEIGHT = 240;
+
+    static byte[][] frames (SyntheticSequence sequence)
+    {
+        byte[][] frames = new byte[sequence.nFrames][WIDTH * HEIGHT * 3 / 2];
+        for (int k = 0; k < frames.length; k++) sequence.frame(k, frames[k]);
+        return frames;
+    }
+
+    static void assertTracks (FeatureTracker tracker, SyntheticSequence sequence, byte[][] frames, double tolerance)
+    { // the first frame only detects, every later one follows the scene
+        assertFalse(tracker.track(frames[1], frames[0]));
+        for (int k = 2; k < frames.length; k++) {
+            assertTrue(tracker.track(frames[k], frames[k - 1]));
+            assertEquals("frame " + k, sequence.truthX(k), tracker.u, tolerance);
+            assertEquals("frame " + k, sequence.truthY(k), tracker.v, tolerance);
+        }
+        assertTrue(tracker.nFeatures >= FeatureTracker.MIN_FEATURES);
+    }
+
+    @Test
+    public void knownMotion ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 10, 3, 2, 0.5f, 14);
+        assertTracks(new FeatureTracker(WIDTH, HEIGHT, 100, 5, 3, null), sequence, frames(sequence), 0.1);
+    }
+
+    @Test
+    public void finestLevel ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 10, 3, 2, 0, 15);
+        FeatureTracker tracker = new FeatureTracker(WIDTH, HEIGHT, 100, 5, 3, null);
+        tracker.setFinestLevel(2);
+        assertTracks(tracker, sequence, frames(sequence), 0.25);
+    }
+
+    @Test
+    public void sameWithTiles ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 6, 3, 2, 0, 18);
+        TileScheduler scheduler = new TileScheduler(3);
+        try {
+            assertTracks(new FeatureTracker(WIDTH, HEIGHT, 100, 5, 3, scheduler), sequence, frames(sequence), 0.1);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void resetStartsAfresh ()
+    { // features and the previous pyramid are gone: their frame buffers may hold other frames now
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 12, 3, 2, 0, 17);
+        byte[][] frames = frames(sequence);
+        byte[] a = frames[0].clone(), b = frames[1].clone();
+        FeatureTracker tracker = new FeatureTracker(WIDTH, HEIGHT, 100, 5, 3, null);
+        tracker.track(b, a);
+        tracker.track(a, b);
+        tracker.reset();
+        assertEquals(0, tracker.nFeatures);
+        System.arraycopy(frames[9], 0, a, 0, a.length);     // both buffers refilled meanwhile
+        System.arraycopy(frames[10], 0, b, 0, b.length);
+        assertFalse(tracker.track(b, a));
+        assertEquals(0, tracker.u, 0);
+        assertTrue(tracker.track(frames[11], b));
+        assertEquals(sequence.truthX(11), tracker.u, 0.1);
+        assertEquals(sequence.truthY(11), tracker.v, 0.1);
+    }
+}
@@ -0,0 +1,74 @@
+// Fft against known transforms and through forward and inverse round trips
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FftTest
+{
+    @Test
+    public void impulseAndConstant ()
+    { // an impulse transforms to all ones, a constant to n at zero frequency
+        Fft fft = new Fft(16);
+        float[] re = new float[16], im = new float[16];
+        re[0] = 1;
+        fft.transform(re, im, 0, 1, false);
+        for (int k = 0; k < 16; k++) {
+            assertEquals(1, re[k], 1e-6f);
+            assertEquals(0, im[k], 1e-6f);
+        }
+        fft.transform(re, im, 0, 1, false);
+        assertEquals(16, re[0], 1e-5f);
+        for (int k = 1; k < 16; k++) assertEquals(0, Math.hypot(re[k], im[k]), 1e-5);
+    }
+
+    @Test
+    public void roundTrip ()
+    { // every size up to 1024, placed at an offset with a stride
+        Random random = new Random(3);
+        for (int n = 2; n <= 1024; n *= 2) {
+            Fft fft = new Fft(n);
+            int offset = 3, stride = 2;
+            float[] re = new float[offset + n * stride], im = new float[re.length];
+            float[] re0 = new float[re.length], im0 = new float[re.length];
+            for (int k = 0; k < re.length; k++) {
+                re0[k] = re[k] = random.nextFloat() - 0.5f;
+                im0[k] = im[k] = random.nextFloat() - 0.5f;
+            }
+            fft.transform(re, im, offset, stride, false);
+            fft.transform(re, im, offset, stride, true);
+            for (int k = 0; k < re.length; k++) {
+                boolean inside = k >= offset && (k - offset) % stride == 0;
+                float scale = inside ? n : 1;   // the inverse is not scaled; other entries are untouched
+                assertEquals("n " + n + " re " + k, re0[k], re[k] / scale, 1e-5f);
+                assertEquals("n " + n + " im " + k, im0[k], im[k] / scale, 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void roundTrip2D ()
+    {
+        Random random = new Random(4);
+        int n = 32;
+        Fft fft = new Fft(n);
+        float[] re = new float[n * n], im = new float[n * n], re0 = new float[n * n];
+        for (int k = 0; k < n * n; k++) re0[k] = re[k] = random.nextFloat();
+        fft.transform2D(re, im, false);
+        fft.transform2D(re, im, true);
+        for (int k = 0; k < n * n; k++) {
+            assertEquals(re0[k], re[k] / (n * n), 1e-5f);
+            assertEquals(0, im[k] / (n * n), 1e-5f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMustBeAPowerOf2 ()
+    {
+        new Fft(24);
+    }
+}
@@ -0,0 +1,134 @@
+// FrameProcessor run headless: results against known motion, stages on demand, mode switches and stop
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class FrameProcessorTest
+{
+    static final int WIDTH = 160, HEIGHT = 120;
+
+    static byte[][] frames (SyntheticSequence sequence)
+    {
+        byte[][] frames = new byte[sequence.nFrames][WIDTH * HEIGHT * 3 / 2];
+        for (int k = 0; k < frames.length; k++) sequence.frame(k, frames[k]);
+        return frames;
+    }
+
+    @Test
+    public void globalMotion ()
+    { // the estimate of each frame, and the tracked point moving with it
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 8, 2, 1, 0, 30);
+        byte[][] frames = frames(sequence);
+        FrameProcessor processor = new FrameProcessor(WIDTH, HEIGHT, 1, null);
+        processor.setTrackingMode(FrameProcessor.TRACK_GLOBAL, 24);
+        processor.setMotionGateEnabled(false);     // the scene drifts too smoothly for it
+        try {
+            assertTrue(processor.process(frames[0]));
+            float x = WIDTH / 2, y = HEIGHT / 2;   // where the point starts
+            for (int k = 1; k < frames.length; k++) {
+                assertTrue(processor.process(frames[k]));
+                FrameResult result = processor.latestResult();
+                assertTrue(result.valid);
+                assertEquals(sequence.truthX(k), result.u, 0.1);
+                assertEquals(sequence.truthY(k), result.v, 0.1);
+                assertEquals(x + result.u, result.trackingX, 1e-3);
+                assertEquals(y + result.v, result.trackingY, 1e-3);
+                x = result.trackingX;
+                y = result.trackingY;
+            }
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void staticFramesAreSkipped ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 2, 2, 0, 0, 31);
+        byte[][] frames = frames(sequence);
+        FrameProcessor processor = new FrameProcessor(WIDTH, HEIGHT, 1, null);
+        try {
+            assertTrue(processor.process(frames[0]));
+            assertTrue(processor.process(frames[1]));
+            assertFalse(processor.process(frames[1]));
+            assertEquals(1, processor.latencyRecorder().skipped());
+            processor.setMotionGateEnabled(false);
+            assertTrue(processor.process(frames[1]));
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void stagesRunOnlyWhenAskedFor ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 4, 2, 1, 0, 32);
+        byte[][] frames = frames(sequence);
+        FrameProcessor processor = new FrameProcessor(WIDTH, HEIGHT, 1, null);
+        processor.setMotionGateEnabled(false);
+        try {
+            processor.process(frames[0]);
+            processor.process(frames[1]);
+            FrameResult result = processor.latestResult();
+            assertFalse(result.hasChangeMask || result.hasFlowField || result.hasColorStatistics);
+            processor.setDemand(FrameProcessor.CONSUMER_TELEMETRY, FrameProcessor.STAGE_COLOR | FrameProcessor.STAGE_FLOW);
+            processor.process(frames[2]);
+            result = processor.latestResult();
+            assertTrue(result.hasFlowField && result.hasColorStatistics);
+            assertFalse(result.hasChangeMask);
+            assertEquals(128, result.uMean, 1e-3);     // the chroma plane was copied with the frame
+            processor.setDemand(FrameProcessor.CONSUMER_TELEMETRY, 0);
+            processor.process(frames[3]);
+            assertFalse(processor.latestResult().hasColorStatistics);
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void featuresStartAfreshAfterAnotherMode ()
+    { // features kept from before the switch would be followed into frames long after theirs
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH * 2, HEIGHT * 2, 16, 3, 1, 0, 33);
+        byte[][] frames = new byte[sequence.nFrames][WIDTH * HEIGHT * 6];
+        for (int k = 0; k < frames.length; k++) sequence.frame(k, frames[k]);
+        FrameProcessor processor = new FrameProcessor(WIDTH * 2, HEIGHT * 2, 1, null);
+        processor.setMotionGateEnabled(false);
+        try {
+            for (int k = 0; k < frames.length; k++) {
+                int mode = k < 5 || k >= 10 ? FrameProcessor.TRACK_FEATURES : FrameProcessor.TRACK_GLOBAL;
+                processor.setTrackingMode(mode, 24);
+                assertTrue(processor.process(frames[k]));
+                FrameResult result = processor.latestResult();
+                if (k == 10) assertEquals(0, processor.mFeatures.nTracked);    // none carried over
+                if (k < 2 || k == 5 || k == 10) continue;    // nothing tracked yet
+                assertEquals("frame " + k, sequence.truthX(k), result.u, 0.15);
+                assertEquals("frame " + k, sequence.truthY(k), result.v, 0.15);
+            }
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void framesAfterStopAreIgnored ()
+    { // the buffers went back to the pool: a late frame must neither land in them nor throw
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameProcessor processor = new FrameProcessor(WIDTH, HEIGHT, 1, null, pool);
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        processor.submit(frame);
+        assertEquals(1, processor.latencyRecorder().received());
+        processor.stop();
+        byte[] reused = pool.take(frame.length);
+        Arrays.fill(frame, (byte) 77);
+        processor.submit(frame);
+        assertEquals(1, processor.latencyRecorder().received());
+        assertFalse(reused[0] == 77);
+    }
+}
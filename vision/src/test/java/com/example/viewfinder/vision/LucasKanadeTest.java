@@ -0,0 +1,75 @@
+// LucasKanade global estimate on a smooth pattern moved by a known amount
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LucasKanadeTest
+{
+    static final int WIDTH = 96, HEIGHT = 72;
+
+    static byte[] pattern (double shiftX, double shiftY)
+    { // smooth luma with its content moved right by shiftX and down by shiftY
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) {
+                double px = x - shiftX, py = y - shiftY;
+                luma[y * WIDTH + x] = (byte) Math.round(128 + 50 * Math.sin(0.2 * px) + 50 * Math.cos(0.17 * py));
+            }
+        return luma;
+    }
+
+    static void assertMotion (LucasKanade lk, double shiftX, double shiftY)
+    {
+        assertTrue(lk.estimateGlobal(pattern(shiftX, shiftY), pattern(0, 0), WIDTH, HEIGHT));
+        assertEquals(shiftX, lk.u, 0.05);
+        assertEquals(shiftY, lk.v, 0.05);
+    }
+
+    @Test
+    public void knownShift ()
+    { // u and v are the motion of the content from the previous frame to the current one
+        LucasKanade lk = new LucasKanade();
+        assertMotion(lk, 0.5, -0.25);
+        assertMotion(lk, -0.4, 0.3);
+        assertMotion(lk, 0, 0);
+    }
+
+    @Test
+    public void sameWithTiles ()
+    {
+        TileScheduler scheduler = new TileScheduler(3);
+        try {
+            assertMotion(new LucasKanade(scheduler), 0.5, -0.25);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void singleEdgeIsRejected ()
+    { // a window on one slightly noisy edge: tiny but positive determinant, so it used to give a huge (u, v)
+        byte[] previous = new byte[WIDTH * HEIGHT], current = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) {
+                int speck = (x * 7 + y * 13) % 29 == 0 ? 1 : 0;
+                previous[y * WIDTH + x] = (byte) ((x < 48 ? 60 : 180) + speck);
+                current[y * WIDTH + x] = (byte) ((x < 49 ? 60 : 180) + speck);
+            }
+        LucasKanade lk = new LucasKanade();
+        assertFalse(lk.estimateWindow(current, previous, WIDTH, HEIGHT, 48, 36, 8));
+        assertEquals(0, lk.u, 0);
+        assertEquals(0, lk.v, 0);
+    }
+
+    @Test
+    public void flatFrameIsSingular ()
+    {
+        byte[] flat = new byte[WIDTH * HEIGHT];
+        assertFalse(new LucasKanade().estimateGlobal(flat, flat, WIDTH, HEIGHT));
+    }
+}
@@ -0,0 +1,103 @@
+// MotionGate: what it must notice, how soon, and what it must let pass
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MotionGateTest
+{
+    static final int WIDTH = 64, HEIGHT = 48;
+
+    static byte[] grey (int level)
+    {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) level);
+        return luma;
+    }
+
+    @Test
+    public void staticAndNoisyScenes ()
+    { // identical frames, and noise well below mNoise, are not motion
+        MotionGate gate = new MotionGate(WIDTH, HEIGHT);
+        byte[] reference = grey(100), luma = grey(100);
+        for (int call = 0; call < 16; call++) assertFalse(gate.isMoving(luma, reference));
+        assertEquals(0, gate.mMaxDifference);
+        Random random = new Random(20);
+        for (int pix = 0; pix < luma.length; pix++) luma[pix] = (byte) (100 + random.nextInt(11) - 5);
+        for (int call = 0; call < 16; call++) assertFalse(gate.isMoving(luma, reference));
+    }
+
+    @Test
+    public void everyPixelOnceIn16Calls ()
+    { // a single strongly changed pixel is sampled by exactly one of any 16 consecutive calls
+        MotionGate gate = new MotionGate(WIDTH, HEIGHT);
+        byte[] reference = grey(0);
+        for (int y = 20; y < 24; y++)
+            for (int x = 36; x < 40; x++) {
+                byte[] luma = grey(0);
+                luma[y * WIDTH + x] = (byte) 255;
+                int caught = 0;
+                for (int call = 0; call < 16; call++) if (gate.isMoving(luma, reference)) caught++;
+                assertEquals("pixel " + x + "," + y, 1, caught);
+            }
+    }
+
+    @Test
+    public void thinLinesSoon ()
+    { // a changed column is sampled within 4 calls, a changed row within 7
+        MotionGate gate = new MotionGate(WIDTH, HEIGHT);
+        byte[] reference = grey(0);
+        for (int start = 0; start < 16; start++)
+            for (int line = 32; line < 36; line++) {
+                byte[] column = grey(0), row = grey(0);
+                for (int y = 0; y < HEIGHT; y++) column[y * WIDTH + line] = (byte) 40;
+                for (int x = 0; x < WIDTH; x++) row[(line - 16) * WIDTH + x] = (byte) 40;
+                assertTrue(caughtWithin(gate, column, reference, 4));
+                assertTrue(caughtWithin(gate, row, reference, 7));
+                gate.isMoving(reference, reference);    // move the starting offset on
+            }
+    }
+
+    static boolean caughtWithin (MotionGate gate, byte[] luma, byte[] reference, int calls)
+    {
+        for (int call = 0; call < calls; call++) if (gate.isMoving(luma, reference)) return true;
+        return false;
+    }
+
+    @Test
+    public void smallObjectEveryCall ()
+    { // 12 x 4 (or 4 x 12) pixels with a contrast just over mNoise: caught whatever the sample offset,
+      // though far too faint to lift the mean of any cell over mThreshold
+        MotionGate gate = new MotionGate(WIDTH, HEIGHT);
+        byte[] reference = grey(50);
+        int contrast = gate.mNoise + 1;
+        int[][] sizes = {{12, 4}, {4, 12}};
+        for (int[] size : sizes)
+            for (int top = 10; top < 18; top++)
+                for (int left = 10; left < 18; left++) {
+                    byte[] luma = grey(50);
+                    for (int y = top; y < top + size[1]; y++)
+                        for (int x = left; x < left + size[0]; x++) luma[y * WIDTH + x] = (byte) (50 + contrast);
+                    for (int call = 0; call < 16; call++) {
+                        assertTrue(size[0] + "x" + size[1] + " at " + left + "," + top, gate.isMoving(luma, reference));
+                        assertTrue(gate.mMaxDifference <= gate.mThreshold);
+                    }
+                }
+    }
+
+    @Test
+    public void oneHotPixelIsNotMotion ()
+    { // a single sample over mNoise (but too faint for the mean) does not move a cell
+        MotionGate gate = new MotionGate(WIDTH, HEIGHT);
+        byte[] reference = grey(50), luma = grey(50);
+        luma[21 * WIDTH + 37] = (byte) 150;
+        for (int call = 0; call < 16; call++) assertFalse(gate.isMoving(luma, reference));
+    }
+}
@@ -0,0 +1,70 @@
+// PhaseCorrelation on known shifts, and its refusal to report noise as motion
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PhaseCorrelationTest
+{
+    static final int WIDTH = 256, HEIGHT = 192;
+
+    static void assertShifts (float maxStep, long seed, float tolerance, float share)
+    { // every frame of a sequence within tolerance plus share of the true shift
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 10, maxStep, 1, 0, seed);
+        byte[][] frames = new byte[sequence.nFrames][WIDTH * HEIGHT * 3 / 2];
+        for (int k = 0; k < frames.length; k++) sequence.frame(k, frames[k]);
+        PhaseCorrelation phase = new PhaseCorrelation(WIDTH, HEIGHT, 64);
+        for (int k = 1; k < frames.length; k++) {
+            float x = sequence.truthX(k), y = sequence.truthY(k);
+            assertTrue(phase.estimate(frames[k], frames[k - 1]));
+            assertEquals("frame " + k, x, phase.u, tolerance + share * Math.abs(x));
+            assertEquals("frame " + k, y, phase.v, tolerance + share * Math.abs(y));
+            assertTrue(phase.confidence > 0.5f);
+        }
+    }
+
+    @Test
+    public void knownShifts ()
+    { // up to 3 pixels per frame
+        assertShifts(3, 24, 0.25f, 0);
+    }
+
+    @Test
+    public void largeShifts ()
+    { // up to 8 pixels: the window stays put while the scene moves through it, which pulls the
+      // phase slope towards zero by a few percent of the shift
+        assertShifts(8, 24, 0.1f, 0.1f);
+    }
+
+    @Test
+    public void brightnessChangeIsNotMotion ()
+    {
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 1, 0, 0, 0, 25);
+        byte[] previous = new byte[WIDTH * HEIGHT * 3 / 2], current = new byte[previous.length];
+        sequence.frame(0, previous);
+        for (int pix = 0; pix < WIDTH * HEIGHT; pix++) current[pix] = (byte) Math.min(255, (previous[pix] & 0xFF) + 20);
+        PhaseCorrelation phase = new PhaseCorrelation(WIDTH, HEIGHT, 64);
+        assertTrue(phase.estimate(current, previous));
+        assertEquals(0, phase.u, 0.1);
+        assertEquals(0, phase.v, 0.1);
+    }
+
+    @Test
+    public void unrelatedFramesHaveNoPeak ()
+    { // noise correlates to peaks of about 0.1: no motion, rather than a random one
+        Random random = new Random(26);
+        byte[] previous = new byte[WIDTH * HEIGHT], current = new byte[WIDTH * HEIGHT];
+        random.nextBytes(previous);
+        random.nextBytes(current);
+        PhaseCorrelation phase = new PhaseCorrelation(WIDTH, HEIGHT, 64);
+        assertFalse(phase.estimate(current, previous));
+        assertEquals(0, phase.u, 0);
+        assertEquals(0, phase.v, 0);
+    }
+}
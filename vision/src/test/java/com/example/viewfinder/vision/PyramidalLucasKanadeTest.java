@@ -0,0 +1,64 @@
+// PyramidalLucasKanade on shifts too large for one level, and its reset between uses
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PyramidalLucasKanadeTest
+{
+    static final int WIDTH = 160, HEIGHT = 120;
+
+    static byte[][] frames (SyntheticSequence sequence)
+    {
+        byte[][] frames = new byte[sequence.nFrames][WIDTH * HEIGHT * 3 / 2];
+        for (int k = 0; k < frames.length; k++) sequence.frame(k, frames[k]);
+        return frames;
+    }
+
+    @Test
+    public void largeShifts ()
+    { // up to 6 pixels per frame, found coarse to fine
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 12, 6, 1, 0, 11);
+        byte[][] frames = frames(sequence);
+        PyramidalLucasKanade flow = new PyramidalLucasKanade(WIDTH, HEIGHT, 3, 2);
+        for (int k = 1; k < frames.length; k++) {
+            assertTrue(flow.estimateGlobal(frames[k], frames[k - 1]));
+            assertEquals("frame " + k, sequence.truthX(k), flow.u, 0.25);
+            assertEquals("frame " + k, sequence.truthY(k), flow.v, 0.25);
+        }
+    }
+
+    @Test
+    public void finestLevel ()
+    { // stopping at half resolution costs some accuracy, not the estimate
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 6, 3, 1, 0, 12);
+        byte[][] frames = frames(sequence);
+        PyramidalLucasKanade flow = new PyramidalLucasKanade(WIDTH, HEIGHT, 3, 2);
+        flow.setFinestLevel(1);
+        for (int k = 1; k < frames.length; k++) {
+            assertTrue(flow.estimateGlobal(frames[k], frames[k - 1]));
+            assertEquals(sequence.truthX(k), flow.u, 0.5);
+            assertEquals(sequence.truthY(k), flow.v, 0.5);
+        }
+    }
+
+    @Test
+    public void resetForgetsARefilledBuffer ()
+    { // the pyramid kept for a buffer is stale once the buffer holds another frame (decimated, so
+      // only its reduced levels are used: level 0 is the buffer itself)
+        SyntheticSequence sequence = new SyntheticSequence(WIDTH, HEIGHT, 8, 3, 1, 0, 13);
+        byte[][] frames = frames(sequence);
+        byte[] a = frames[0].clone(), b = frames[1].clone(), c = frames[7].clone();
+        PyramidalLucasKanade flow = new PyramidalLucasKanade(WIDTH, HEIGHT, 3, 2);
+        flow.setFinestLevel(1);
+        flow.estimateGlobal(b, a);     // keeps the pyramid of b (frame 1)
+        System.arraycopy(frames[6], 0, b, 0, b.length);     // b is refilled meanwhile
+        flow.reset();
+        assertTrue(flow.estimateGlobal(c, b));
+        assertEquals(sequence.truthX(7), flow.u, 0.5);
+        assertEquals(sequence.truthY(7), flow.v, 0.5);
+    }
+}
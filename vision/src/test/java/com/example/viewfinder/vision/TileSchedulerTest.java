@@ -0,0 +1,61 @@
+// TileScheduler: every row run exactly once, by tiles that cover them, and failures passed on
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class TileSchedulerTest
+{
+    @Test
+    public void everyRowOnce ()
+    {
+        int[] threads = {1, 2, 4};
+        int[] rows = {0, 1, 3, 7, 100, 1001};
+        for (int nThreads : threads) {
+            TileScheduler scheduler = new TileScheduler(nThreads);
+            try {
+                for (int repeat = 0; repeat < 50; repeat++)
+                    for (int nRows : rows) {
+                        final AtomicIntegerArray counts = new AtomicIntegerArray(Math.max(1, nRows));
+                        final AtomicIntegerArray tiles = new AtomicIntegerArray(scheduler.nTiles);
+                        scheduler.run(new TileScheduler.Kernel() {
+                            public void run (int tile, int rowStart, int rowEnd)
+                            {
+                                tiles.incrementAndGet(tile);
+                                for (int row = rowStart; row < rowEnd; row++) counts.incrementAndGet(row);
+                            }
+                        }, nRows);
+                        for (int row = 0; row < nRows; row++) assertEquals(1, counts.get(row));
+                        for (int tile = 0; tile < scheduler.nTiles; tile++) assertEquals(1, tiles.get(tile));
+                    }
+            } finally {
+                scheduler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void kernelFailureReachesTheCaller ()
+    {
+        TileScheduler scheduler = new TileScheduler(3);
+        try {
+            scheduler.run(new TileScheduler.Kernel() {
+                public void run (int tile, int rowStart, int rowEnd)
+                {
+                    if (tile == 2) throw new IllegalStateException("tile 2");
+                }
+            }, 60);
+            fail("no exception");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
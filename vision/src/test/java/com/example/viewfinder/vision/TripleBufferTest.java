@@ -0,0 +1,85 @@
+// TripleBuffer hand-over between a writer and a reader
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TripleBufferTest
+{
+    @Test
+    public void readerGetsTheNewestPublished ()
+    {
+        TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+        assertFalse(buffer.poll());
+        int[] first = buffer.back();
+        first[0] = 1;
+        buffer.publish();
+        assertNotSame(first, buffer.back());
+        assertTrue(buffer.poll());
+        assertSame(first, buffer.front());
+        assertFalse(buffer.poll());             // nothing new: the front stays
+        assertSame(first, buffer.front());
+
+        buffer.back()[0] = 2;
+        buffer.publish();
+        buffer.back()[0] = 3;                   // published before the reader looked: 2 is dropped
+        buffer.publish();
+        assertNotSame(first, buffer.back());    // the writer never gets the slot the reader holds
+        assertTrue(buffer.poll());
+        assertEquals(3, buffer.front()[0]);
+        assertFalse(buffer.poll());
+    }
+
+    @Test
+    public void exchangeFront ()
+    {
+        TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+        buffer.back()[0] = 1;
+        buffer.publish();
+        buffer.poll();
+        int[] replacement = new int[1];
+        int[] kept = buffer.exchangeFront(replacement);
+        assertEquals(1, kept[0]);
+        assertSame(replacement, buffer.front());
+        for (int k = 0; k < 6; k++) {           // kept never comes back round to the writer
+            assertNotSame(kept, buffer.back());
+            buffer.publish();
+            buffer.poll();
+        }
+    }
+
+    @Test
+    public void threadsSeeWholeIncreasingValues () throws InterruptedException
+    { // each slot holds a value twice: the reader must never see a half written slot, or go backwards
+        final TripleBuffer<long[]> buffer = new TripleBuffer<long[]>(new long[2], new long[2], new long[2]);
+        final int count = 200000;
+        Thread writer = new Thread() {
+            @Override
+            public void run ()
+            {
+                for (long value = 1; value <= count; value++) {
+                    long[] slot = buffer.back();
+                    slot[0] = value;
+                    slot[1] = value;
+                    buffer.publish();
+                }
+            }
+        };
+        writer.start();
+        long last = 0;
+        while (last < count) {
+            if (!buffer.poll()) continue;
+            long[] slot = buffer.front();
+            assertEquals(slot[0], slot[1]);
+            assertTrue(slot[0] > last);
+            last = slot[0];
+        }
+        writer.join();
+    }
+}
@@ -0,0 +1,79 @@
+// YuvConverter against the original decodeYUV420SP, which it must reproduce bit for bit
+
+package com.example.viewfinder.vision;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class YuvConverterTest
+{
+    static void decodeYUV420SP (int[] rgb, byte[] yuv420sp, int width, int height)
+    { // the conversion as it was first written, kept here as the reference
+        final int frameSize = width * height;
+
+        for (int j = 0, pix = 0; j < height; j++) {
+            int uvp = frameSize + (j >> 1) * width;	// index to start of u and v data for this row
+            int u = 0, v = 0;
+            for (int i = 0; i < width; i++, pix++) {
+                int y = (0xFF & ((int) yuv420sp[pix])) - 16;
+                if (y < 0) y = 0;
+                if ((i & 1) == 0) { // even row & column (u & v are at quarter resolution of y)
+                    v = (0xFF & yuv420sp[uvp++]) - 128;
+                    u = (0xFF & yuv420sp[uvp++]) - 128;
+                }
+
+                int y1192 = 1192 * y;
+                int r = (y1192 + 1634 * v);
+                int g = (y1192 - 833 * v - 400 * u);
+                int b = (y1192 + 2066 * u);
+
+                if (r < 0) r = 0;
+                else if (r > 0x3FFFF) r = 0x3FFFF;
+                if (g < 0) g = 0;
+                else if (g > 0x3FFFF) g = 0x3FFFF;
+                if (b < 0) b = 0;
+                else if (b > 0x3FFFF) b = 0x3FFFF;
+
+                rgb[pix] = 0xFF000000 | ((r << 6) & 0xFF0000) | ((g >> 2) & 0xFF00) | ((b >> 10) & 0xFF);
+            }
+        }
+    }
+
+    static void assertSameAsOriginal (byte[] nv21, int width, int height)
+    {
+        int[] expected = new int[width * height], actual = new int[width * height];
+        decodeYUV420SP(expected, nv21, width, height);
+        YuvConverter.decode(nv21, width, height, actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void everyChromaPairAndLumaLevel ()
+    { // 256 x 256 chroma pairs: u along a row, v down the rows, luma cycling through all levels
+        int width = 512, height = 512;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) nv21[y * width + x] = (byte) (x + 7 * y);
+        for (int row = 0; row < height / 2; row++)
+            for (int pair = 0; pair < width / 2; pair++) {
+                nv21[width * height + row * width + 2 * pair] = (byte) row;         // v
+                nv21[width * height + row * width + 2 * pair + 1] = (byte) pair;    // u
+            }
+        assertSameAsOriginal(nv21, width, height);
+    }
+
+    @Test
+    public void randomFrames ()
+    {
+        Random random = new Random(1);
+        int[][] sizes = {{2, 2}, {6, 4}, {64, 48}, {320, 240}};
+        for (int[] size : sizes) {
+            byte[] nv21 = new byte[size[0] * size[1] * 3 / 2];
+            random.nextBytes(nv21);
+            assertSameAsOriginal(nv21, size[0], size[1]);
+        }
+    }
+}